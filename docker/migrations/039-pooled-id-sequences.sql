@@ -0,0 +1,24 @@
+-- ===========================================
+-- Pooled ID sequences (users, user_allergies)
+-- ===========================================
+-- Entity IDs are generated from sequences with an allocation size of 50 instead of
+-- BIGSERIAL defaults, so Hibernate can batch inserts. Only needed for databases whose
+-- schema is not managed by Hibernate; IdSequenceInitializer performs the same alignment
+-- on startup, but leaves the old defaults and sequences to this migration.
+
+CREATE SEQUENCE IF NOT EXISTS users_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS user_allergies_seq START WITH 1 INCREMENT BY 50;
+
+-- The next nextval returns MAX(id) + 50, the upper end of a block starting at MAX(id) + 1
+SELECT setval('users_seq', m) FROM (SELECT MAX(id) AS m FROM users) t
+WHERE m >= (SELECT last_value FROM users_seq);
+SELECT setval('user_allergies_seq', m) FROM (SELECT MAX(id) AS m FROM user_allergies) t
+WHERE m >= (SELECT last_value FROM user_allergies_seq);
+
+-- Nothing may draw IDs from the old BIGSERIAL sequences any more: an insert without an ID
+-- would take one from a range Hibernate hands out. The defaults depend on the sequences,
+-- so they are dropped first.
+ALTER TABLE users ALTER COLUMN id DROP DEFAULT;
+ALTER TABLE user_allergies ALTER COLUMN id DROP DEFAULT;
+DROP SEQUENCE IF EXISTS users_id_seq;
+DROP SEQUENCE IF EXISTS user_allergies_id_seq;
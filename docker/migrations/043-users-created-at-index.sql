@@ -0,0 +1,8 @@
+-- ===========================================
+-- Creation time index (users.created_at)
+-- ===========================================
+-- Every instance polls the users created since its last poll, so its public ID filter
+-- learns about new passports even when their pg_notify announcement was lost. Only
+-- needed for databases whose schema is not managed by Hibernate.
+
+CREATE INDEX IF NOT EXISTS idx_users_created_at ON users(created_at);
@@ -5,17 +5,27 @@
 -- Hibernate will auto-create/update tables based on entities.
 -- Run this manually only if you want to set up the schema without Hibernate.
 
+-- ID sequences (pooled by Hibernate, 50 IDs per call)
+CREATE SEQUENCE IF NOT EXISTS users_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS user_allergies_seq START WITH 1 INCREMENT BY 50;
+
 -- Users table
 CREATE TABLE IF NOT EXISTS users (
-    id BIGSERIAL PRIMARY KEY,
+    id BIGINT PRIMARY KEY,
     public_id VARCHAR(8) UNIQUE NOT NULL,
     google_id VARCHAR(255) UNIQUE NOT NULL,
     email VARCHAR(255) NOT NULL,
     display_name VARCHAR(100),
     bio VARCHAR(500),
     profile_picture BYTEA,
+    profile_picture_hash VARCHAR(64),
     profile_picture_content_type VARCHAR(50),
     google_picture_url VARCHAR(500),
+    google_picture_hash VARCHAR(64),
+    google_picture_fetched_at TIMESTAMP,
+    picture_upload_state VARCHAR(16),
+    picture_upload_at TIMESTAMP,
+    allergy_mask BIGINT,
     created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
     updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
@@ -23,10 +33,12 @@ CREATE TABLE IF NOT EXISTS users (
 -- Index for faster public ID lookups
 CREATE INDEX IF NOT EXISTS idx_users_public_id ON users(public_id);
 CREATE INDEX IF NOT EXISTS idx_users_google_id ON users(google_id);
+-- New users are polled by creation time (public ID filter)
+CREATE INDEX IF NOT EXISTS idx_users_created_at ON users(created_at);
 
 -- User allergies table
 CREATE TABLE IF NOT EXISTS user_allergies (
-    id BIGSERIAL PRIMARY KEY,
+    id BIGINT PRIMARY KEY,
     user_id BIGINT NOT NULL,
     allergy_type VARCHAR(50) NOT NULL,
     severity VARCHAR(20) NOT NULL,
@@ -46,19 +58,48 @@ CREATE TABLE IF NOT EXISTS user_allergies (
 -- Index for faster user allergy lookups
 CREATE INDEX IF NOT EXISTS idx_user_allergies_user_id ON user_allergies(user_id);
 
+-- ===========================================
+-- HTTP Sessions (Spring Session JDBC)
+-- ===========================================
+-- Also created on startup (spring.session.jdbc.initialize-schema=always)
+
+CREATE TABLE IF NOT EXISTS SPRING_SESSION (
+    PRIMARY_ID CHAR(36) NOT NULL,
+    SESSION_ID CHAR(36) NOT NULL,
+    CREATION_TIME BIGINT NOT NULL,
+    LAST_ACCESS_TIME BIGINT NOT NULL,
+    MAX_INACTIVE_INTERVAL INT NOT NULL,
+    EXPIRY_TIME BIGINT NOT NULL,
+    PRINCIPAL_NAME VARCHAR(100),
+    CONSTRAINT SPRING_SESSION_PK PRIMARY KEY (PRIMARY_ID)
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS SPRING_SESSION_IX1 ON SPRING_SESSION (SESSION_ID);
+CREATE INDEX IF NOT EXISTS SPRING_SESSION_IX2 ON SPRING_SESSION (EXPIRY_TIME);
+CREATE INDEX IF NOT EXISTS SPRING_SESSION_IX3 ON SPRING_SESSION (PRINCIPAL_NAME);
+
+CREATE TABLE IF NOT EXISTS SPRING_SESSION_ATTRIBUTES (
+    SESSION_PRIMARY_ID CHAR(36) NOT NULL,
+    ATTRIBUTE_NAME VARCHAR(200) NOT NULL,
+    ATTRIBUTE_BYTES BYTEA NOT NULL,
+    CONSTRAINT SPRING_SESSION_ATTRIBUTES_PK PRIMARY KEY (SESSION_PRIMARY_ID, ATTRIBUTE_NAME),
+    CONSTRAINT SPRING_SESSION_ATTRIBUTES_FK FOREIGN KEY (SESSION_PRIMARY_ID)
+        REFERENCES SPRING_SESSION(PRIMARY_ID) ON DELETE CASCADE
+);
+
 -- ===========================================
 -- Sample Data (for testing)
 -- ===========================================
 -- Uncomment to insert test data
 
 /*
-INSERT INTO users (public_id, google_id, email, display_name, bio, created_at)
+INSERT INTO users (id, public_id, google_id, email, display_name, bio, created_at)
 VALUES 
-    ('abc12345', 'google-id-123', 'test@example.com', 'Test User', 'I have multiple food allergies.', CURRENT_TIMESTAMP);
+    (1, 'abc12345', 'google-id-123', 'test@example.com', 'Test User', 'I have multiple food allergies.', CURRENT_TIMESTAMP);
 
-INSERT INTO user_allergies (user_id, allergy_type, severity, notes, created_at)
+INSERT INTO user_allergies (id, user_id, allergy_type, severity, notes, created_at)
 VALUES 
-    (1, 'PEANUTS', 'SEVERE', 'Strict avoidance required. Traces can cause reaction.', CURRENT_TIMESTAMP),
-    (1, 'DAIRY', 'INTOLERANCE', 'Lactose intolerant. Small amounts okay.', CURRENT_TIMESTAMP),
-    (1, 'GLUTEN', 'INTOLERANCE', 'Causes digestive issues.', CURRENT_TIMESTAMP);
+    (1, 1, 'PEANUTS', 'SEVERE', 'Strict avoidance required. Traces can cause reaction.', CURRENT_TIMESTAMP),
+    (2, 1, 'DAIRY', 'INTOLERANCE', 'Lactose intolerant. Small amounts okay.', CURRENT_TIMESTAMP),
+    (3, 1, 'GLUTEN', 'INTOLERANCE', 'Causes digestive issues.', CURRENT_TIMESTAMP);
 */
@@ -0,0 +1,74 @@
+package com.allergypassport.config;
+
+import java.util.function.Supplier;
+
+/**
+ * Per-thread routing hints for ReplicaRoutingDataSource.
+ * <p>
+ * - {@link #onPrimary(Supplier)} forces reads to the primary, e.g. for loads that populate shared caches,
+ *   which must never be filled from a lagging replica.
+ * - Within an HTTP request (see ReadYourWritesFilter), write transactions are recorded so the session
+ *   keeps reading from the primary for a while afterwards.
+ * Without a configured replica everything goes to the single data source and these hints have no effect.
+ */
+public final class DataSourceRouting {
+
+    private static final ThreadLocal<Integer> PRIMARY_FORCED = ThreadLocal.withInitial(() -> 0);
+
+    // Non-null only while a request is being handled
+    private static final ThreadLocal<boolean[]> REQUEST_WROTE = new ThreadLocal<>();
+
+    private DataSourceRouting() {
+    }
+
+    /**
+     * Run the given action with all reads routed to the primary.
+     */
+    public static <T> T onPrimary(Supplier<T> action) {
+        PRIMARY_FORCED.set(PRIMARY_FORCED.get() + 1);
+        try {
+            return action.get();
+        } finally {
+            int depth = PRIMARY_FORCED.get() - 1;
+            if (depth == 0) {
+                PRIMARY_FORCED.remove();
+            } else {
+                PRIMARY_FORCED.set(depth);
+            }
+        }
+    }
+
+    /**
+     * Check whether read-only transactions on this thread must use the primary.
+     */
+    public static boolean isPrimaryForced() {
+        return PRIMARY_FORCED.get() > 0;
+    }
+
+    /**
+     * Record that the current thread started a write transaction (no-op outside requests).
+     */
+    static void recordWrite() {
+        boolean[] wrote = REQUEST_WROTE.get();
+        if (wrote != null) {
+            wrote[0] = true;
+        }
+    }
+
+    static void beginRequest(boolean primaryForced) {
+        REQUEST_WROTE.set(new boolean[1]);
+        if (primaryForced) {
+            PRIMARY_FORCED.set(PRIMARY_FORCED.get() + 1);
+        }
+    }
+
+    /**
+     * @return Whether the request ran a write transaction
+     */
+    static boolean endRequest() {
+        boolean[] wrote = REQUEST_WROTE.get();
+        REQUEST_WROTE.remove();
+        PRIMARY_FORCED.remove();
+        return wrote != null && wrote[0];
+    }
+}
@@ -0,0 +1,58 @@
+package com.allergypassport.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Moves the pooled ID sequences past the existing rows.
+ * <p>
+ * Entity IDs used to come from BIGSERIAL columns; they now come from users_seq and user_allergies_seq
+ * (allocation size 50, so Hibernate can batch inserts). When Hibernate creates those sequences on an
+ * existing database they start at 1, so each one is set to the table's highest ID before the first insert.
+ * Runs after the EntityManagerFactory (and its schema update) and before the web server accepts requests.
+ * See docker/migrations/039-pooled-id-sequences.sql for databases managed without Hibernate.
+ */
+@Component
+public class IdSequenceInitializer {
+
+    private static final Logger log = LoggerFactory.getLogger(IdSequenceInitializer.class);
+
+    // Sequence -> table
+    private static final Map<String, String> SEQUENCES = Map.of(
+            "users_seq", "users",
+            "user_allergies_seq", "user_allergies"
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // The EntityManagerFactory is only injected so the schema update (which creates the sequences) has run
+    public IdSequenceInitializer(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    void alignSequences() {
+        SEQUENCES.forEach((sequence, table) -> {
+            try {
+                // setval(max) makes the next nextval return max + 50, i.e. a pooled block starting at max + 1
+                Long value = jdbcTemplate.queryForObject(
+                        "SELECT setval('" + sequence + "', m) FROM (SELECT MAX(id) AS m FROM " + table + ") t "
+                                + "WHERE m >= (SELECT last_value FROM " + sequence + ")",
+                        Long.class);
+                log.info("Moved sequence {} past existing {} rows (now {})", sequence, table, value);
+            } catch (EmptyResultDataAccessException e) {
+                log.debug("Sequence {} is already ahead of table {}", sequence, table);
+            } catch (DataAccessException e) {
+                log.warn("Could not align sequence {} with table {}: {}", sequence, table, e.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,296 @@
+package com.allergypassport.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Per-client rate limiting of the anonymous public routes, answering 429 with Retry-After.
+ * <p>
+ * Each (client, route class) pair has a token bucket, implemented as GCRA: the bucket is a single
+ * "theoretical arrival time" updated with compare-and-set, so there are no locks on the request path.
+ * A client is its IPv4 address, or the /64 prefix of its IPv6 address (a single subscriber usually
+ * gets a whole /64, so keying by address would hand out billions of buckets).
+ * Buckets live in striped maps; every few thousand requests one stripe is swept and buckets that have been
+ * full (idle) for app.rate-limit.idle-timeout are dropped. At most app.rate-limit.max-buckets are tracked:
+ * a new client in a full stripe replaces the fullest of a few buckets sampled at a random position there
+ * (approximate, so a flood of new clients costs a constant amount of work per request), which loses the least
+ * state. The position is random so no client's bucket is evicted over and over because of where its key
+ * lands in the map's iteration order.
+ * <p>
+ * Limits per route class: app.rate-limit.{passport|qr|picture}.capacity (burst) and .per-second (refill).
+ * Exported metrics:
+ * - rate.limit.throttled (counter, tag route) - requests answered with 429
+ * - rate.limit.clients   (gauge)              - tracked buckets
+ */
+@Component
+@Order(SecurityProperties.DEFAULT_FILTER_ORDER - 2)
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    enum RouteClass {
+        PASSPORT(60, 1, "/u/", "/Q/", "/q/"),
+        QR(30, 0.5, "/qr/"),
+        PICTURE(120, 2, "/profile-picture/");
+
+        private final int defaultCapacity;
+        private final double defaultPerSecond;
+        private final String[] prefixes;
+
+        RouteClass(int defaultCapacity, double defaultPerSecond, String... prefixes) {
+            this.defaultCapacity = defaultCapacity;
+            this.defaultPerSecond = defaultPerSecond;
+            this.prefixes = prefixes;
+        }
+
+        static RouteClass of(String path) {
+            for (RouteClass routeClass : values()) {
+                for (String prefix : routeClass.prefixes) {
+                    if (path.startsWith(prefix)) {
+                        return routeClass;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * GCRA parameters of a route class, in nanoseconds.
+     *
+     * @param interval  Time to refill one token
+     * @param tolerance How far the arrival time may run ahead of now (burst of capacity requests)
+     */
+    record Limit(long interval, long tolerance) {
+
+        static Limit of(int capacity, double perSecond) {
+            long interval = (long) (1_000_000_000L / perSecond);
+            return new Limit(interval, interval * (Math.max(1, capacity) - 1));
+        }
+    }
+
+    private static final int STRIPES = 64;
+    private static final int SWEEP_EVERY = 4096;
+    private static final int EVICTION_SAMPLE = 16;
+
+    private final boolean enabled;
+    private final long idleTimeoutNanos;
+    private final int maxBucketsPerStripe;
+    private final Map<RouteClass, Limit> limits = new EnumMap<>(RouteClass.class);
+    private final Map<RouteClass, Counter> throttled = new EnumMap<>(RouteClass.class);
+    // Per route class, striped by client address
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ConcurrentHashMap<String, AtomicLong>[][] buckets =
+            new ConcurrentHashMap[RouteClass.values().length][STRIPES];
+    private final AtomicLong requests = new AtomicLong();
+
+    public RateLimitFilter(Environment environment, MeterRegistry meterRegistry) {
+        this.enabled = environment.getProperty("app.rate-limit.enabled", Boolean.class, true);
+        this.idleTimeoutNanos = environment.getProperty("app.rate-limit.idle-timeout", Duration.class,
+                Duration.ofMinutes(10)).toNanos();
+        int maxBuckets = environment.getProperty("app.rate-limit.max-buckets", Integer.class, 200_000);
+        this.maxBucketsPerStripe = Math.max(1, maxBuckets / (RouteClass.values().length * STRIPES));
+        for (RouteClass routeClass : RouteClass.values()) {
+            String prefix = "app.rate-limit." + routeClass.name().toLowerCase() + ".";
+            limits.put(routeClass, Limit.of(
+                    environment.getProperty(prefix + "capacity", Integer.class, routeClass.defaultCapacity),
+                    environment.getProperty(prefix + "per-second", Double.class, routeClass.defaultPerSecond)));
+            throttled.put(routeClass, Counter.builder("rate.limit.throttled")
+                    .description("Public requests rejected with 429")
+                    .tag("route", routeClass.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+        for (ConcurrentHashMap<String, AtomicLong>[] stripes : buckets) {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new ConcurrentHashMap<>();
+            }
+        }
+        Gauge.builder("rate.limit.clients", this, RateLimitFilter::trackedClients)
+                .description("Clients with an active rate limit bucket")
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || RouteClass.of(request.getRequestURI().substring(request.getContextPath().length())) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        RouteClass routeClass = RouteClass.of(request.getRequestURI().substring(request.getContextPath().length()));
+        long waitNanos = tryAcquire(routeClass, clientKey(request.getRemoteAddr()), System.nanoTime());
+        if (waitNanos > 0) {
+            throttled.get(routeClass).increment();
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L)));
+            response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * Take a token from the client's bucket for a route class.
+     *
+     * @return 0 if the request may proceed, otherwise the nanoseconds until it would be allowed
+     */
+    long tryAcquire(RouteClass routeClass, String client, long now) {
+        long count = requests.incrementAndGet();
+        if ((count & (SWEEP_EVERY - 1)) == 0) {
+            int stripe = (int) ((count / SWEEP_EVERY) % STRIPES);
+            for (ConcurrentHashMap<String, AtomicLong>[] stripes : buckets) {
+                sweep(stripes[stripe], now);
+            }
+        }
+        Limit limit = limits.get(routeClass);
+        ConcurrentHashMap<String, AtomicLong> stripe =
+                buckets[routeClass.ordinal()][(client.hashCode() & 0x7fffffff) % STRIPES];
+        AtomicLong arrival = stripe.get(client);
+        if (arrival == null) {
+            makeRoom(stripe, now);
+            arrival = stripe.computeIfAbsent(client, k -> new AtomicLong(now));
+        }
+        while (true) {
+            long current = arrival.get();
+            long start = current - now > 0 ? current : now;
+            long ahead = start - now;
+            if (ahead > limit.tolerance()) {
+                return ahead - limit.tolerance();
+            }
+            if (arrival.compareAndSet(current, start + limit.interval())) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * The rate-limited client of a remote address: IPv4 addresses as they are, IPv6 addresses by /64 prefix.
+     */
+    static String clientKey(String remoteAddr) {
+        if (remoteAddr.indexOf(':') < 0) {
+            return remoteAddr;
+        }
+        try {
+            // A literal, so no name lookup; IPv4-mapped addresses come back as Inet4Address
+            InetAddress address = InetAddress.getByName(remoteAddr);
+            if (address instanceof Inet6Address) {
+                return HexFormat.of().formatHex(address.getAddress(), 0, 8) + "/64";
+            }
+            return address.getHostAddress();
+        } catch (UnknownHostException e) {
+            return remoteAddr;
+        }
+    }
+
+    private void sweep(ConcurrentHashMap<String, AtomicLong> stripe, long now) {
+        // A bucket whose arrival time is well in the past is full again and can be recreated on demand
+        stripe.values().removeIf(arrival -> now - arrival.get() > idleTimeoutNanos);
+    }
+
+    /**
+     * Drop the fullest of a few buckets (earliest arrival time, so idle ones first) while a stripe is full.
+     * Loops because concurrent inserts may push a stripe past its limit.
+     */
+    private void makeRoom(ConcurrentHashMap<String, AtomicLong> stripe, long now) {
+        while (stripe.size() >= maxBucketsPerStripe) {
+            String fullest = fullestSampled(stripe, now);
+            if (fullest == null) {
+                return;
+            }
+            stripe.remove(fullest);
+        }
+    }
+
+    /**
+     * The fullest of up to EVICTION_SAMPLE consecutive buckets, starting in a random part of the stripe:
+     * the map is split in halves (cheap for ConcurrentHashMap, which splits its table by index) down to
+     * a part of about EVICTION_SAMPLE buckets, taking a random half each time. The halves not taken
+     * continue the sample when that part has fewer buckets.
+     */
+    private static String fullestSampled(ConcurrentHashMap<String, AtomicLong> stripe, long now) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Deque<Spliterator<Map.Entry<String, AtomicLong>>> rest = new ArrayDeque<>();
+        Spliterator<Map.Entry<String, AtomicLong>> part = stripe.entrySet().spliterator();
+        while (part.estimateSize() > EVICTION_SAMPLE) {
+            Spliterator<Map.Entry<String, AtomicLong>> prefix = part.trySplit();
+            if (prefix == null) {
+                break;
+            }
+            if (random.nextBoolean()) {
+                rest.push(part);
+                part = prefix;
+            } else {
+                rest.push(prefix);
+            }
+        }
+
+        EvictionSample sample = new EvictionSample(now);
+        while (sample.sampled < EVICTION_SAMPLE) {
+            if (!part.tryAdvance(sample)) {
+                if (rest.isEmpty()) {
+                    break;
+                }
+                part = rest.pop();
+            }
+        }
+        return sample.fullest;
+    }
+
+    private static final class EvictionSample implements Consumer<Map.Entry<String, AtomicLong>> {
+
+        private final long now;
+        private String fullest;
+        private long earliest = Long.MAX_VALUE;
+        private int sampled;
+
+        EvictionSample(long now) {
+            this.now = now;
+        }
+
+        @Override
+        public void accept(Map.Entry<String, AtomicLong> entry) {
+            sampled++;
+            long ahead = entry.getValue().get() - now;
+            if (fullest == null || ahead < earliest) {
+                fullest = entry.getKey();
+                earliest = ahead;
+            }
+        }
+    }
+
+    private double trackedClients() {
+        long total = 0;
+        for (ConcurrentHashMap<String, AtomicLong>[] stripes : buckets) {
+            for (ConcurrentHashMap<String, AtomicLong> stripe : stripes) {
+                total += stripe.size();
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,47 @@
+package com.allergypassport.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Read-your-writes for replica routing: after a request of an HTTP session ran a write transaction,
+ * the session's following requests read from the primary until the replica has had time to catch up.
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    static final String PRIMARY_UNTIL_ATTRIBUTE = ReadYourWritesFilter.class.getName() + ".PRIMARY_UNTIL";
+
+    private final long stickinessMillis;
+
+    public ReadYourWritesFilter(Duration stickiness) {
+        this.stickinessMillis = stickiness.toMillis();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        HttpSession session = request.getSession(false);
+        Object primaryUntil = session != null ? session.getAttribute(PRIMARY_UNTIL_ATTRIBUTE) : null;
+        boolean sticky = primaryUntil instanceof Long until && System.currentTimeMillis() < until;
+
+        DataSourceRouting.beginRequest(sticky);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (DataSourceRouting.endRequest() && stickinessMillis > 0) {
+                // Login may have replaced the session, so look it up again
+                HttpSession current = request.getSession(false);
+                if (current != null) {
+                    current.setAttribute(PRIMARY_UNTIL_ATTRIBUTE, System.currentTimeMillis() + stickinessMillis);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.allergypassport.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.persistence.CacheStoreMode;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.JpaProperties;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.JpaVendorAdapter;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.session.jdbc.config.annotation.SpringSessionDataSource;
+import org.springframework.transaction.TransactionDefinition;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+
+/**
+ * Read replica support, active when app.datasource.replica.url is set.
+ * <p>
+ * - Read-only transactions use the replica pool, everything else the primary (ReplicaRoutingDataSource).
+ * - A session that just wrote keeps reading from the primary for app.datasource.replica.stickiness.
+ * - HTTP sessions (Spring Session JDBC) always use the primary.
+ * - Sessions reading from the replica never populate the second-level cache, which would otherwise keep
+ *   replica lag around until the entries expire.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.datasource.replica.url")
+public class ReplicaRoutingConfig {
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(DataSourceProperties properties, Environment environment) {
+        Binder binder = Binder.get(environment);
+
+        HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        binder.bind("spring.datasource.hikari", Bindable.ofInstance(primary));
+        primary.setPoolName("primary");
+
+        HikariDataSource replica = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .driverClassName(properties.determineDriverClassName())
+                .url(environment.getRequiredProperty("app.datasource.replica.url"))
+                .username(environment.getProperty("app.datasource.replica.username", properties.determineUsername()))
+                .password(environment.getProperty("app.datasource.replica.password", properties.determinePassword()))
+                .build();
+        binder.bind("app.datasource.replica.hikari", Bindable.ofInstance(replica));
+        replica.setPoolName("replica");
+        replica.setReadOnly(true);
+
+        return new ReplicaRoutingDataSource(primary, replica);
+    }
+
+    /**
+     * The data source used by JPA and JDBC: connections are only fetched (and routed) on first use.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    /**
+     * HTTP sessions are read and written on every authenticated request, always on the primary
+     * (as routed writes they would also make every such request sticky).
+     */
+    @Bean
+    @SpringSessionDataSource
+    public DataSource springSessionDataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return replicaRoutingDataSource.getPrimary();
+    }
+
+    @Bean
+    public FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilter(
+            @Value("${app.datasource.replica.stickiness:PT5S}") Duration stickiness) {
+        FilterRegistrationBean<ReadYourWritesFilter> registration =
+                new FilterRegistrationBean<>(new ReadYourWritesFilter(stickiness));
+        // Outside Spring Security, so writes during login count too
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 1);
+        return registration;
+    }
+
+    /**
+     * Same settings as Spring Boot's default adapter, with a dialect that keeps replica reads out of the cache.
+     */
+    @Bean
+    public JpaVendorAdapter jpaVendorAdapter(JpaProperties properties) {
+        HibernateJpaDialect dialect = new ReplicaAwareJpaDialect();
+        HibernateJpaVendorAdapter adapter = new HibernateJpaVendorAdapter() {
+            @Override
+            public HibernateJpaDialect getJpaDialect() {
+                return dialect;
+            }
+        };
+        adapter.setShowSql(properties.isShowSql());
+        if (properties.getDatabase() != null) {
+            adapter.setDatabase(properties.getDatabase());
+        }
+        if (properties.getDatabasePlatform() != null) {
+            adapter.setDatabasePlatform(properties.getDatabasePlatform());
+        }
+        adapter.setGenerateDdl(properties.isGenerateDdl());
+        return adapter;
+    }
+
+    /**
+     * Read-only transactions that will be routed to the replica only read from the second-level cache.
+     */
+    static class ReplicaAwareJpaDialect extends HibernateJpaDialect {
+
+        private static final long serialVersionUID = 1L;
+
+        // EntityManager.find() takes its cache mode from this property rather than from Session.getCacheMode()
+        private static final String STORE_MODE = "jakarta.persistence.cache.storeMode";
+
+        /**
+         * Transaction data of a replica transaction, with the cache settings to restore on cleanup.
+         */
+        private record ReplicaTransactionData(Object transactionData, Session session,
+                                              CacheMode cacheMode, Object storeMode) {
+        }
+
+        @Override
+        public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition)
+                throws PersistenceException, SQLException {
+            Object transactionData = super.beginTransaction(entityManager, definition);
+            if (!definition.isReadOnly() || DataSourceRouting.isPrimaryForced()) {
+                return transactionData;
+            }
+            Session session = entityManager.unwrap(Session.class);
+            ReplicaTransactionData replica = new ReplicaTransactionData(transactionData, session,
+                    session.getCacheMode(), session.getProperties().get(STORE_MODE));
+            session.setCacheMode(CacheMode.GET);
+            session.setProperty(STORE_MODE, CacheStoreMode.BYPASS);
+            return replica;
+        }
+
+        @Override
+        public void cleanupTransaction(Object transactionData) {
+            if (transactionData instanceof ReplicaTransactionData replica) {
+                // The EntityManager may outlive the transaction
+                replica.session().setCacheMode(replica.cacheMode());
+                replica.session().setProperty(STORE_MODE,
+                        replica.storeMode() != null ? replica.storeMode() : CacheStoreMode.USE);
+                transactionData = replica.transactionData();
+            }
+            super.cleanupTransaction(transactionData);
+        }
+    }
+}
@@ -4,10 +4,13 @@ import com.allergypassport.service.CustomOAuth2UserService;
 import com.allergypassport.service.CustomOidcUserService;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.session.SessionRegistry;
 import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.security.web.context.NullSecurityContextRepository;
 import org.springframework.security.web.context.SecurityContextRepository;
 import org.springframework.security.web.SecurityFilterChain;
 
@@ -21,11 +24,14 @@ public class SecurityConfig {
 
     private final CustomOAuth2UserService customOAuth2UserService;
     private final CustomOidcUserService customOidcUserService;
+    private final SessionRegistry sessionRegistry;
 
     public SecurityConfig(CustomOAuth2UserService customOAuth2UserService,
-                          CustomOidcUserService customOidcUserService) {
+                          CustomOidcUserService customOidcUserService,
+                          SessionRegistry sessionRegistry) {
         this.customOAuth2UserService = customOAuth2UserService;
         this.customOidcUserService = customOidcUserService;
+        this.sessionRegistry = sessionRegistry;
     }
 
     @Bean
@@ -33,7 +39,32 @@ public class SecurityConfig {
         return new HttpSessionSecurityContextRepository();
     }
 
+    /**
+     * Stateless chain for the anonymous public routes (passport pages, QR codes, pictures, offline shell, static files).
+     * Scans never create a session, CSRF token or stored security context; everything is permitted.
+     */
     @Bean
+    @Order(1)
+    public SecurityFilterChain publicSecurityFilterChain(HttpSecurity http) throws Exception {
+        http
+            .securityMatcher("/u/**", "/Q/**", "/q/**", "/qr/**", "/profile-picture/**", "/offline/**", "/sw.js",
+                    "/css/**", "/js/**", "/images/**", "/webjars/**", "/favicon.ico")
+            .securityContext(context -> context
+                .securityContextRepository(new NullSecurityContextRepository())
+            )
+            .sessionManagement(session -> session
+                .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+            )
+            .csrf(csrf -> csrf.disable())
+            .requestCache(cache -> cache.disable())
+            .anonymous(anonymous -> anonymous.disable())
+            .logout(logout -> logout.disable());
+
+        return http.build();
+    }
+
+    @Bean
+    @Order(2)
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
         http
             // CSRF configuration - enabled for form submissions
@@ -53,20 +84,15 @@ public class SecurityConfig {
                 .sessionFixation().migrateSession()  // Migrate session on login for security
                 .maximumSessions(1)                   // Allow only one session per user
                 .maxSessionsPreventsLogin(false)      // New login invalidates old session
+                .sessionRegistry(sessionRegistry)     // Shared session store, see SessionConfig
             )
 
             // Authorization rules
             .authorizeHttpRequests(auth -> auth
                 // Public endpoints - accessible without authentication
+                // (passport pages, QR codes, pictures and static files use publicSecurityFilterChain)
                 .requestMatchers("/").permitAll()
-                .requestMatchers("/u/**").permitAll()              // Public passport view
                 .requestMatchers("/api/public/**").permitAll()      // Public API endpoints
-                .requestMatchers("/qr/**").permitAll()              // QR code generation
-                .requestMatchers("/profile-picture/**").permitAll() // Profile pictures
-
-                // Static resources
-                .requestMatchers("/css/**", "/js/**", "/images/**", "/webjars/**").permitAll()
-                .requestMatchers("/favicon.ico").permitAll()
 
                 // Error pages
                 .requestMatchers("/error").permitAll()
@@ -74,6 +100,9 @@ public class SecurityConfig {
                 // OAuth2 endpoints
                 .requestMatchers("/login", "/oauth2/**").permitAll()
 
+                // Metrics reveal internals (pools, queries, caches): administrators only
+                .requestMatchers("/actuator/metrics/**").hasRole("ADMIN")
+
                 // Everything else requires authentication
                 .anyRequest().authenticated()
             )
@@ -94,7 +123,7 @@ public class SecurityConfig {
                 .logoutUrl("/logout")
                 .logoutSuccessUrl("/?logout=true")
                 .invalidateHttpSession(true)
-                .deleteCookies("JSESSIONID")
+                .deleteCookies("SESSION")  // Spring Session's cookie (see SessionConfig)
             );
 
         return http.build();
@@ -0,0 +1,93 @@
+package com.allergypassport.config;
+
+import com.allergypassport.service.CustomOAuth2User;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializingConverter;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serializes HTTP session attributes for the JDBC session store.
+ * <p>
+ * The security context of a logged-in user is written in a compact binary form holding only the user ID,
+ * public ID, Google ID, client registration and authority names (~100 bytes instead of several KB of
+ * Java-serialized OAuth2 attributes, claims and ID token). Everything else uses Java serialization;
+ * both forms are told apart by their first byte (Java serialization streams start with 0xAC).
+ */
+class SessionAttributeSerializer {
+
+    private static final byte COMPACT_SECURITY_CONTEXT = 1;
+
+    private final SerializingConverter serializer = new SerializingConverter();
+    private final DeserializingConverter deserializer;
+
+    SessionAttributeSerializer(ClassLoader classLoader) {
+        this.deserializer = new DeserializingConverter(classLoader);
+    }
+
+    byte[] serialize(Object value) {
+        if (value instanceof SecurityContext context
+                && context.getAuthentication() instanceof OAuth2AuthenticationToken token
+                && token.getPrincipal() instanceof CustomOAuth2User user
+                && user.getUserId() != null && user.getPublicId() != null && user.getGoogleId() != null) {
+            return writeSecurityContext(token, user);
+        }
+        return serializer.convert(value);
+    }
+
+    Object deserialize(byte[] bytes) {
+        if (bytes.length > 0 && bytes[0] == COMPACT_SECURITY_CONTEXT) {
+            return readSecurityContext(bytes);
+        }
+        return deserializer.convert(bytes);
+    }
+
+    private static byte[] writeSecurityContext(OAuth2AuthenticationToken token, CustomOAuth2User user) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(COMPACT_SECURITY_CONTEXT);
+            out.writeLong(user.getUserId());
+            out.writeUTF(user.getPublicId());
+            out.writeUTF(user.getGoogleId());
+            out.writeUTF(token.getAuthorizedClientRegistrationId());
+            out.writeShort(token.getAuthorities().size());
+            for (GrantedAuthority authority : token.getAuthorities()) {
+                out.writeUTF(authority.getAuthority());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static SecurityContext readSecurityContext(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            in.readByte();
+            long userId = in.readLong();
+            String publicId = in.readUTF();
+            String googleId = in.readUTF();
+            String registrationId = in.readUTF();
+            int count = in.readUnsignedShort();
+            List<GrantedAuthority> authorities = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                authorities.add(new SimpleGrantedAuthority(in.readUTF()));
+            }
+            CustomOAuth2User user = new CustomOAuth2User(userId, publicId, googleId, authorities);
+            return new SecurityContextImpl(new OAuth2AuthenticationToken(user, authorities, registrationId));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.allergypassport.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.GenericConversionService;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.Session;
+import org.springframework.session.jdbc.JdbcIndexedSessionRepository;
+import org.springframework.session.jdbc.config.annotation.SpringSessionDataSource;
+import org.springframework.session.security.SpringSessionBackedSessionRegistry;
+import org.springframework.session.web.http.CookieHttpSessionIdResolver;
+import org.springframework.session.web.http.CookieSerializer;
+import org.springframework.session.web.http.SessionRepositoryFilter;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * HTTP sessions in PostgreSQL (Spring Session JDBC), so any instance can serve any user.
+ * <p>
+ * - Attributes are written only when they change (Spring Session's default save mode), the security
+ *   context in a compact form (SessionAttributeSerializer).
+ * - The last access time is only written once per app.session.touch-interval instead of on every request
+ *   (idle sessions may therefore expire up to that much earlier). Within the interval, a request that leaves
+ *   the session unchanged sends no statement to write it.
+ * - Session statements run in their own JDBC transactions, on the primary when a read replica is configured.
+ * - The one-session-per-user limit is enforced across instances through the store's principal index.
+ */
+@Configuration
+public class SessionConfig {
+
+    @Bean
+    public ConversionService springSessionConversionService() {
+        SessionAttributeSerializer serializer = new SessionAttributeSerializer(getClass().getClassLoader());
+        GenericConversionService conversionService = new GenericConversionService();
+        conversionService.addConverter(Object.class, byte[].class, serializer::serialize);
+        conversionService.addConverter(byte[].class, Object.class, serializer::deserialize);
+        return conversionService;
+    }
+
+    /**
+     * Plain JDBC transactions for session statements (instead of JPA ones on the routing data source).
+     * The connection is only fetched for the first statement.
+     */
+    @Bean
+    public TransactionOperations springSessionTransactionOperations(
+            @SpringSessionDataSource ObjectProvider<DataSource> sessionDataSource,
+            ObjectProvider<DataSource> dataSource) {
+        // Lazy, so a save that has nothing to write does not even take a connection from the pool
+        DataSource lazyDataSource = new LazyConnectionDataSourceProxy(sessionDataSource.getIfAvailable(dataSource::getObject));
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(lazyDataSource));
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return transactionTemplate;
+    }
+
+    /**
+     * Serve requests from sessions that only record a new last access time once per touch interval
+     * (see TouchIntervalSessionRepository). Replaces the filter of Spring Session's configuration, which Spring
+     * Boot registers by bean name; the session ID resolver is built as that configuration builds it.
+     */
+    @Bean
+    public static BeanPostProcessor touchIntervalSessionFilterPostProcessor(
+            ObjectProvider<JdbcIndexedSessionRepository> sessionRepository,
+            ObjectProvider<CookieSerializer> cookieSerializer,
+            @Value("${app.session.touch-interval:PT1M}") Duration touchInterval) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof SessionRepositoryFilter<?>)) {
+                    return bean;
+                }
+                SessionRepositoryFilter<?> filter = new SessionRepositoryFilter<>(
+                        new TouchIntervalSessionRepository<>(sessionRepository.getObject(), touchInterval));
+                CookieHttpSessionIdResolver sessionIdResolver = new CookieHttpSessionIdResolver();
+                cookieSerializer.ifAvailable(sessionIdResolver::setCookieSerializer);
+                filter.setHttpSessionIdResolver(sessionIdResolver);
+                return filter;
+            }
+        };
+    }
+
+    @Bean
+    public SpringSessionBackedSessionRegistry<? extends Session> sessionRegistry(
+            FindByIndexNameSessionRepository<? extends Session> sessionRepository) {
+        return new SpringSessionBackedSessionRegistry<>(sessionRepository);
+    }
+}
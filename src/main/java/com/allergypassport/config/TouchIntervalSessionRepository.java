@@ -0,0 +1,123 @@
+package com.allergypassport.config;
+
+import org.springframework.session.Session;
+import org.springframework.session.SessionRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * Session repository for SessionRepositoryFilter that records a new last access time only once the stored one
+ * is older than the touch interval. The JDBC store writes the session row only when something in it changed,
+ * so a request that leaves the attributes alone and comes within the interval sends no statement at all.
+ */
+class TouchIntervalSessionRepository<S extends Session>
+        implements SessionRepository<TouchIntervalSessionRepository.TouchIntervalSession<S>> {
+
+    private final SessionRepository<S> delegate;
+    private final Duration touchInterval;
+
+    TouchIntervalSessionRepository(SessionRepository<S> delegate, Duration touchInterval) {
+        this.delegate = delegate;
+        this.touchInterval = touchInterval;
+    }
+
+    @Override
+    public TouchIntervalSession<S> createSession() {
+        return new TouchIntervalSession<>(delegate.createSession(), touchInterval);
+    }
+
+    @Override
+    public void save(TouchIntervalSession<S> session) {
+        delegate.save(session.delegate);
+    }
+
+    @Override
+    public TouchIntervalSession<S> findById(String id) {
+        S session = delegate.findById(id);
+        return session != null ? new TouchIntervalSession<>(session, touchInterval) : null;
+    }
+
+    @Override
+    public void deleteById(String id) {
+        delegate.deleteById(id);
+    }
+
+    static final class TouchIntervalSession<S extends Session> implements Session {
+
+        private final S delegate;
+        private final Duration touchInterval;
+
+        private TouchIntervalSession(S delegate, Duration touchInterval) {
+            this.delegate = delegate;
+            this.touchInterval = touchInterval;
+        }
+
+        /**
+         * Ignored while the stored last access time is within the touch interval (idle sessions may therefore
+         * expire up to that much earlier).
+         */
+        @Override
+        public void setLastAccessedTime(Instant lastAccessedTime) {
+            if (Duration.between(delegate.getLastAccessedTime(), lastAccessedTime).compareTo(touchInterval) >= 0) {
+                delegate.setLastAccessedTime(lastAccessedTime);
+            }
+        }
+
+        @Override
+        public String getId() {
+            return delegate.getId();
+        }
+
+        @Override
+        public String changeSessionId() {
+            return delegate.changeSessionId();
+        }
+
+        @Override
+        public <T> T getAttribute(String attributeName) {
+            return delegate.getAttribute(attributeName);
+        }
+
+        @Override
+        public Set<String> getAttributeNames() {
+            return delegate.getAttributeNames();
+        }
+
+        @Override
+        public void setAttribute(String attributeName, Object attributeValue) {
+            delegate.setAttribute(attributeName, attributeValue);
+        }
+
+        @Override
+        public void removeAttribute(String attributeName) {
+            delegate.removeAttribute(attributeName);
+        }
+
+        @Override
+        public Instant getCreationTime() {
+            return delegate.getCreationTime();
+        }
+
+        @Override
+        public Instant getLastAccessedTime() {
+            return delegate.getLastAccessedTime();
+        }
+
+        @Override
+        public void setMaxInactiveInterval(Duration interval) {
+            delegate.setMaxInactiveInterval(interval);
+        }
+
+        @Override
+        public Duration getMaxInactiveInterval() {
+            return delegate.getMaxInactiveInterval();
+        }
+
+        @Override
+        public boolean isExpired() {
+            return delegate.isExpired();
+        }
+    }
+}
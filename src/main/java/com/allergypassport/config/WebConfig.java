@@ -1,12 +1,13 @@
 package com.allergypassport.config;
 
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.LocaleResolver;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.springframework.web.servlet.i18n.LocaleChangeInterceptor;
-import org.springframework.web.servlet.i18n.SessionLocaleResolver;
+import org.springframework.web.servlet.i18n.CookieLocaleResolver;
 
 import java.util.Locale;
 
@@ -17,18 +18,27 @@ import java.util.Locale;
 public class WebConfig implements WebMvcConfigurer {
 
     /**
-     * Defines the default locale and stores locale preference in session.
+     * Defines the default locale and stores locale preference in a cookie.
+     * Not in the HTTP session: anonymous passport scans with ?lang= must not create sessions.
      */
     @Bean
     public LocaleResolver localeResolver() {
-        SessionLocaleResolver resolver = new SessionLocaleResolver();
+        CookieLocaleResolver resolver = new CookieLocaleResolver("locale");
         resolver.setDefaultLocale(Locale.ENGLISH);
         return resolver;
     }
 
+    /**
+     * Use a locale for the current request only, without storing it in the cookie
+     * (e.g. the language of /u/{publicId}/{lang}, whose responses are shared-cacheable).
+     */
+    public static void setRequestLocale(HttpServletRequest request, Locale locale) {
+        request.setAttribute(CookieLocaleResolver.LOCALE_REQUEST_ATTRIBUTE_NAME, locale);
+    }
+
     /**
      * Interceptor that allows changing locale via request parameter.
-     * Example: /u/abc123?lang=de
+     * Example: /dashboard?lang=de (public passports use /u/{publicId}/{lang} instead)
      */
     @Bean
     public LocaleChangeInterceptor localeChangeInterceptor() {
@@ -1,14 +1,22 @@
 package com.allergypassport.controller;
 
+import com.allergypassport.dto.AllergyBatchRequest;
+import com.allergypassport.dto.AllergyMutation;
 import com.allergypassport.dto.AllergyRequest;
+import com.allergypassport.dto.PassportView;
 import com.allergypassport.dto.ProfileRequest;
 import com.allergypassport.entity.AllergySeverity;
 import com.allergypassport.entity.AllergyType;
 import com.allergypassport.entity.User;
 import com.allergypassport.entity.UserAllergy;
+import com.allergypassport.service.CardRenderService;
 import com.allergypassport.service.CustomOAuth2User;
+import com.allergypassport.service.PassportViewService;
+import com.allergypassport.service.ProfilePictureUploadService;
 import com.allergypassport.service.UserService;
+import com.allergypassport.util.AllergyMask;
 import com.allergypassport.util.QRCodeService;
+import com.allergypassport.util.SupportedLocales;
 import com.google.zxing.WriterException;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
@@ -24,6 +32,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Controller for HTMX-powered interactions and API endpoints.
@@ -36,11 +45,21 @@ public class AllergyController {
     private static final Logger log = LoggerFactory.getLogger(AllergyController.class);
 
     private final UserService userService;
+    private final PassportViewService passportViewService;
     private final QRCodeService qrCodeService;
+    private final CardRenderService cardRenderService;
+    private final ProfilePictureUploadService profilePictureUploadService;
 
-    public AllergyController(UserService userService, QRCodeService qrCodeService) {
+    public AllergyController(UserService userService,
+                             PassportViewService passportViewService,
+                             QRCodeService qrCodeService,
+                             CardRenderService cardRenderService,
+                             ProfilePictureUploadService profilePictureUploadService) {
         this.userService = userService;
+        this.passportViewService = passportViewService;
         this.qrCodeService = qrCodeService;
+        this.cardRenderService = cardRenderService;
+        this.profilePictureUploadService = profilePictureUploadService;
     }
 
     // ==================== ALLERGY MANAGEMENT ====================
@@ -65,16 +84,16 @@ public class AllergyController {
                              @RequestParam(value = "notes", required = false) String notes,
                              Model model) {
         try {
-            userService.saveAllergy(principal.getUserId(), allergyType, severity, notes);
+            AllergyMutation result = userService.saveAllergy(principal.getUserId(), allergyType, severity, notes);
             log.info("User {} added allergy: {}", principal.getUserId(), allergyType);
+            model.addAttribute("allergies", result.allergies());
+            addRefreshedQRCode(principal, result, model);
         } catch (Exception e) {
             log.error("Failed to add allergy for user {}", principal.getUserId(), e);
             model.addAttribute("error", "Failed to add allergy: " + e.getMessage());
+            model.addAttribute("allergies", userService.getUserAllergies(principal.getUserId()));
         }
 
-        // Return updated allergy list
-        List<UserAllergy> allergies = userService.getUserAllergies(principal.getUserId());
-        model.addAttribute("allergies", allergies);
         return "fragments/allergies :: allergyList";
     }
 
@@ -88,22 +107,16 @@ public class AllergyController {
                                 @RequestParam(value = "notes", required = false) String notes,
                                 Model model) {
         try {
-            // Get the existing allergy to get its type
-            UserAllergy existing = userService.getUserAllergies(principal.getUserId())
-                    .stream()
-                    .filter(a -> a.getId().equals(id))
-                    .findFirst()
-                    .orElseThrow(() -> new IllegalArgumentException("Allergy not found"));
-
-            userService.saveAllergy(principal.getUserId(), existing.getAllergyType(), severity, notes);
+            AllergyMutation result = userService.updateAllergy(principal.getUserId(), id, severity, notes);
             log.info("User {} updated allergy: {}", principal.getUserId(), id);
+            model.addAttribute("allergies", result.allergies());
+            addRefreshedQRCode(principal, result, model);
         } catch (Exception e) {
             log.error("Failed to update allergy {} for user {}", id, principal.getUserId(), e);
             model.addAttribute("error", "Failed to update allergy: " + e.getMessage());
+            model.addAttribute("allergies", userService.getUserAllergies(principal.getUserId()));
         }
 
-        List<UserAllergy> allergies = userService.getUserAllergies(principal.getUserId());
-        model.addAttribute("allergies", allergies);
         return "fragments/allergies :: allergyList";
     }
 
@@ -115,15 +128,38 @@ public class AllergyController {
                                 @PathVariable Long id,
                                 Model model) {
         try {
-            userService.removeAllergyById(principal.getUserId(), id);
+            AllergyMutation result = userService.removeAllergyById(principal.getUserId(), id);
             log.info("User {} deleted allergy: {}", principal.getUserId(), id);
+            model.addAttribute("allergies", result.allergies());
+            addRefreshedQRCode(principal, result, model);
         } catch (Exception e) {
             log.error("Failed to delete allergy {} for user {}", id, principal.getUserId(), e);
             model.addAttribute("error", "Failed to delete allergy: " + e.getMessage());
+            model.addAttribute("allergies", userService.getUserAllergies(principal.getUserId()));
+        }
+
+        return "fragments/allergies :: allergyList";
+    }
+
+    /**
+     * Apply several allergy changes in one transaction (JSON body); a change without severity removes the type.
+     * Example: PUT /api/allergies {"changes": [{"allergyType": "PEANUTS", "severity": "SEVERE"}, {"allergyType": "DAIRY"}]}
+     */
+    @PutMapping(value = "/allergies", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public String applyAllergyChanges(@AuthenticationPrincipal CustomOAuth2User principal,
+                                      @Valid @RequestBody AllergyBatchRequest request,
+                                      Model model) {
+        try {
+            AllergyMutation result = userService.applyAllergyChanges(principal.getUserId(), request.changes());
+            log.info("User {} applied {} allergy changes", principal.getUserId(), request.changes().size());
+            model.addAttribute("allergies", result.allergies());
+            addRefreshedQRCode(principal, result, model);
+        } catch (Exception e) {
+            log.error("Failed to apply allergy changes for user {}", principal.getUserId(), e);
+            model.addAttribute("error", "Failed to update allergies: " + e.getMessage());
+            model.addAttribute("allergies", userService.getUserAllergies(principal.getUserId()));
         }
 
-        List<UserAllergy> allergies = userService.getUserAllergies(principal.getUserId());
-        model.addAttribute("allergies", allergies);
         return "fragments/allergies :: allergyList";
     }
 
@@ -132,11 +168,8 @@ public class AllergyController {
      */
     @GetMapping("/allergies/form")
     public String getAllergyForm(@AuthenticationPrincipal CustomOAuth2User principal, Model model) {
-        // Get already selected allergies to filter them out
-        List<UserAllergy> existingAllergies = userService.getUserAllergies(principal.getUserId());
-        List<AllergyType> selectedTypes = existingAllergies.stream()
-                .map(UserAllergy::getAllergyType)
-                .toList();
+        // Get already selected allergies to filter them out (from the mask, no allergy rows needed)
+        Set<AllergyType> selectedTypes = AllergyMask.types(userService.getAllergyMask(principal.getUserId()));
 
         model.addAttribute("allAllergyTypes", AllergyType.values());
         model.addAttribute("selectedTypes", selectedTypes);
@@ -151,10 +184,7 @@ public class AllergyController {
     public String getEditAllergyForm(@AuthenticationPrincipal CustomOAuth2User principal,
                                      @PathVariable Long id,
                                      Model model) {
-        UserAllergy allergy = userService.getUserAllergies(principal.getUserId())
-                .stream()
-                .filter(a -> a.getId().equals(id))
-                .findFirst()
+        UserAllergy allergy = userService.findAllergy(principal.getUserId(), id)
                 .orElseThrow(() -> new IllegalArgumentException("Allergy not found"));
 
         model.addAttribute("allergy", allergy);
@@ -162,6 +192,23 @@ public class AllergyController {
         return "fragments/allergies :: editAllergyForm";
     }
 
+    /**
+     * Regenerate the dashboard QR code after an allergy change when the allergy list is embedded in it,
+     * from the data the change returned.
+     */
+    private void addRefreshedQRCode(CustomOAuth2User principal, AllergyMutation result, Model model) {
+        if (!qrCodeService.isPassportEmbedded()) {
+            return;
+        }
+        try {
+            model.addAttribute("qrCodeDataUrl",
+                    qrCodeService.generateQRCodeAsDataUrl(result.publicId(), result.allergyMask(), result.revision()));
+        } catch (WriterException | IOException e) {
+            log.error("Failed to regenerate QR code for user {}", principal.getUserId(), e);
+        }
+        model.addAttribute("refreshQrCode", true);
+    }
+
     // ==================== PROFILE MANAGEMENT ====================
 
     /**
@@ -186,20 +233,41 @@ public class AllergyController {
 
     /**
      * Upload profile picture.
+     * The upload is validated and queued; the returned fragment polls until processing is done.
      */
     @PostMapping("/profile/picture")
     public String uploadProfilePicture(@AuthenticationPrincipal CustomOAuth2User principal,
                                         @RequestParam("picture") MultipartFile file,
                                         Model model) {
         try {
-            User user = userService.uploadProfilePicture(principal.getUserId(), file);
-            model.addAttribute("user", user);
-            model.addAttribute("success", "Profile picture updated");
+            profilePictureUploadService.accept(principal.getUserId(), file);
+            model.addAttribute("pending", true);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            model.addAttribute("error", "Failed to upload picture: " + e.getMessage());
         } catch (Exception e) {
             log.error("Failed to upload profile picture for user {}", principal.getUserId(), e);
             model.addAttribute("error", "Failed to upload picture: " + e.getMessage());
         }
 
+        model.addAttribute("user", userService.findById(principal.getUserId()).orElseThrow());
+        return "fragments/profile :: profilePicture";
+    }
+
+    /**
+     * Profile picture fragment, polled while an upload is being processed.
+     */
+    @GetMapping("/profile/picture")
+    public String getProfilePicture(@AuthenticationPrincipal CustomOAuth2User principal, Model model) {
+        ProfilePictureUploadService.UploadStatus status = profilePictureUploadService.pollStatus(principal.getUserId());
+        if (status != null) {
+            switch (status.state()) {
+                case PENDING -> model.addAttribute("pending", true);
+                case COMPLETED -> model.addAttribute("success", "Profile picture updated");
+                case FAILED -> model.addAttribute("error", "Failed to upload picture: " + status.error());
+            }
+        }
+
+        model.addAttribute("user", userService.findById(principal.getUserId()).orElseThrow());
         return "fragments/profile :: profilePicture";
     }
 
@@ -230,7 +298,10 @@ public class AllergyController {
     public ResponseEntity<byte[]> getQRCode(@AuthenticationPrincipal CustomOAuth2User principal,
                                             @RequestParam(value = "size", defaultValue = "300") int size) {
         try {
-            byte[] qrCode = qrCodeService.generateQRCode(principal.getPublicId(), size, size);
+            byte[] qrCode = qrCodeService.isPassportEmbedded()
+                    ? qrCodeService.generateQRCodeImage(passportViewService.find(principal.getPublicId())
+                            .orElseThrow(() -> new IllegalStateException("User not found")), size, size).png()
+                    : qrCodeService.generateQRCode(principal.getPublicId(), size, size);
             return ResponseEntity.ok()
                     .contentType(MediaType.IMAGE_PNG)
                     .body(qrCode);
@@ -239,4 +310,26 @@ public class AllergyController {
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    /**
+     * Printable wallet card (SVG) with the QR code and the allergy list in the chosen languages.
+     * Example: /api/card?langs=en,de,fr
+     */
+    @GetMapping(value = "/card", produces = "image/svg+xml")
+    public ResponseEntity<String> getCard(@AuthenticationPrincipal CustomOAuth2User principal,
+                                         @RequestParam(value = "langs", defaultValue = "en") String langs) {
+        PassportView passport = passportViewService.find(principal.getPublicId())
+                .orElseThrow(() -> new IllegalStateException("User not found"));
+
+        try {
+            String svg = cardRenderService.renderCard(cardRenderService.contentOf(passport), SupportedLocales.parseList(langs));
+            return ResponseEntity.ok()
+                    .contentType(MediaType.valueOf("image/svg+xml"))
+                    .header("Content-Disposition", "inline; filename=\"allergy-passport-card.svg\"")
+                    .body(svg);
+        } catch (WriterException e) {
+            log.error("Failed to render card for user {}", principal.getUserId(), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
 }
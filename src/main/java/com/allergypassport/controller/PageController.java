@@ -1,27 +1,44 @@
 package com.allergypassport.controller;
 
+import com.allergypassport.config.WebConfig;
+import com.allergypassport.dto.PassportView;
 import com.allergypassport.entity.AllergyType;
 import com.allergypassport.entity.User;
 import com.allergypassport.repository.UserRepository;
 import com.allergypassport.service.CustomOAuth2User;
+import com.allergypassport.service.PassportViewService;
 import com.allergypassport.service.TranslationService;
 import com.allergypassport.service.UserService;
+import com.allergypassport.util.PassportPayloadCodec;
 import com.allergypassport.util.QRCodeService;
+import com.allergypassport.util.SupportedLocales;
 import com.google.zxing.WriterException;
 import org.slf4j.Logger;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.MessageSource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * Main controller for page rendering (Thymeleaf views).
@@ -33,44 +50,31 @@ public class PageController {
 
     private final UserService userService;
     private final UserRepository userRepository;
+    private final PassportViewService passportViewService;
     private final QRCodeService qrCodeService;
     private final MessageSource messageSource;
     private final TranslationService translationService;
+    private final PageVersion pageVersion;
 
-    // Supported languages for the public view - 20 languages for restaurants/travel
-    private static final List<Locale> SUPPORTED_LOCALES = List.of(
-            Locale.ENGLISH,         // en - English
-            new Locale("es"),       // es - Spanish
-            Locale.FRENCH,          // fr - French
-            Locale.GERMAN,          // de - German
-            Locale.ITALIAN,         // it - Italian
-            new Locale("pt"),       // pt - Portuguese
-            new Locale("ru"),       // ru - Russian
-            Locale.SIMPLIFIED_CHINESE,  // zh - Chinese (Simplified)
-            Locale.JAPANESE,        // ja - Japanese
-            Locale.KOREAN,          // ko - Korean
-            new Locale("ar"),       // ar - Arabic
-            new Locale("tr"),       // tr - Turkish
-            new Locale("nl"),       // nl - Dutch
-            new Locale("pl"),       // pl - Polish
-            new Locale("sv"),       // sv - Swedish
-            new Locale("da"),       // da - Danish
-            new Locale("no"),       // no - Norwegian
-            new Locale("fi"),       // fi - Finnish
-            new Locale("el"),       // el - Greek
-            new Locale("hi")        // hi - Hindi
-    );
+    private static final Pattern SHORT_PUBLIC_ID = Pattern.compile("[0-9A-Za-z]{1,32}");
+
+    @Value("${app.passport.page-max-age:PT1M}")
+    private Duration pageMaxAge;
 
     public PageController(UserService userService,
                           UserRepository userRepository,
+                          PassportViewService passportViewService,
                           QRCodeService qrCodeService,
                           MessageSource messageSource,
-                          TranslationService translationService) {
+                          TranslationService translationService,
+                          PageVersion pageVersion) {
         this.userService = userService;
         this.userRepository = userRepository;
+        this.passportViewService = passportViewService;
         this.qrCodeService = qrCodeService;
         this.messageSource = messageSource;
         this.translationService = translationService;
+        this.pageVersion = pageVersion;
     }
 
     /**
@@ -119,7 +123,7 @@ public class PageController {
 
         // Generate QR code
         try {
-            String qrDataUrl = qrCodeService.generateQRCodeAsDataUrl(user.getPublicId());
+            String qrDataUrl = qrCodeService.generateQRCodeAsDataUrl(user);
             model.addAttribute("qrCodeDataUrl", qrDataUrl);
         } catch (WriterException | IOException e) {
             log.error("Failed to generate QR code for user {}", user.getPublicId(), e);
@@ -142,85 +146,189 @@ public class PageController {
     }
 
     /**
-     * Public allergy passport view - accessible without login.
+     * Passport URL without a language (encoded in QR codes): redirects to the canonical
+     * /u/{publicId}/{lang} page, negotiating the language from Accept-Language (or a legacy ?lang=).
      */
     @GetMapping("/u/{publicId}")
+    public String negotiatePassportLanguage(@PathVariable String publicId,
+                                            @RequestParam(name = "lang", required = false) String langParam,
+                                            @RequestHeader(name = HttpHeaders.ACCEPT_LANGUAGE, required = false) String acceptLanguage,
+                                            HttpServletResponse response) {
+        if (passportViewService.find(publicId).isEmpty()) {
+            return "error/404";
+        }
+
+        Locale locale = langParam != null && !langParam.isBlank()
+                ? SupportedLocales.find(langParam).orElse(Locale.ENGLISH)
+                : SupportedLocales.negotiate(acceptLanguage);
+
+        // The target depends on Accept-Language, the page it points to only on its URL
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_LANGUAGE);
+        // With ?lang= the response also sets the locale cookie (LocaleChangeInterceptor), so shared caches must not keep it
+        CacheControl cacheControl = CacheControl.maxAge(Duration.ofHours(1));
+        response.setHeader(HttpHeaders.CACHE_CONTROL,
+                (langParam != null ? cacheControl.cachePrivate() : cacheControl.cachePublic()).getHeaderValue());
+        return "redirect:/u/" + publicId + "/" + locale.getLanguage();
+    }
+
+    /**
+     * Public allergy passport view in one language - accessible without login.
+     * The response only depends on the URL, so browsers and shared caches may keep it for
+     * app.passport.page-max-age and revalidate it with the ETag afterwards.
+     */
+    @GetMapping("/u/{publicId}/{lang}")
     public String publicPassport(@PathVariable String publicId,
-                                  @RequestParam(name = "lang", required = false) String langParam,
-                                  Locale locale,
+                                  @PathVariable String lang,
+                                  HttpServletRequest request,
+                                  HttpServletResponse response,
+                                  WebRequest webRequest,
                                   Model model) {
-        User user = userService.findByPublicId(publicId).orElse(null);
+        Locale currentLocale = SupportedLocales.find(lang).orElse(null);
+        if (currentLocale == null) {
+            return "error/404";
+        }
+        if (!currentLocale.getLanguage().equals(lang)) {
+            // e.g. /u/{publicId}/de-AT
+            return "redirect:/u/" + publicId + "/" + currentLocale.getLanguage();
+        }
 
-        if (user == null) {
+        PassportView passport = passportViewService.find(publicId).orElse(null);
+        if (passport == null) {
             return "error/404";
         }
 
-        // Use the locale from the request (set by LocaleChangeInterceptor)
-        Locale currentLocale = locale;
-        if (langParam != null && !langParam.isBlank()) {
-            currentLocale = Locale.forLanguageTag(langParam);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.maxAge(pageMaxAge).cachePublic().getHeaderValue());
+        if (webRequest.checkNotModified(passportPageETag(passport, lang))) {
+            return null;
         }
 
-        model.addAttribute("user", user);
-        model.addAttribute("allergies", user.getAllergies());
+        // Request-scoped, so the cacheable response sets no locale cookie
+        WebConfig.setRequestLocale(request, currentLocale);
+
+        model.addAttribute("user", passport);
+        model.addAttribute("allergies", passport.allergies());
         model.addAttribute("currentLocale", currentLocale);
-        model.addAttribute("supportedLocales", SUPPORTED_LOCALES);
+        model.addAttribute("supportedLocales", SupportedLocales.ALL);
         model.addAttribute("translationProvider", translationService.getProviderName());
 
+        // Offline payload: lets the page re-render the list from a newer QR fragment (#p=...) client-side
+        model.addAttribute("passportPayload", PassportPayloadCodec.encode(passport.allergyMask(), passport.revision()));
+        model.addAttribute("allergyTypeLabels", buildAllergyTypeLabels(currentLocale));
+
         // Translate user content (bio and allergy notes) if needed
-        translateUserContent(user, currentLocale, model);
+        translateUserContent(passport, currentLocale, model);
 
         return "public/passport";
     }
 
+    /**
+     * Offline passport page in one language, cached by the service worker (static/sw.js) and shown when a
+     * passport cannot be loaded. It is the same for every passport: the allergy list is rendered client-side
+     * from the QR code fragment (#p=..., only present with app.qr.embed-passport=true).
+     */
+    @GetMapping("/offline/passport/{lang}")
+    public String offlinePassport(@PathVariable String lang,
+                                  HttpServletRequest request,
+                                  HttpServletResponse response,
+                                  Model model) {
+        Locale currentLocale = SupportedLocales.find(lang).orElse(null);
+        if (currentLocale == null || !currentLocale.getLanguage().equals(lang)) {
+            return "error/404";
+        }
+        WebConfig.setRequestLocale(request, currentLocale);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.maxAge(Duration.ofDays(1)).cachePublic().getHeaderValue());
+
+        model.addAttribute("currentLocale", currentLocale);
+        model.addAttribute("allergyTypeLabels", buildAllergyTypeLabels(currentLocale));
+        return "public/offline-passport";
+    }
+
+    /**
+     * Short passport URL encoded in compact QR codes (/Q/{PUBLICID}).
+     * Public IDs are case-insensitive hex, so the uppercase form redirects straight to the canonical page
+     * in the negotiated language.
+     */
+    @GetMapping({"/Q/{publicId}", "/q/{publicId}"})
+    public String shortPassportUrl(@PathVariable String publicId,
+                                   @RequestHeader(name = HttpHeaders.ACCEPT_LANGUAGE, required = false) String acceptLanguage,
+                                   HttpServletResponse response) {
+        if (!SHORT_PUBLIC_ID.matcher(publicId).matches()) {
+            return "error/404";
+        }
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_LANGUAGE);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.maxAge(Duration.ofHours(1)).cachePublic().getHeaderValue());
+        return "redirect:/u/" + publicId.toLowerCase(Locale.ROOT) + "/" + SupportedLocales.negotiate(acceptLanguage).getLanguage();
+    }
+
+    /**
+     * ETag of a passport page: changes with the passport (revision in epoch microseconds, the column precision),
+     * its avatar and the page version (templates, messages), and is the same on every instance.
+     */
+    private String passportPageETag(PassportView passport, String lang) {
+        LocalDateTime revision = passport.revision();
+        long revisionMicros = revision.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + revision.getNano() / 1_000;
+        return "\"" + pageVersion.get() + "-" + revisionMicros + "-" + passport.avatarVersion() + "-" + lang + "\"";
+    }
+
     /**
      * Translate user bio and allergy notes to the target locale.
      * Detects source language first to avoid unnecessary translations.
      * Uses caching to minimize API calls.
      */
-    private void translateUserContent(User user, Locale targetLocale, Model model) {
+    private void translateUserContent(PassportView passport, Locale targetLocale, Model model) {
         String targetLang = normalizeLanguageCode(targetLocale.getLanguage());
 
         // Translate user bio with language detection
-        if (user.getBio() != null && !user.getBio().isBlank()) {
-            String detectedLang = translationService.detectLanguage(user.getBio());
+        if (passport.bio() != null && !passport.bio().isBlank()) {
+            String detectedLang = translationService.detectLanguage(passport.bio());
 
             // Only translate if the detected language is different from target language
             if (detectedLang != null && detectedLang.equals(targetLang)) {
                 log.debug("Bio is already in target language ({}), skipping translation", targetLang);
-                model.addAttribute("translatedBio", user.getBio());
+                model.addAttribute("translatedBio", passport.bio());
             } else {
                 log.debug("Translating bio from {} to {}",
                           detectedLang != null ? detectedLang : "auto-detect", targetLang);
-                String translatedBio = translationService.translate(user.getBio(), null, targetLocale);
+                String translatedBio = translationService.translate(passport.bio(), null, targetLocale);
                 model.addAttribute("translatedBio", translatedBio);
             }
         }
 
         // Translate allergy notes with language detection for each note
         java.util.Map<Long, String> translatedNotes = new java.util.HashMap<>();
-        for (var allergy : user.getAllergies()) {
-            if (allergy.getNotes() != null && !allergy.getNotes().isBlank()) {
-                String detectedLang = translationService.detectLanguage(allergy.getNotes());
+        for (var allergy : passport.allergies()) {
+            if (allergy.notes() != null && !allergy.notes().isBlank()) {
+                String detectedLang = translationService.detectLanguage(allergy.notes());
 
                 // Only translate if the detected language is different from target language
                 if (detectedLang != null && detectedLang.equals(targetLang)) {
                     log.debug("Allergy note {} is already in target language ({}), skipping translation",
-                              allergy.getId(), targetLang);
-                    translatedNotes.put(allergy.getId(), allergy.getNotes());
+                              allergy.id(), targetLang);
+                    translatedNotes.put(allergy.id(), allergy.notes());
                 } else {
                     log.debug("Translating allergy note {} from {} to {}",
-                              allergy.getId(),
+                              allergy.id(),
                               detectedLang != null ? detectedLang : "auto-detect",
                               targetLang);
-                    String translatedNote = translationService.translate(allergy.getNotes(), null, targetLocale);
-                    translatedNotes.put(allergy.getId(), translatedNote);
+                    String translatedNote = translationService.translate(allergy.notes(), null, targetLocale);
+                    translatedNotes.put(allergy.id(), translatedNote);
                 }
             }
         }
         model.addAttribute("translatedNotes", translatedNotes);
     }
 
+    /**
+     * Emoji and localized name of every allergy type, indexed by ordinal (for the client-side payload renderer).
+     */
+    private List<Map<String, String>> buildAllergyTypeLabels(Locale locale) {
+        return Arrays.stream(AllergyType.values())
+                .map(type -> Map.of(
+                        "emoji", type.getEmoji(),
+                        "label", messageSource.getMessage(type.getMessageKey(), null, type.name(), locale)))
+                .toList();
+    }
+
     /**
      * Normalize language code to handle special cases like Chinese.
      */
@@ -0,0 +1,74 @@
+package com.allergypassport.controller;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Version of the rendered pages, part of page ETags: a hash of the templates and messages plus the
+ * application version (Implementation-Version of the jar, if any).
+ * <p>
+ * It only depends on the build, so every instance running it hands out the same ETags, and a
+ * deployment that changes how pages look makes cached pages revalidate to the new version.
+ */
+@Component
+class PageVersion {
+
+    private static final String[] PATTERNS = {"classpath*:templates/**/*.html", "classpath*:i18n/*.properties"};
+
+    private final String value;
+
+    PageVersion() {
+        this.value = compute(PageVersion.class.getPackage().getImplementationVersion(), PATTERNS);
+    }
+
+    /**
+     * The version, 12 hex characters.
+     */
+    String get() {
+        return value;
+    }
+
+    static String compute(String applicationVersion, String... patterns) {
+        try {
+            // Content digests in sorted order: independent of where the files are and of the listing order
+            List<String> digests = new ArrayList<>();
+            PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+            for (String pattern : patterns) {
+                for (Resource resource : resolver.getResources(pattern)) {
+                    if (resource.isReadable()) {
+                        try (InputStream in = resource.getInputStream()) {
+                            digests.add(HexFormat.of().formatHex(sha256().digest(in.readAllBytes())));
+                        }
+                    }
+                }
+            }
+            digests.sort(null);
+            MessageDigest digest = sha256();
+            digest.update(String.valueOf(applicationVersion).getBytes());
+            for (String resourceDigest : digests) {
+                digest.update(resourceDigest.getBytes());
+            }
+            return HexFormat.of().formatHex(digest.digest(), 0, 6);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read page templates", e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
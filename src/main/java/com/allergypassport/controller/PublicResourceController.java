@@ -1,123 +1,298 @@
 package com.allergypassport.controller;
 
-import com.allergypassport.entity.User;
+import com.allergypassport.dto.PassportView;
 import com.allergypassport.repository.UserRepository;
+import com.allergypassport.service.AvatarService;
+import com.allergypassport.service.BlobStoreService;
+import com.allergypassport.service.ProfilePictureVariantService;
+import com.allergypassport.service.PassportViewService;
+import com.allergypassport.util.ImageFormat;
+import com.allergypassport.util.QRCodeImage;
 import com.allergypassport.util.QRCodeService;
-import com.google.zxing.WriterException;
+import com.allergypassport.util.QRRenderExecutor;
+import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 /**
  * Controller for public resources (QR codes, profile pictures).
- * These endpoints don't require authentication.
+ * These endpoints don't require authentication and read only from the cached PassportView.
  */
 @RestController
 public class PublicResourceController {
 
     private static final Logger log = LoggerFactory.getLogger(PublicResourceController.class);
 
+    // Report the chosen QR symbol parameters (useful for checking print/scan quality)
+    private static final String QR_VERSION_HEADER = "X-QR-Version";
+    private static final String QR_ERROR_CORRECTION_HEADER = "X-QR-Error-Correction";
+
+    private static final MediaType SVG = MediaType.parseMediaType("image/svg+xml");
+
+    // Tomcat sendfile request attributes (org.apache.catalina.Globals)
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
     private final UserRepository userRepository;
+    private final PassportViewService passportViewService;
     private final QRCodeService qrCodeService;
+    private final QRRenderExecutor qrRenderExecutor;
+    private final BlobStoreService blobStoreService;
+    private final ProfilePictureVariantService variantService;
+    private final AvatarService avatarService;
 
-    public PublicResourceController(UserRepository userRepository, QRCodeService qrCodeService) {
+    public PublicResourceController(UserRepository userRepository,
+                                    PassportViewService passportViewService,
+                                    QRCodeService qrCodeService,
+                                    QRRenderExecutor qrRenderExecutor,
+                                    BlobStoreService blobStoreService,
+                                    ProfilePictureVariantService variantService,
+                                    AvatarService avatarService) {
         this.userRepository = userRepository;
+        this.passportViewService = passportViewService;
         this.qrCodeService = qrCodeService;
+        this.qrRenderExecutor = qrRenderExecutor;
+        this.blobStoreService = blobStoreService;
+        this.variantService = variantService;
+        this.avatarService = avatarService;
     }
 
     /**
      * Public QR code endpoint - generates QR code for a user's public page.
+     * Rendering runs on the bounded QR pool; the request thread is released while it runs.
      */
     @GetMapping("/qr/{publicId}")
-    public ResponseEntity<byte[]> getPublicQRCode(@PathVariable String publicId,
-                                                   @RequestParam(value = "size", defaultValue = "300") int size) {
+    public CompletableFuture<ResponseEntity<byte[]>> getPublicQRCode(@PathVariable String publicId,
+                                                                     @RequestParam(value = "size", defaultValue = "300") int size,
+                                                                     WebRequest webRequest) {
         // Validate user exists
-        if (!userRepository.findByPublicId(publicId).isPresent()) {
-            return ResponseEntity.notFound().build();
+        PassportView passport = passportViewService.find(publicId).orElse(null);
+        if (passport == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
         }
 
         // Limit size for security
         int clampedSize = Math.min(Math.max(size, 100), 1000);
 
-        try {
-            byte[] qrCode = qrCodeService.generateQRCode(publicId, clampedSize, clampedSize);
-            return ResponseEntity.ok()
-                    .contentType(MediaType.IMAGE_PNG)
-                    .cacheControl(CacheControl.maxAge(Duration.ofHours(1)))
-                    .body(qrCode);
-        } catch (WriterException | IOException e) {
-            log.error("Failed to generate QR code for public ID: {}", publicId, e);
-            return ResponseEntity.internalServerError().build();
+        // Embedded passports change with the allergies, so clients must revalidate
+        String eTag = qrCodeETag(passport, clampedSize);
+        if (webRequest.checkNotModified(eTag)) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build());
         }
+        CacheControl cacheControl = qrCodeService.isPassportEmbedded()
+                ? CacheControl.noCache()
+                : CacheControl.maxAge(Duration.ofHours(1));
+
+        return renderQRCode(passport, clampedSize, qrCode -> ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_PNG)
+                .cacheControl(cacheControl)
+                .eTag(eTag)
+                .header(QR_VERSION_HEADER, String.valueOf(qrCode.version()))
+                .header(QR_ERROR_CORRECTION_HEADER, qrCode.errorCorrection().name())
+                .body(qrCode.png()));
     }
 
     /**
      * Public profile picture endpoint.
-     * Returns the user's custom profile picture or a redirect to their Google picture.
+     * Returns the user's custom profile picture, the local copy of their Google picture,
+     * or an initials avatar - always from our own origin.
+     * Stored pictures are streamed from the blob store (sendfile where the connector supports it,
+     * Range requests otherwise handled by Spring) with the content hash as ETag.
+     * With a size, the nearest resized variant (96, 192 or 512 px JPEG) is served if one exists.
+     * Requests carrying the current avatar version (?v=, see User.getAvatarVersion) may be cached for a year.
      */
     @GetMapping("/profile-picture/{publicId}")
-    @Transactional(readOnly = true)  // Required for PostgreSQL LOB access
-    public ResponseEntity<?> getProfilePicture(@PathVariable String publicId) {
-        User user = userRepository.findByPublicId(publicId).orElse(null);
+    public ResponseEntity<?> getProfilePicture(@PathVariable String publicId,
+                                               @RequestParam(value = "size", required = false) Integer size,
+                                               @RequestParam(value = "v", required = false) String version,
+                                               WebRequest webRequest,
+                                               HttpServletRequest request) throws IOException {
+        PassportView user = passportViewService.find(publicId).orElse(null);
 
         if (user == null) {
             return ResponseEntity.notFound().build();
         }
 
+        CacheControl cacheControl = user.avatarVersion().equals(version)
+                ? CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable()
+                : CacheControl.maxAge(Duration.ofMinutes(5));
+
         // Return custom profile picture if available
         if (user.hasCustomProfilePicture()) {
             MediaType mediaType = MediaType.parseMediaType(
-                    user.getProfilePictureContentType() != null 
-                            ? user.getProfilePictureContentType() 
+                    user.profilePictureContentType() != null 
+                            ? user.profilePictureContentType() 
                             : "image/jpeg"
             );
 
-            return ResponseEntity.ok()
-                    .contentType(mediaType)
-                    .cacheControl(CacheControl.maxAge(Duration.ofMinutes(30)))
-                    .body(user.getProfilePicture());
+            if (user.profilePictureHash() == null) {
+                // Not migrated to the blob store yet
+                return ResponseEntity.ok()
+                        .contentType(mediaType)
+                        .cacheControl(cacheControl)
+                        .body(userRepository.findLegacyProfilePicture(user.userId()));
+            }
+
+            ResponseEntity<?> picture = streamPicture(user.profilePictureHash(), mediaType, size,
+                    cacheControl, webRequest, request);
+            if (picture != null) {
+                return picture;
+            }
+            log.warn("Profile picture blob {} of public ID {} is missing", user.profilePictureHash(), publicId);
         }
 
-        // Redirect to Google profile picture
-        if (user.getGooglePictureUrl() != null) {
-            return ResponseEntity
-                    .status(302)
-                    .header("Location", user.getGooglePictureUrl())
-                    .build();
+        // Local copy of the Google profile picture
+        if (user.googlePictureHash() != null) {
+            ResponseEntity<?> picture = streamPicture(user.googlePictureHash(), null, size,
+                    cacheControl, webRequest, request);
+            if (picture != null) {
+                return picture;
+            }
         }
 
-        // No picture available
-        return ResponseEntity.notFound().build();
+        // Initials avatar
+        String eTag = "\"" + user.avatarVersion() + "\"";
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+        return ResponseEntity.ok()
+                .contentType(SVG)
+                .cacheControl(cacheControl)
+                .eTag(eTag)
+                .body(avatarService.renderInitialsSvg(user.displayName()));
     }
 
     /**
      * Download QR code as attachment.
      */
     @GetMapping("/qr/{publicId}/download")
-    public ResponseEntity<byte[]> downloadQRCode(@PathVariable String publicId,
-                                                  @RequestParam(value = "size", defaultValue = "500") int size) {
-        if (!userRepository.findByPublicId(publicId).isPresent()) {
-            return ResponseEntity.notFound().build();
+    public CompletableFuture<ResponseEntity<byte[]>> downloadQRCode(@PathVariable String publicId,
+                                                                    @RequestParam(value = "size", defaultValue = "500") int size) {
+        PassportView passport = passportViewService.find(publicId).orElse(null);
+        if (passport == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
         }
 
         int clampedSize = Math.min(Math.max(size, 100), 1000);
 
+        return renderQRCode(passport, clampedSize, qrCode -> ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_PNG)
+                .header("Content-Disposition", "attachment; filename=\"allergy-passport-qr.png\"")
+                .header(QR_VERSION_HEADER, String.valueOf(qrCode.version()))
+                .header(QR_ERROR_CORRECTION_HEADER, qrCode.errorCorrection().name())
+                .body(qrCode.png()));
+    }
+
+    /**
+     * Stream a picture blob, or its nearest variant when a size is given.
+     *
+     * @param mediaType Content type of the original, or null to detect it from the file
+     * @return The response, or null if the blob is missing
+     */
+    private ResponseEntity<?> streamPicture(String hash, MediaType mediaType, Integer size, CacheControl cacheControl,
+                                            WebRequest webRequest, HttpServletRequest request) throws IOException {
+        if (size != null) {
+            int variantSize = ProfilePictureVariantService.nearestVariantSize(size);
+            Path variant = variantService.findVariant(hash, variantSize).orElse(null);
+            if (variant != null) {
+                return streamFile(variant, hash + "-" + variantSize, MediaType.IMAGE_JPEG,
+                        cacheControl, webRequest, request);
+            }
+        }
+
+        Path path = blobStoreService.find(hash).orElse(null);
+        if (path == null || Files.size(path) == 0) {
+            return null;
+        }
+        if (mediaType == null) {
+            mediaType = ImageFormat.sniff(path)
+                    .map(format -> MediaType.parseMediaType(format.getContentType()))
+                    .orElse(MediaType.APPLICATION_OCTET_STREAM);
+        }
+        return streamFile(path, hash, mediaType, cacheControl, webRequest, request);
+    }
+
+    private ResponseEntity<?> streamFile(Path path, String version, MediaType mediaType, CacheControl cacheControl,
+                                         WebRequest webRequest, HttpServletRequest request) throws IOException {
+        String eTag = "\"" + version + "\"";
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(mediaType)
+                .cacheControl(cacheControl)
+                .eTag(eTag);
+
+        // Whole file: let Tomcat send it straight from the page cache (zero-copy), as its DefaultServlet does
+        if (request.getHeader(HttpHeaders.RANGE) == null
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            long length = Files.size(path);
+            request.setAttribute(SENDFILE_FILENAME_ATTR, path.toString());
+            request.setAttribute(SENDFILE_START_ATTR, 0L);
+            request.setAttribute(SENDFILE_END_ATTR, length);
+            return response.contentLength(length).build();
+        }
+        return response.body(new FileSystemResource(path));
+    }
+
+    /**
+     * ETag of a QR code: a SHA-256 prefix of its content (which covers the passport data and the QR settings)
+     * and the size.
+     */
+    private String qrCodeETag(PassportView passport, int size) {
+        byte[] contentHash = sha256(qrCodeService.buildQRCodeContent(passport).getBytes(StandardCharsets.UTF_8));
+        return "\"" + HexFormat.of().formatHex(contentHash, 0, 12) + "-" + size + "\"";
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Render a QR code on the QR pool and map it to a response.
+     * Answers 503 with Retry-After right away when the pool is saturated.
+     */
+    private CompletableFuture<ResponseEntity<byte[]>> renderQRCode(PassportView passport, int size,
+                                                                   Function<QRCodeImage, ResponseEntity<byte[]>> toResponse) {
+        String publicId = passport.publicId();
         try {
-            byte[] qrCode = qrCodeService.generateQRCode(publicId, clampedSize, clampedSize);
-            return ResponseEntity.ok()
-                    .contentType(MediaType.IMAGE_PNG)
-                    .header("Content-Disposition", "attachment; filename=\"allergy-passport-qr.png\"")
-                    .body(qrCode);
-        } catch (WriterException | IOException e) {
-            log.error("Failed to generate QR code for download: {}", publicId, e);
-            return ResponseEntity.internalServerError().build();
+            return qrRenderExecutor.submit(() -> qrCodeService.generateQRCodeImage(passport, size, size))
+                    .thenApply(toResponse)
+                    .exceptionally(e -> {
+                        log.error("Failed to generate QR code for public ID: {}", publicId, e);
+                        return ResponseEntity.internalServerError().build();
+                    });
+        } catch (RejectedExecutionException e) {
+            log.warn("QR render pool saturated, rejecting request for public ID: {}", publicId);
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(qrRenderExecutor.getRetryAfterSeconds()))
+                    .build());
         }
     }
 }
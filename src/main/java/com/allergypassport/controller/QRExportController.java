@@ -0,0 +1,85 @@
+package com.allergypassport.controller;
+
+import com.allergypassport.service.CustomOAuth2User;
+import com.allergypassport.service.QRExportService;
+import com.allergypassport.util.SupportedLocales;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Authenticated bulk export of QR codes (for printing passport cards in batches).
+ * Administrators may export any passports, other users only their own.
+ */
+@RestController
+@RequestMapping("/api/qr")
+public class QRExportController {
+
+    private static final Logger log = LoggerFactory.getLogger(QRExportController.class);
+
+    private final QRExportService qrExportService;
+
+    public QRExportController(QRExportService qrExportService) {
+        this.qrExportService = qrExportService;
+    }
+
+    /**
+     * Stream a ZIP of QR codes for the given public IDs, optionally with rendered wallet cards.
+     * Example: POST /api/qr/export?publicIds=abc12345,def67890&format=svg&cards=true&langs=en,de
+     */
+    @PostMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(@AuthenticationPrincipal CustomOAuth2User principal,
+                                                        @RequestParam("publicIds") List<String> publicIds,
+                                                        @RequestParam(value = "format", defaultValue = "png") String format,
+                                                        @RequestParam(value = "size", defaultValue = "500") int size,
+                                                        @RequestParam(value = "cards", defaultValue = "false") boolean cards,
+                                                        @RequestParam(value = "langs", defaultValue = "en") String langs) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (String publicId : publicIds) {
+            if (publicId != null && !publicId.isBlank()) {
+                ids.add(publicId.trim());
+            }
+        }
+        if (ids.isEmpty() || ids.size() > QRExportService.MAX_BATCH_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!principal.isAdmin() && !ids.equals(Set.of(principal.getPublicId()))) {
+            log.warn("User {} tried to export QR codes of other passports", principal.getUserId());
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        QRExportService.Format exportFormat;
+        try {
+            exportFormat = QRExportService.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        int clampedSize = Math.min(Math.max(size, 100), 1000);
+        List<Locale> cardLanguages = cards ? SupportedLocales.parseList(langs) : List.of();
+        if (cards && cardLanguages.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        log.info("User {} exporting {} QR codes as {}", principal.getUserId(), ids.size(), exportFormat);
+
+        StreamingResponseBody body = out -> qrExportService.writeZip(ids, exportFormat, clampedSize, cardLanguages, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"allergy-passport-qr-codes.zip\"")
+                .body(body);
+    }
+}
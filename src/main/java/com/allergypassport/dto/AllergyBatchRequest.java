@@ -0,0 +1,17 @@
+package com.allergypassport.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+/**
+ * DTO for applying several allergy changes at once (e.g. setting up a new passport).
+ */
+public record AllergyBatchRequest(
+        @NotNull(message = "Changes are required")
+        @Size(max = 64, message = "At most 64 changes per request")
+        List<@Valid AllergyChange> changes
+) {
+}
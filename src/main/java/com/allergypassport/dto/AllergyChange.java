@@ -0,0 +1,21 @@
+package com.allergypassport.dto;
+
+import com.allergypassport.entity.AllergySeverity;
+import com.allergypassport.entity.AllergyType;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+/**
+ * One change in a batch allergy update: adds or updates the allergy type, or removes it when
+ * severity is null.
+ */
+public record AllergyChange(
+        @NotNull(message = "Allergy type is required")
+        AllergyType allergyType,
+
+        AllergySeverity severity,
+
+        @Size(max = 500, message = "Notes cannot exceed 500 characters")
+        String notes
+) {
+}
@@ -0,0 +1,23 @@
+package com.allergypassport.dto;
+
+import com.allergypassport.entity.UserAllergy;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Result of an allergy mutation, taken from the same transaction: the resulting allergy list and the
+ * passport data the dashboard QR code is built from.
+ *
+ * @param allergies   The user's allergies after the change, in insertion order
+ * @param publicId    The user's public ID
+ * @param allergyMask The allergies packed with AllergyMask
+ * @param revision    The passport revision written by the change (user update timestamp)
+ */
+public record AllergyMutation(
+        List<UserAllergy> allergies,
+        String publicId,
+        long allergyMask,
+        LocalDateTime revision
+) {
+}
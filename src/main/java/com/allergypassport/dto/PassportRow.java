@@ -0,0 +1,27 @@
+package com.allergypassport.dto;
+
+import com.allergypassport.entity.AllergySeverity;
+import com.allergypassport.entity.AllergyType;
+
+import java.time.LocalDateTime;
+
+/**
+ * Flat projection row for building a PassportView: one row per user allergy
+ * (or a single row with null allergy fields for users without allergies).
+ */
+public record PassportRow(
+        Long userId,
+        String publicId,
+        String displayName,
+        String bio,
+        String profilePictureHash,
+        String profilePictureContentType,
+        String googlePictureHash,
+        LocalDateTime updatedAt,
+        Long allergyMask,
+        Long allergyId,
+        AllergyType allergyType,
+        AllergySeverity severity,
+        String notes
+) {
+}
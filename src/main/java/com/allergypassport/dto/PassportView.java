@@ -0,0 +1,70 @@
+package com.allergypassport.dto;
+
+import com.allergypassport.entity.AllergySeverity;
+import com.allergypassport.entity.AllergyType;
+import com.allergypassport.entity.User;
+import com.allergypassport.util.AllergyMask;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Immutable read model of a public passport, built from one projection query (see PassportViewService).
+ * Used by the public page, QR codes, profile pictures and wallet cards instead of managed entities.
+ *
+ * @param revision    The passport revision (user update timestamp)
+ * @param allergyMask The allergies packed with AllergyMask
+ * @param allergies   The allergies in insertion order (unmodifiable, array-backed)
+ */
+public record PassportView(
+        long userId,
+        String publicId,
+        String displayName,
+        String bio,
+        String profilePictureHash,
+        String profilePictureContentType,
+        String googlePictureHash,
+        LocalDateTime revision,
+        long allergyMask,
+        List<Allergy> allergies
+) {
+
+    /**
+     * One allergy entry of the passport.
+     */
+    public record Allergy(long id, AllergyType allergyType, AllergySeverity severity, String notes) {
+    }
+
+    /**
+     * Build a view from the projection rows of one user.
+     */
+    public static PassportView of(List<PassportRow> rows) {
+        PassportRow first = rows.get(0);
+        Allergy[] allergies = new Allergy[first.allergyId() != null ? rows.size() : 0];
+        long packed = 0;
+        for (int i = 0; i < allergies.length; i++) {
+            PassportRow row = rows.get(i);
+            allergies[i] = new Allergy(row.allergyId(), row.allergyType(), row.severity(), row.notes());
+            packed = AllergyMask.with(packed, row.allergyType(), row.severity());
+        }
+        // Stored on the users row once backfilled
+        long mask = first.allergyMask() != null ? first.allergyMask() : packed;
+        return new PassportView(first.userId(), first.publicId(), first.displayName(), first.bio(),
+                first.profilePictureHash(), first.profilePictureContentType(), first.googlePictureHash(),
+                first.updatedAt(), mask, List.of(allergies));
+    }
+
+    /**
+     * See User.hasCustomProfilePicture().
+     */
+    public boolean hasCustomProfilePicture() {
+        return profilePictureContentType != null;
+    }
+
+    /**
+     * See User.getAvatarVersion().
+     */
+    public String avatarVersion() {
+        return User.avatarVersionOf(profilePictureHash, profilePictureContentType, googlePictureHash, displayName);
+    }
+}
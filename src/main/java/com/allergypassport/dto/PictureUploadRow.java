@@ -0,0 +1,14 @@
+package com.allergypassport.dto;
+
+import com.allergypassport.entity.PictureUploadState;
+
+import java.time.LocalDateTime;
+
+/**
+ * Projection of the state of a user's latest profile picture upload and when it was reached.
+ */
+public record PictureUploadRow(
+        PictureUploadState state,
+        LocalDateTime since
+) {
+}
@@ -0,0 +1,20 @@
+package com.allergypassport.dto;
+
+import com.allergypassport.entity.AllergySeverity;
+import com.allergypassport.entity.AllergyType;
+
+import java.time.LocalDateTime;
+
+/**
+ * Flat projection row for bulk QR export: one row per user allergy
+ * (or a single row with null allergy fields for users without allergies).
+ */
+public record QRExportRow(
+        String publicId,
+        String displayName,
+        LocalDateTime updatedAt,
+        AllergyType allergyType,
+        AllergySeverity severity,
+        String notes
+) {
+}
@@ -0,0 +1,22 @@
+package com.allergypassport.entity;
+
+/**
+ * State of a user's latest profile picture upload (see ProfilePictureUploadService).
+ */
+public enum PictureUploadState {
+
+    /**
+     * Accepted and queued or being processed.
+     */
+    PENDING,
+
+    /**
+     * Stored and set as the profile picture.
+     */
+    COMPLETED,
+
+    /**
+     * Processing failed; the previous picture is kept.
+     */
+    FAILED
+}
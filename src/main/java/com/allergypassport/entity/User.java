@@ -1,21 +1,42 @@
 package com.allergypassport.entity;
 
+import com.allergypassport.util.AllergyMask;
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 
 /**
  * User entity representing a registered user in the system.
  * Users authenticate via Google OAuth2 and can manage their allergy information.
+ * Cached read-write in the second-level cache together with the allergies collection (see ehcache.xml).
+ * Updates only write the changed columns, so a profile or picture change made from a stale copy
+ * (read before a concurrent allergy change, or from another instance's cache) cannot revert the
+ * allergy mask written by UserService.
  */
 @Entity
-@Table(name = "users")
+@Table(name = "users", indexes = {
+    // Newly created users are polled by creation time (see PublicIdFilter)
+    @Index(name = "idx_users_created_at", columnList = "created_at")
+})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@DynamicUpdate
 public class User {
 
+    /**
+     * Pooled sequence (50 IDs per round trip) so inserts can be JDBC-batched; see IdSequenceInitializer.
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_seq")
+    @SequenceGenerator(name = "users_seq", sequenceName = "users_seq", allocationSize = 50)
     private Long id;
 
     /**
@@ -51,13 +72,21 @@ public class User {
     private String preferredLanguage = "en";
 
     /**
-     * Profile picture stored as byte array.
-     * For production, consider using cloud storage.
+     * Legacy profile picture bytes. New pictures live in the blob store (see profilePictureHash);
+     * remaining rows are moved there by ProfilePictureMigration.
+     * Lazy (bytecode-enhanced), so loading a user never reads the LOB unless this getter is called.
      */
     @Lob
+    @Basic(fetch = FetchType.LAZY)
     @Column(name = "profile_picture")
     private byte[] profilePicture;
 
+    /**
+     * Blob store key (SHA-256 of the content) of the custom profile picture.
+     */
+    @Column(name = "profile_picture_hash", length = 64)
+    private String profilePictureHash;
+
     @Column(name = "profile_picture_content_type")
     private String profilePictureContentType;
 
@@ -67,6 +96,37 @@ public class User {
     @Column(name = "google_picture_url")
     private String googlePictureUrl;
 
+    /**
+     * Blob store key of the local copy of the Google picture (see AvatarService).
+     */
+    @Column(name = "google_picture_hash", length = 64)
+    private String googlePictureHash;
+
+    /**
+     * When the Google picture was last fetched; null means a fetch is due.
+     */
+    @Column(name = "google_picture_fetched_at")
+    private LocalDateTime googlePictureFetchedAt;
+
+    /**
+     * State of the latest profile picture upload until the dashboard has seen its result, so any
+     * instance can answer the dashboard's polling. Null when there is nothing to report.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "picture_upload_state", length = 16)
+    private PictureUploadState pictureUploadState;
+
+    @Column(name = "picture_upload_at")
+    private LocalDateTime pictureUploadAt;
+
+    /**
+     * The user's allergies packed with AllergyMask (type and severity per AllergyType ordinal),
+     * computed on insert and kept in sync with user_allergies by UserService. Null only for users
+     * created before the column existed, until backfilled by AllergyMaskBackfill.
+     */
+    @Column(name = "allergy_mask")
+    private Long allergyMask;
+
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
 
@@ -74,9 +134,11 @@ public class User {
     private LocalDateTime updatedAt;
 
     /**
-     * User's allergy entries.
+     * User's allergy entries, in insertion order.
      */
     @OneToMany(mappedBy = "user", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
+    @OrderBy("id")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private List<UserAllergy> allergies = new ArrayList<>();
 
     // Constructors
@@ -96,13 +158,19 @@ public class User {
 
     @PrePersist
     protected void onCreate() {
-        this.createdAt = LocalDateTime.now();
-        this.updatedAt = LocalDateTime.now();
+        this.createdAt = now();
+        this.updatedAt = now();
+        this.allergyMask = AllergyMask.pack(allergies);
     }
 
     @PreUpdate
     protected void onUpdate() {
-        this.updatedAt = LocalDateTime.now();
+        this.updatedAt = now();
+    }
+
+    // The precision of the timestamp columns, so a cached entity carries the same revision as the stored row
+    private static LocalDateTime now() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
     }
 
     // Helper methods
@@ -117,12 +185,40 @@ public class User {
         allergy.setUser(null);
     }
 
+    /**
+     * Mark the passport as changed (e.g. after allergy changes that do not touch this row).
+     * The update timestamp doubles as the passport revision.
+     */
+    public void markUpdated() {
+        this.updatedAt = now();
+    }
+
     /**
      * Returns the effective profile picture URL.
      * Uses custom uploaded picture if available, otherwise falls back to Google picture.
      */
     public boolean hasCustomProfilePicture() {
-        return profilePicture != null && profilePicture.length > 0;
+        // Set for stored and not yet migrated pictures alike; avoids touching the LOB
+        return profilePictureContentType != null;
+    }
+
+    /**
+     * Version of the avatar served by /profile-picture/{publicId}, used as the ?v= cache-busting parameter.
+     * Changes whenever the served image changes (custom picture, cached Google picture or initials).
+     */
+    public String getAvatarVersion() {
+        return avatarVersionOf(profilePictureHash, profilePictureContentType, googlePictureHash, displayName);
+    }
+
+    public static String avatarVersionOf(String profilePictureHash, String profilePictureContentType,
+                                         String googlePictureHash, String displayName) {
+        if (profilePictureContentType != null) {
+            return profilePictureHash != null ? profilePictureHash.substring(0, 12) : "legacy";
+        }
+        if (googlePictureHash != null) {
+            return "g" + googlePictureHash.substring(0, 12);
+        }
+        return "i" + Integer.toHexString(Objects.hashCode(displayName));
     }
 
     // Getters and Setters
@@ -191,6 +287,14 @@ public class User {
         this.profilePicture = profilePicture;
     }
 
+    public String getProfilePictureHash() {
+        return profilePictureHash;
+    }
+
+    public void setProfilePictureHash(String profilePictureHash) {
+        this.profilePictureHash = profilePictureHash;
+    }
+
     public String getProfilePictureContentType() {
         return profilePictureContentType;
     }
@@ -204,9 +308,67 @@ public class User {
     }
 
     public void setGooglePictureUrl(String googlePictureUrl) {
+        if (!Objects.equals(this.googlePictureUrl, googlePictureUrl)) {
+            // Picture changed on Google's side: fetch the new one on the next refresh run
+            this.googlePictureFetchedAt = null;
+        }
         this.googlePictureUrl = googlePictureUrl;
     }
 
+    public String getGooglePictureHash() {
+        return googlePictureHash;
+    }
+
+    public void setGooglePictureHash(String googlePictureHash) {
+        this.googlePictureHash = googlePictureHash;
+    }
+
+    public LocalDateTime getGooglePictureFetchedAt() {
+        return googlePictureFetchedAt;
+    }
+
+    public void setGooglePictureFetchedAt(LocalDateTime googlePictureFetchedAt) {
+        this.googlePictureFetchedAt = googlePictureFetchedAt;
+    }
+
+    public PictureUploadState getPictureUploadState() {
+        return pictureUploadState;
+    }
+
+    public void setPictureUploadState(PictureUploadState pictureUploadState) {
+        this.pictureUploadState = pictureUploadState;
+    }
+
+    public LocalDateTime getPictureUploadAt() {
+        return pictureUploadAt;
+    }
+
+    public void setPictureUploadAt(LocalDateTime pictureUploadAt) {
+        this.pictureUploadAt = pictureUploadAt;
+    }
+
+    public Long getAllergyMask() {
+        return allergyMask;
+    }
+
+    public void setAllergyMask(Long allergyMask) {
+        this.allergyMask = allergyMask;
+    }
+
+    /**
+     * Allergy types of this user, read from the mask (falls back to the allergy entries if not backfilled yet).
+     */
+    public EnumSet<AllergyType> getAllergyTypes() {
+        return AllergyMask.types(allergyMask != null ? allergyMask : AllergyMask.pack(allergies));
+    }
+
+    /**
+     * Severity recorded for an allergy type, or null if the user does not have it.
+     */
+    public AllergySeverity getAllergySeverity(AllergyType type) {
+        return AllergyMask.severityOf(allergyMask != null ? allergyMask : AllergyMask.pack(allergies), type);
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -1,6 +1,8 @@
 package com.allergypassport.entity;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import java.time.LocalDateTime;
 
 /**
@@ -10,10 +12,16 @@ import java.time.LocalDateTime;
 @Entity
 @Table(name = "user_allergies", 
        uniqueConstraints = @UniqueConstraint(columnNames = {"user_id", "allergy_type"}))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class UserAllergy {
 
+    /**
+     * Pooled sequence (50 IDs per round trip) so inserts can be JDBC-batched; see IdSequenceInitializer.
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_allergies_seq")
+    @SequenceGenerator(name = "user_allergies_seq", sequenceName = "user_allergies_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -2,23 +2,32 @@ package com.allergypassport.repository;
 
 import com.allergypassport.entity.AllergyType;
 import com.allergypassport.entity.UserAllergy;
+import jakarta.persistence.QueryHint;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
 import java.util.Optional;
 
+import static org.hibernate.jpa.HibernateHints.HINT_CACHEABLE;
+
 @Repository
 public interface UserAllergyRepository extends JpaRepository<UserAllergy, Long> {
 
     /**
-     * Find all allergies for a specific user.
+     * Find all allergies for a specific user (query cache; entries come from the entity cache).
      */
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
     List<UserAllergy> findByUserId(Long userId);
 
+    /**
+     * Find an allergy entry by ID, only if it belongs to the given user.
+     */
+    Optional<UserAllergy> findByIdAndUserId(Long id, Long userId);
+
     /**
      * Find a specific allergy entry for a user.
      */
@@ -29,20 +38,6 @@ public interface UserAllergyRepository extends JpaRepository<UserAllergy, Long>
      */
     boolean existsByUserIdAndAllergyType(Long userId, AllergyType allergyType);
 
-    /**
-     * Delete all allergies for a user.
-     */
-    @Modifying
-    @Query("DELETE FROM UserAllergy ua WHERE ua.user.id = :userId")
-    void deleteAllByUserId(@Param("userId") Long userId);
-
-    /**
-     * Delete a specific allergy for a user.
-     */
-    @Modifying
-    @Query("DELETE FROM UserAllergy ua WHERE ua.user.id = :userId AND ua.allergyType = :allergyType")
-    void deleteByUserIdAndAllergyType(@Param("userId") Long userId, @Param("allergyType") AllergyType allergyType);
-
     /**
      * Count allergies for a user.
      */
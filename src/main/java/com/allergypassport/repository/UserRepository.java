@@ -1,12 +1,28 @@
 package com.allergypassport.repository;
 
+import com.allergypassport.dto.PassportRow;
+import com.allergypassport.dto.PictureUploadRow;
+import com.allergypassport.dto.QRExportRow;
+import com.allergypassport.entity.PictureUploadState;
 import com.allergypassport.entity.User;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
@@ -14,6 +30,7 @@ public interface UserRepository extends JpaRepository<User, Long> {
     /**
      * Find user by Google OAuth2 subject ID.
      */
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
     Optional<User> findByGoogleId(String googleId);
 
     /**
@@ -32,14 +49,163 @@ public interface UserRepository extends JpaRepository<User, Long> {
     boolean existsByGoogleId(String googleId);
 
     /**
-     * Find user with allergies eagerly loaded (for public view).
+     * Check whether any user still references a picture blob (as custom or cached Google picture).
+     */
+    boolean existsByProfilePictureHashOrGooglePictureHash(String profilePictureHash, String googlePictureHash);
+
+    /**
+     * Users whose Google picture has never been fetched or was fetched before the given time, oldest first.
+     */
+    @Query("SELECT u FROM User u WHERE u.googlePictureUrl IS NOT NULL " +
+           "AND (u.googlePictureFetchedAt IS NULL OR u.googlePictureFetchedAt < :before) " +
+           "ORDER BY u.googlePictureFetchedAt ASC NULLS FIRST, u.id")
+    List<User> findGooglePicturesToRefresh(@Param("before") LocalDateTime before, Pageable pageable);
+
+    /**
+     * Record the result of a Google picture fetch.
+     * A bulk update, so the passport revision (updatedAt) is left alone.
+     */
+    @Modifying
+    @Query("UPDATE User u SET u.googlePictureHash = :hash, u.googlePictureFetchedAt = :fetchedAt WHERE u.id = :id")
+    int updateGooglePicture(@Param("id") Long id, @Param("hash") String hash,
+                            @Param("fetchedAt") LocalDateTime fetchedAt);
+
+    /**
+     * State of the user's latest profile picture upload, read from the table (not the second-level
+     * cache) so every instance sees the same state.
+     */
+    @Query("SELECT new com.allergypassport.dto.PictureUploadRow(u.pictureUploadState, u.pictureUploadAt) " +
+           "FROM User u WHERE u.id = :id")
+    Optional<PictureUploadRow> findPictureUpload(@Param("id") Long id);
+
+    /**
+     * Record the state of the user's latest profile picture upload.
+     * A bulk update, so the passport revision (updatedAt) is left alone.
+     */
+    @Modifying
+    @Query("UPDATE User u SET u.pictureUploadState = :state, u.pictureUploadAt = :at WHERE u.id = :id")
+    int updatePictureUpload(@Param("id") Long id, @Param("state") PictureUploadState state,
+                            @Param("at") LocalDateTime at);
+
+    /**
+     * Clear a reported upload state, unless a newer upload has replaced it in the meantime.
+     */
+    @Modifying
+    @Query("UPDATE User u SET u.pictureUploadState = NULL, u.pictureUploadAt = NULL " +
+           "WHERE u.id = :id AND u.pictureUploadAt = :at")
+    int clearPictureUpload(@Param("id") Long id, @Param("at") LocalDateTime at);
+
+    /**
+     * Store the email and Google picture URL reported at login (a changed URL is fetched again on the next
+     * refresh run). A bulk update, so the passport revision (updatedAt) is left alone.
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE User u SET u.email = :email, u.googlePictureUrl = :pictureUrl, " +
+           "u.googlePictureFetchedAt = CASE WHEN u.googlePictureUrl = :pictureUrl " +
+           "THEN u.googlePictureFetchedAt ELSE NULL END WHERE u.id = :id")
+    int updateGoogleAccount(@Param("id") Long id, @Param("email") String email,
+                            @Param("pictureUrl") String pictureUrl);
+
+    /**
+     * IDs of users whose profile picture is still stored in the users table.
+     */
+    @Query("SELECT u.id FROM User u WHERE u.profilePictureHash IS NULL AND u.profilePictureContentType IS NOT NULL " +
+           "ORDER BY u.id")
+    List<Long> findIdsWithLegacyProfilePicture(Pageable pageable);
+
+    /**
+     * Distinct profile picture blob keys after the given key, in key order (for keyset pagination).
+     */
+    @Query("SELECT DISTINCT u.profilePictureHash FROM User u WHERE u.profilePictureHash > :after " +
+           "ORDER BY u.profilePictureHash")
+    List<String> findProfilePictureHashesAfter(@Param("after") String after, Pageable pageable);
+
+    /**
+     * Read the legacy profile picture bytes of a single user.
+     */
+    @Transactional(readOnly = true)  // Required for PostgreSQL LOB access
+    @Query("SELECT u.profilePicture FROM User u WHERE u.id = :id")
+    byte[] findLegacyProfilePicture(@Param("id") Long id);
+
+    /**
+     * Point a user at a migrated picture blob and drop the legacy bytes.
+     * A bulk update, so the passport revision (updatedAt) is left alone.
+     */
+    @Modifying
+    @Query("UPDATE User u SET u.profilePictureHash = :hash, u.profilePicture = null WHERE u.id = :id")
+    int moveProfilePictureToBlob(@Param("id") Long id, @Param("hash") String hash);
+
+    /**
+     * The stored allergy mask of a user (null if not backfilled yet).
+     */
+    @Query("SELECT u.allergyMask FROM User u WHERE u.id = :id")
+    Long findAllergyMask(@Param("id") Long id);
+
+    /**
+     * IDs of users whose allergy mask has not been backfilled yet.
      */
-    @Query("SELECT u FROM User u LEFT JOIN FETCH u.allergies WHERE u.publicId = :publicId")
-    Optional<User> findByPublicIdWithAllergies(@Param("publicId") String publicId);
+    @Query("SELECT u.id FROM User u WHERE u.allergyMask IS NULL ORDER BY u.id")
+    List<Long> findIdsWithoutAllergyMask(Pageable pageable);
+
+    /**
+     * Set a missing allergy mask. A bulk update, so the passport revision (updatedAt) is unchanged;
+     * rows whose mask was set meanwhile by UserService are left alone.
+     */
+    @Modifying
+    @Query("UPDATE User u SET u.allergyMask = :mask WHERE u.id = :id AND u.allergyMask IS NULL")
+    int initAllergyMask(@Param("id") Long id, @Param("mask") long mask);
+
+    /**
+     * Projection rows of one public passport (no entities), allergies in insertion order.
+     */
+    @Query("SELECT new com.allergypassport.dto.PassportRow(u.id, u.publicId, u.displayName, u.bio, " +
+           "u.profilePictureHash, u.profilePictureContentType, u.googlePictureHash, u.updatedAt, u.allergyMask, " +
+           "a.id, a.allergyType, a.severity, a.notes) " +
+           "FROM User u LEFT JOIN u.allergies a WHERE u.publicId = :publicId ORDER BY a.id")
+    List<PassportRow> findPassportRows(@Param("publicId") String publicId);
 
     /**
      * Find user by Google ID with allergies eagerly loaded.
      */
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
     @Query("SELECT u FROM User u LEFT JOIN FETCH u.allergies WHERE u.googleId = :googleId")
     Optional<User> findByGoogleIdWithAllergies(@Param("googleId") String googleId);
+
+    /**
+     * Lock a users row until the end of the transaction (SELECT ... FOR UPDATE), so concurrent allergy
+     * mutations of the same user are serialized. A separate statement because Hibernate would lock the
+     * outer-joined allergies with follow-on locks, after their state was already read.
+     */
+    @Query(value = "SELECT id FROM users WHERE id = :id FOR UPDATE", nativeQuery = true)
+    Optional<Long> lockById(@Param("id") Long id);
+
+    /**
+     * Find user by ID with allergies eagerly loaded (one query, used by allergy mutations).
+     */
+    @Query("SELECT u FROM User u LEFT JOIN FETCH u.allergies WHERE u.id = :id")
+    Optional<User> findByIdWithAllergies(@Param("id") Long id);
+
+    /**
+     * Stream the data needed to render QR codes for many users in one query, ordered by public ID.
+     * Must be consumed inside a transaction and closed after use.
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "256"))
+    @Query("SELECT new com.allergypassport.dto.QRExportRow(u.publicId, u.displayName, u.updatedAt, " +
+           "a.allergyType, a.severity, a.notes) " +
+           "FROM User u LEFT JOIN u.allergies a WHERE u.publicId IN :publicIds ORDER BY u.publicId, a.allergyType")
+    Stream<QRExportRow> streamQRExportRows(@Param("publicIds") Collection<String> publicIds);
+
+    /**
+     * Stream all public IDs (used to build PublicIdFilter).
+     * Must be consumed inside a transaction and closed after use.
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT u.publicId FROM User u")
+    Stream<String> streamAllPublicIds();
+
+    /**
+     * Public IDs of users created after the given time (used to keep PublicIdFilter in sync).
+     */
+    @Query("SELECT u.publicId FROM User u WHERE u.createdAt > :since")
+    List<String> findPublicIdsCreatedAfter(@Param("since") LocalDateTime since);
 }
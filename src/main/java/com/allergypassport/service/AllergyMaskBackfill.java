@@ -0,0 +1,90 @@
+package com.allergypassport.service;
+
+import com.allergypassport.repository.UserAllergyRepository;
+import com.allergypassport.repository.UserRepository;
+import com.allergypassport.util.AllergyMask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Background backfill of users.allergy_mask for users created before the column existed.
+ * <p>
+ * Starts after the application is ready and works in small batches, one transaction each.
+ * Masks are only set where still null, so a concurrent allergy change (which sets the mask itself)
+ * always wins, and running it on several instances is harmless.
+ */
+@Component
+public class AllergyMaskBackfill {
+
+    private static final Logger log = LoggerFactory.getLogger(AllergyMaskBackfill.class);
+
+    private final UserRepository userRepository;
+    private final UserAllergyRepository userAllergyRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${app.allergy-mask.backfill.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.allergy-mask.backfill.batch-size:200}")
+    private int batchSize;
+
+    public AllergyMaskBackfill(UserRepository userRepository,
+                               UserAllergyRepository userAllergyRepository,
+                               PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.userAllergyRepository = userAllergyRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(this::backfill, "allergy-mask-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Set the mask of all users that have none yet, batch by batch.
+     *
+     * @return Number of users processed
+     */
+    public int backfill() {
+        int processed = 0;
+        try {
+            while (true) {
+                Integer count = transactionTemplate.execute(status -> backfillBatch());
+                if (count == null || count == 0) {
+                    break;
+                }
+                processed += count;
+            }
+            if (processed > 0) {
+                log.info("Backfilled allergy masks of {} users", processed);
+            }
+        } catch (RuntimeException e) {
+            log.error("Allergy mask backfill stopped after {} users", processed, e);
+        }
+        return processed;
+    }
+
+    private int backfillBatch() {
+        List<Long> ids = userRepository.findIdsWithoutAllergyMask(PageRequest.of(0, batchSize));
+        for (Long id : ids) {
+            long mask = AllergyMask.pack(userAllergyRepository.findByUserId(id));
+            userRepository.initAllergyMask(id, mask);
+        }
+        return ids.size();
+    }
+}
@@ -0,0 +1,248 @@
+package com.allergypassport.service;
+
+import com.allergypassport.entity.User;
+import com.allergypassport.repository.UserRepository;
+import com.allergypassport.util.ImageFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Serves avatars for users without a custom picture from our own origin.
+ * <p>
+ * - Google pictures are fetched once into the blob store (with resized variants) by a scheduled job,
+ *   and refreshed periodically or when the picture URL changes on login.
+ * - Everyone else gets a small initials SVG, rendered once and kept in memory.
+ * Passport views therefore never depend on lh3.googleusercontent.com or ui-avatars.com.
+ */
+@Service
+public class AvatarService {
+
+    private static final Logger log = LoggerFactory.getLogger(AvatarService.class);
+
+    // Only Google's picture CDN is fetched (the URL comes from the ID token, but never fetch arbitrary hosts)
+    private static final String GOOGLE_PICTURE_HOST_SUFFIX = ".googleusercontent.com";
+    private static final long MAX_PICTURE_BYTES = 1024 * 1024;
+    private static final int MAX_REDIRECTS = 3;
+    private static final int REFRESH_BATCH_SIZE = 50;
+
+    private static final String[] INITIALS_COLORS = {
+            "#2563eb", "#7c3aed", "#db2777", "#dc2626", "#ea580c",
+            "#ca8a04", "#16a34a", "#0d9488", "#0891b2", "#4f46e5"
+    };
+
+    private final UserRepository userRepository;
+    private final BlobStoreService blobStoreService;
+    private final ProfilePictureVariantService variantService;
+    private final PassportViewService passportViewService;
+    private final ScheduledJobLock jobLock;
+    private final TransactionTemplate transactionTemplate;
+    private final HttpClient httpClient;
+    private final Map<String, String> initialsCache;
+
+    @Value("${app.avatar.google-refresh-interval:P7D}")
+    private Duration refreshInterval;
+
+    public AvatarService(UserRepository userRepository,
+                         BlobStoreService blobStoreService,
+                         ProfilePictureVariantService variantService,
+                         PassportViewService passportViewService,
+                         ScheduledJobLock jobLock,
+                         PlatformTransactionManager transactionManager,
+                         @Value("${app.avatar.initials-cache-size:1024}") int initialsCacheSize) {
+        this.userRepository = userRepository;
+        this.blobStoreService = blobStoreService;
+        this.variantService = variantService;
+        this.passportViewService = passportViewService;
+        this.jobLock = jobLock;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                // Redirects are followed by fetchGooglePicture, which checks every target host
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        this.initialsCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > initialsCacheSize;
+            }
+        });
+    }
+
+    /**
+     * Render (or return the cached) initials avatar for a display name.
+     */
+    public String renderInitialsSvg(String displayName) {
+        String name = displayName != null ? displayName.strip() : "";
+        return initialsCache.computeIfAbsent(name, AvatarService::buildInitialsSvg);
+    }
+
+    /**
+     * Fetch Google pictures that are missing or older than the refresh interval, in small batches.
+     * Runs on one instance at a time.
+     */
+    @Scheduled(fixedDelayString = "${app.avatar.refresh-check-interval:PT5M}", initialDelayString = "PT1M")
+    public void refreshGooglePictures() {
+        jobLock.runExclusively("avatar-refresh", this::refreshDueGooglePictures);
+    }
+
+    void refreshDueGooglePictures() {
+        LocalDateTime before = LocalDateTime.now().minus(refreshInterval);
+        int refreshed = 0;
+        List<User> users;
+        try {
+            do {
+                users = userRepository.findGooglePicturesToRefresh(before, PageRequest.of(0, REFRESH_BATCH_SIZE));
+                for (User user : users) {
+                    refreshGooglePicture(user);
+                    refreshed++;
+                }
+            } while (users.size() == REFRESH_BATCH_SIZE);
+        } catch (InterruptedException e) {
+            // Shutting down: the remaining users are picked up by the next run
+            Thread.currentThread().interrupt();
+            log.info("Google picture refresh interrupted after {} pictures", refreshed);
+            return;
+        }
+        if (refreshed > 0) {
+            log.info("Refreshed {} Google profile pictures", refreshed);
+        }
+    }
+
+    private void refreshGooglePicture(User user) throws InterruptedException {
+        String previousHash = user.getGooglePictureHash();
+        String hash = previousHash;
+        try {
+            hash = fetchGooglePicture(user.getGooglePictureUrl());
+            if (hash != null && !variantService.hasVariants(hash)) {
+                variantService.generate(hash);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Keep the previous copy (if any); retried after the next refresh interval
+            log.warn("Failed to fetch Google picture for user {}: {}", user.getId(), e.getMessage());
+        }
+
+        String newHash = hash;
+        transactionTemplate.executeWithoutResult(status ->
+                userRepository.updateGooglePicture(user.getId(), newHash, LocalDateTime.now()));
+        // A replaced picture is left to BlobGarbageCollector
+        passportViewService.evictEverywhere(user);
+    }
+
+    /**
+     * Download a Google picture into the blob store, following redirects only to Google picture hosts.
+     *
+     * @return The blob key, or null if the URL is not a Google picture URL
+     */
+    private String fetchGooglePicture(String url) throws IOException, InterruptedException {
+        URI uri = URI.create(url);
+        if (!isGooglePictureUrl(uri)) {
+            log.debug("Not fetching picture from non-Google URL {}", url);
+            return null;
+        }
+
+        HttpResponse<InputStream> response;
+        for (int redirects = 0; ; redirects++) {
+            HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(10)).GET().build();
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            String location = response.headers().firstValue("Location").orElse(null);
+            if (!isRedirect(response.statusCode()) || location == null) {
+                break;
+            }
+            response.body().close();
+            if (redirects == MAX_REDIRECTS) {
+                throw new IOException("Too many redirects");
+            }
+            uri = uri.resolve(location);
+            if (!isGooglePictureUrl(uri)) {
+                throw new IOException("Redirected to non-Google URL " + uri);
+            }
+        }
+
+        Path temp = blobStoreService.createTempFile();
+        try (InputStream in = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new IOException("HTTP " + response.statusCode());
+            }
+            byte[] header = in.readNBytes(ImageFormat.HEADER_LENGTH);
+            if (ImageFormat.sniff(header).isEmpty()) {
+                throw new IOException("Not a supported image");
+            }
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(header);
+                long copied = header.length;
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    copied += read;
+                    if (copied > MAX_PICTURE_BYTES) {
+                        throw new IOException("Picture larger than " + MAX_PICTURE_BYTES + " bytes");
+                    }
+                    out.write(buffer, 0, read);
+                }
+            }
+            return blobStoreService.store(temp);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static boolean isGooglePictureUrl(URI uri) {
+        return "https".equals(uri.getScheme()) && uri.getHost() != null
+                && uri.getHost().endsWith(GOOGLE_PICTURE_HOST_SUFFIX);
+    }
+
+    private static boolean isRedirect(int statusCode) {
+        return statusCode == 301 || statusCode == 302 || statusCode == 303 || statusCode == 307 || statusCode == 308;
+    }
+
+    private static String buildInitialsSvg(String name) {
+        String initials = initialsOf(name);
+        String color = INITIALS_COLORS[Math.floorMod(Objects.hashCode(name), INITIALS_COLORS.length)];
+        return "<svg xmlns=\"http://www.w3.org/2000/svg\" viewBox=\"0 0 96 96\" width=\"96\" height=\"96\">"
+                + "<rect width=\"96\" height=\"96\" fill=\"" + color + "\"/>"
+                + "<text x=\"48\" y=\"48\" dy=\".35em\" text-anchor=\"middle\" fill=\"#ffffff\" "
+                + "font-family=\"Helvetica, Arial, sans-serif\" font-size=\"40\" font-weight=\"600\">"
+                + escape(initials) + "</text></svg>";
+    }
+
+    /**
+     * First letter of the first and last word, upper-cased ("Ada Lovelace" -> "AL").
+     */
+    private static String initialsOf(String name) {
+        String[] words = name.split("\\s+");
+        StringBuilder initials = new StringBuilder();
+        for (String word : new String[]{words[0], words.length > 1 ? words[words.length - 1] : ""}) {
+            if (!word.isEmpty()) {
+                initials.appendCodePoint(Character.toUpperCase(word.codePointAt(0)));
+            }
+        }
+        return initials.length() > 0 ? initials.toString() : "?";
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
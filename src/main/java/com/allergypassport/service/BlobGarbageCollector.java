@@ -0,0 +1,50 @@
+package com.allergypassport.service;
+
+import com.allergypassport.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Periodically deletes picture blobs that no user references any more (replaced or deleted profile
+ * pictures, re-fetched Google pictures).
+ * <p>
+ * Blobs are shared between users with identical pictures, so they are not deleted when a row stops
+ * referencing them but only here, after the grace period (see BlobStoreService#collectGarbage).
+ * Every instance may run it; they coordinate through the shared upload-dir.
+ */
+@Component
+public class BlobGarbageCollector {
+
+    private static final Logger log = LoggerFactory.getLogger(BlobGarbageCollector.class);
+
+    private final BlobStoreService blobStoreService;
+    private final UserRepository userRepository;
+    private final Duration gracePeriod;
+
+    public BlobGarbageCollector(BlobStoreService blobStoreService,
+                                UserRepository userRepository,
+                                @Value("${app.blob-gc.grace-period:PT1H}") Duration gracePeriod) {
+        this.blobStoreService = blobStoreService;
+        this.userRepository = userRepository;
+        this.gracePeriod = gracePeriod;
+    }
+
+    @Scheduled(fixedDelayString = "${app.blob-gc.interval:PT6H}", initialDelayString = "PT10M")
+    public void collect() {
+        try {
+            int deleted = blobStoreService.collectGarbage(gracePeriod,
+                    hash -> userRepository.existsByProfilePictureHashOrGooglePictureHash(hash, hash));
+            if (deleted > 0) {
+                log.info("Deleted {} unreferenced picture blobs", deleted);
+            }
+        } catch (IOException e) {
+            log.warn("Blob garbage collection failed: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.allergypassport.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed blob store on the local file system (under app.upload-dir).
+ * <p>
+ * Blobs are keyed by the hex SHA-256 of their content and stored as blobs/ab/cd/abcd...;
+ * identical uploads share one file and a key never changes its content, so keys double as ETags.
+ * Writes go to a temp file first and are moved into place atomically.
+ * <p>
+ * Derived files (e.g. resized variants) are stored next to their source under variants/,
+ * named by source key and suffix, and are deleted together with the source blob.
+ * <p>
+ * Because identical uploads share a file, a blob is never deleted when a row stops referencing it;
+ * an upload of the same content may be about to reference it again. Instead storing a blob touches
+ * its modification time, and {@link #collectGarbage} deletes blobs that are unreferenced and have
+ * not been stored for a grace period (see BlobGarbageCollector). All instances must therefore share
+ * the same upload-dir (e.g. a network volume), so that they see each other's blobs.
+ */
+@Service
+public class BlobStoreService {
+
+    private static final Logger log = LoggerFactory.getLogger(BlobStoreService.class);
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final Pattern SUFFIX_PATTERN = Pattern.compile("[0-9a-z]{1,16}");
+
+    @Value("${app.upload-dir:./uploads}")
+    private String uploadDir;
+
+    private Path blobDir;
+    private Path variantDir;
+    private Path tempDir;
+
+    @PostConstruct
+    void init() throws IOException {
+        Path root = Path.of(uploadDir).toAbsolutePath().normalize();
+        blobDir = Files.createDirectories(root.resolve("blobs"));
+        variantDir = Files.createDirectories(root.resolve("variants"));
+        tempDir = Files.createDirectories(root.resolve("tmp"));
+        log.info("Blob store at {}", blobDir);
+    }
+
+    /**
+     * Store the content of the stream and return its key.
+     * The stream is read to the end but not closed.
+     */
+    public String store(InputStream in) throws IOException {
+        Path temp = createTempFile();
+        try {
+            MessageDigest digest = newDigest();
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+                in.transferTo(out);
+            }
+            String key = HexFormat.of().formatHex(digest.digest());
+            moveIntoPlace(temp, key);
+            return key;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Store a byte array and return its key.
+     */
+    public String store(byte[] data) throws IOException {
+        String key = HexFormat.of().formatHex(newDigest().digest(data));
+        if (touch(key)) {
+            return key;
+        }
+        Path temp = createTempFile();
+        try {
+            Files.write(temp, data);
+            moveIntoPlace(temp, key);
+            return key;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Move a file (e.g. one created with createTempFile) into the store and return its key.
+     * The file is consumed: afterwards it no longer exists at its original path.
+     */
+    public String store(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        String key = HexFormat.of().formatHex(digest.digest());
+        try {
+            moveIntoPlace(file, key);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        return key;
+    }
+
+    /**
+     * Create an empty temp file on the same file system as the store, so storing it is a rename.
+     */
+    public Path createTempFile() throws IOException {
+        return Files.createTempFile(tempDir, "blob-", ".tmp");
+    }
+
+    /**
+     * Resolve the file of a stored blob, if present.
+     */
+    public Optional<Path> find(String key) {
+        if (key == null || !KEY_PATTERN.matcher(key).matches()) {
+            return Optional.empty();
+        }
+        Path path = pathOf(key);
+        return Files.isRegularFile(path) ? Optional.of(path) : Optional.empty();
+    }
+
+    /**
+     * Store a file derived from a blob under the given suffix, replacing any previous one.
+     * The file is consumed like in {@link #store(Path)}.
+     */
+    public void storeDerived(String key, String suffix, Path file) throws IOException {
+        Path target = derivedPathOf(key, suffix);
+        try {
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Resolve a file derived from a blob, if present.
+     */
+    public Optional<Path> findDerived(String key, String suffix) {
+        if (key == null || !KEY_PATTERN.matcher(key).matches() || !SUFFIX_PATTERN.matcher(suffix).matches()) {
+            return Optional.empty();
+        }
+        Path path = derivedPathOf(key, suffix);
+        return Files.isRegularFile(path) ? Optional.of(path) : Optional.empty();
+    }
+
+    /**
+     * Delete the blobs (and their derived files) that are not referenced and were last stored
+     * before the grace period.
+     * <p>
+     * A blob is first moved aside, then its modification time is checked again: if it was stored
+     * concurrently (touched before the move), it is moved back; a store after the move finds no
+     * file and writes the content anew.
+     *
+     * @param gracePeriod How long a stored blob is kept without references (covers uploads in progress)
+     * @param referenced  Whether a key is still referenced, e.g. by a users row
+     * @return The number of deleted blobs
+     */
+    public int collectGarbage(Duration gracePeriod, Predicate<String> referenced) throws IOException {
+        FileTime cutoff = FileTime.from(Instant.now().minus(gracePeriod));
+        int deleted = 0;
+        try (Stream<Path> files = Files.walk(blobDir)) {
+            Iterator<Path> iterator = files.iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                String key = path.getFileName().toString();
+                if (KEY_PATTERN.matcher(key).matches() && isOlderThan(path, cutoff) && !referenced.test(key)
+                        && deleteUnlessTouched(key, cutoff)) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private boolean deleteUnlessTouched(String key, FileTime cutoff) throws IOException {
+        Path path = pathOf(key);
+        Path aside = tempDir.resolve("gc-" + key + "-" + UUID.randomUUID());
+        try {
+            Files.move(path, aside, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return false;  // Collected by another instance
+        }
+        if (!isOlderThan(aside, cutoff)) {
+            // Stored again while we checked the references: put it back
+            try {
+                Files.move(aside, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // Already written anew by that store
+                Files.deleteIfExists(aside);
+            }
+            return false;
+        }
+        Files.delete(aside);
+        Path derivedDir = derivedPathOf(key, "x").getParent();
+        // Keep the variants if the content was written anew in the meantime
+        if (Files.isDirectory(derivedDir) && !Files.exists(path)) {
+            try (DirectoryStream<Path> derived = Files.newDirectoryStream(derivedDir, key + "_*")) {
+                for (Path file : derived) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        log.debug("Deleted unreferenced blob {}", key);
+        return true;
+    }
+
+    private static boolean isOlderThan(Path path, FileTime cutoff) throws IOException {
+        try {
+            return Files.isRegularFile(path) && Files.getLastModifiedTime(path).compareTo(cutoff) < 0;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Mark an existing blob as just stored; false if there is no such blob.
+     */
+    private boolean touch(String key) throws IOException {
+        try {
+            Files.setLastModifiedTime(pathOf(key), FileTime.from(Instant.now()));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private Path pathOf(String key) {
+        return blobDir.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    private Path derivedPathOf(String key, String suffix) {
+        return variantDir.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key + "_" + suffix);
+    }
+
+    private void moveIntoPlace(Path temp, String key) throws IOException {
+        if (touch(key)) {
+            return;  // Same content already stored
+        }
+        Path target = pathOf(key);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            try {
+                Files.move(temp, target);
+            } catch (FileAlreadyExistsException ignored) {
+                // Stored concurrently by another request
+            }
+        } catch (FileAlreadyExistsException ignored) {
+            // Stored concurrently by another request
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.allergypassport.service;
+
+import com.allergypassport.entity.User;
+import com.allergypassport.entity.UserAllergy;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Cross-instance invalidation of in-memory caches over PostgreSQL LISTEN/NOTIFY.
+ * <p>
+ * After a passport changes, the committing instance sends a compact (entity, key, revision) event with
+ * pg_notify. Every instance listens on a dedicated connection (outside the pool), coalesces bursts per
+ * passport and then drops the affected passport views and second-level cache entries in one batch.
+ * Events missed while the listener connection is down cannot be recovered, so after reconnecting all
+ * local caches are flushed.
+ * <p>
+ * Payload: {@code p:<node>:<userId>:<publicId>:<revision>} (revision in nanoseconds since the epoch, or - if unknown).
+ * Wallet cards and initials avatars are keyed by revision and name and never need invalidation.
+ */
+@Service
+public class CacheInvalidationBus {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheInvalidationBus.class);
+
+    static final String CHANNEL = "cache_invalidation";
+
+    private static final String ALLERGIES_ROLE = User.class.getName() + ".allergies";
+    private static final int MAX_BATCH = 500;
+    private static final long HEALTH_CHECK_MILLIS = 30_000;
+
+    /**
+     * A passport that changed on another instance.
+     *
+     * @param revision The passport revision after the change, or null if not bumped (e.g. avatar refresh)
+     */
+    public record PassportChange(long userId, String publicId, LocalDateTime revision) {
+    }
+
+    /**
+     * Published locally when other instances changed passports, or with flushAll if events may have been missed.
+     */
+    public record InvalidationEvent(List<PassportChange> changes, boolean flushAll) {
+    }
+
+    private final String nodeId = UUID.randomUUID().toString().substring(0, 8);
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate notifyTransaction;
+    private final DataSourceProperties dataSourceProperties;
+    private final ApplicationEventPublisher eventPublisher;
+    private final SessionFactory sessionFactory;
+
+    @Value("${app.cache-invalidation.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.cache-invalidation.coalesce-window:PT0.1S}")
+    private Duration coalesceWindow;
+
+    @Value("${app.cache-invalidation.reconnect-delay:PT5S}")
+    private Duration reconnectDelay;
+
+    private volatile boolean running;
+    private volatile Thread listenerThread;
+
+    public CacheInvalidationBus(JdbcTemplate jdbcTemplate,
+                                PlatformTransactionManager transactionManager,
+                                DataSourceProperties dataSourceProperties,
+                                ApplicationEventPublisher eventPublisher,
+                                EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.notifyTransaction = new TransactionTemplate(transactionManager);
+        this.notifyTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.dataSourceProperties = dataSourceProperties;
+        this.eventPublisher = eventPublisher;
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+    }
+
+    /**
+     * Tell the other instances that a passport changed. Call after the change has committed.
+     */
+    public void publish(long userId, String publicId, LocalDateTime revision) {
+        if (!enabled) {
+            return;
+        }
+        String payload = "p:" + nodeId + ":" + userId + ":" + publicId + ":" + encodeRevision(revision);
+        try {
+            // Own transaction: this runs from afterCommit callbacks, where the original one is finished
+            notifyTransaction.executeWithoutResult(status ->
+                    jdbcTemplate.queryForList("SELECT pg_notify(?, ?)", CHANNEL, payload));
+        } catch (RuntimeException e) {
+            log.warn("Failed to publish cache invalidation for {}: {}", publicId, e.getMessage());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(this::listen, "cache-invalidation-listener");
+        thread.setDaemon(true);
+        listenerThread = thread;
+        thread.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        Thread thread = listenerThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void listen() {
+        boolean connectedBefore = false;
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword())) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                if (connectedBefore) {
+                    // Notifications sent while disconnected are lost
+                    log.info("Cache invalidation listener reconnected, flushing local caches");
+                    dispatch(List.of(), true);
+                }
+                connectedBefore = true;
+                receive(connection);
+            } catch (SQLException e) {
+                if (!running) {
+                    break;
+                }
+                log.warn("Cache invalidation listener connection lost: {}", e.getMessage());
+                if (connectedBefore) {
+                    dispatch(List.of(), true);
+                }
+                try {
+                    Thread.sleep(reconnectDelay.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Receive notifications until the connection fails, dispatching a batch once no new event arrived
+     * within the coalesce window (or the batch is full).
+     */
+    private void receive(Connection connection) throws SQLException {
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        Map<String, PassportChange> pending = new LinkedHashMap<>();
+        long lastCheck = System.currentTimeMillis();
+        int windowMillis = (int) Math.max(1, coalesceWindow.toMillis());
+
+        while (running) {
+            PGNotification[] notifications = pgConnection.getNotifications(pending.isEmpty() ? 1000 : windowMillis);
+            if (notifications != null && notifications.length > 0) {
+                for (PGNotification notification : notifications) {
+                    PassportChange change = parse(notification.getParameter());
+                    if (change != null) {
+                        pending.merge(change.publicId(), change, CacheInvalidationBus::newer);
+                    }
+                }
+                if (pending.size() < MAX_BATCH) {
+                    continue;
+                }
+            }
+            if (!pending.isEmpty()) {
+                dispatch(new ArrayList<>(pending.values()), false);
+                pending.clear();
+            }
+            if (System.currentTimeMillis() - lastCheck > HEALTH_CHECK_MILLIS) {
+                // A dead socket does not always fail the notification poll
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SELECT 1");
+                }
+                lastCheck = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private void dispatch(List<PassportChange> changes, boolean flushAll) {
+        try {
+            Cache cache = sessionFactory.getCache();
+            if (flushAll) {
+                cache.evictAllRegions();
+            } else {
+                for (PassportChange change : changes) {
+                    cache.evictEntityData(User.class, change.userId());
+                    cache.evictCollectionData(ALLERGIES_ROLE, change.userId());
+                }
+                // Allergy entries and cached query results are not keyed by user
+                cache.evictEntityData(UserAllergy.class);
+                cache.evictDefaultQueryRegion();
+            }
+            eventPublisher.publishEvent(new InvalidationEvent(changes, flushAll));
+            log.debug("Applied {} remote cache invalidations (flush all: {})", changes.size(), flushAll);
+        } catch (RuntimeException e) {
+            log.error("Failed to apply cache invalidations", e);
+        }
+    }
+
+    /**
+     * Parse a payload; returns null for own events and malformed payloads.
+     */
+    private PassportChange parse(String payload) {
+        String[] parts = payload.split(":");
+        if (parts.length != 5 || !"p".equals(parts[0]) || nodeId.equals(parts[1])) {
+            return null;
+        }
+        try {
+            return new PassportChange(Long.parseLong(parts[2]), parts[3], decodeRevision(parts[4]));
+        } catch (RuntimeException e) {
+            log.debug("Ignoring malformed cache invalidation payload {}", payload);
+            return null;
+        }
+    }
+
+    private static PassportChange newer(PassportChange a, PassportChange b) {
+        if (a.revision() == null || b.revision() == null) {
+            // Unknown revision: always evict
+            return new PassportChange(b.userId(), b.publicId(), null);
+        }
+        return b.revision().isAfter(a.revision()) ? b : a;
+    }
+
+    private static String encodeRevision(LocalDateTime revision) {
+        if (revision == null) {
+            return "-";
+        }
+        return Long.toString(revision.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + revision.getNano());
+    }
+
+    private static LocalDateTime decodeRevision(String encoded) {
+        if ("-".equals(encoded)) {
+            return null;
+        }
+        long nanos = Long.parseLong(encoded);
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L),
+                (int) Math.floorMod(nanos, 1_000_000_000L), ZoneOffset.UTC);
+    }
+}
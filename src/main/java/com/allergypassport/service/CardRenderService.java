@@ -0,0 +1,313 @@
+package com.allergypassport.service;
+
+import com.allergypassport.dto.PassportView;
+import com.allergypassport.entity.AllergySeverity;
+import com.allergypassport.entity.AllergyType;
+import com.allergypassport.util.QRCodeService;
+import com.google.zxing.WriterException;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.MessageSource;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Renders printable wallet cards (SVG): the passport QR code next to the allergy list
+ * in several languages.
+ * <p>
+ * Each language panel needs one MessageSource lookup per allergy plus a translation per note,
+ * which may block on the translation API, so panels are rendered in parallel on a small bounded
+ * pool (the calling thread renders the first panel, and any panel the full queue rejects) and
+ * then stacked. Finished cards are cached per (publicId, language list, revision); the revision
+ * is the user's update timestamp, which changes with every profile or allergy change. Bulk
+ * exports bypass the cache so they do not evict the cards of interactive users.
+ */
+@Service
+public class CardRenderService {
+
+    private static final Logger log = LoggerFactory.getLogger(CardRenderService.class);
+
+    private static final int CARD_WIDTH = 1000;
+    private static final int PADDING = 32;
+    private static final int QR_SIZE = 240;
+    private static final int HEADER_HEIGHT = QR_SIZE + 2 * PADDING;
+    private static final int PANEL_TITLE_HEIGHT = 48;
+    private static final int ROW_HEIGHT = 40;
+    private static final int NOTE_LINE_HEIGHT = 24;
+    private static final int NOTE_LINE_LENGTH = 80;
+    private static final int MAX_NOTE_LINES = 2;
+    private static final int PANEL_GAP = 16;
+
+    /**
+     * Allergy entry as shown on a card.
+     */
+    public record CardAllergy(AllergyType type, AllergySeverity severity, String notes) {
+    }
+
+    /**
+     * Everything a card shows, independent of JPA entities (so bulk exports can build it from projections).
+     */
+    public record CardContent(String publicId, String displayName, LocalDateTime revision,
+                              String qrContent, List<CardAllergy> allergies) {
+    }
+
+    private record Panel(String svg, int height) {
+    }
+
+    private final MessageSource messageSource;
+    private final TranslationService translationService;
+    private final QRCodeService qrCodeService;
+    private final ThreadPoolExecutor panelExecutor;
+    private final Map<String, String> cache;
+
+    public CardRenderService(MessageSource messageSource,
+                             TranslationService translationService,
+                             QRCodeService qrCodeService,
+                             @Value("${app.card.cache-size:256}") int cacheSize,
+                             @Value("${app.card.render.threads:4}") int threads,
+                             @Value("${app.card.render.queue-capacity:64}") int queueCapacity) {
+        this.messageSource = messageSource;
+        this.translationService = translationService;
+        this.qrCodeService = qrCodeService;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.panelExecutor = new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "card-panel-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * Build card content from a passport view.
+     */
+    public CardContent contentOf(PassportView passport) {
+        List<CardAllergy> allergies = passport.allergies().stream()
+                .map(allergy -> new CardAllergy(allergy.allergyType(), allergy.severity(), allergy.notes()))
+                .toList();
+        return new CardContent(passport.publicId(), passport.displayName(), passport.revision(),
+                qrCodeService.buildQRCodeContent(passport), allergies);
+    }
+
+    /**
+     * Render a card for the given content and languages (served from cache when unchanged).
+     *
+     * @param content   What to show on the card
+     * @param languages Languages to include, one panel each, in the given order (English if empty)
+     * @return SVG markup
+     */
+    public String renderCard(CardContent content, List<Locale> languages) throws WriterException {
+        if (languages.isEmpty()) {
+            languages = List.of(Locale.ENGLISH);
+        }
+        String key = content.publicId() + "|"
+                + languages.stream().map(Locale::toLanguageTag).collect(Collectors.joining(",")) + "|"
+                + content.revision();
+        String cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        String svg = render(content, languages);
+        cache.put(key, svg);
+        return svg;
+    }
+
+    /**
+     * Render a card without consulting or filling the cache (for bulk exports, whose cards are
+     * unlikely to be requested again soon).
+     *
+     * @param content   What to show on the card
+     * @param languages Languages to include, one panel each, in the given order (English if empty)
+     * @return SVG markup
+     */
+    public String renderCardUncached(CardContent content, List<Locale> languages) throws WriterException {
+        return render(content, languages.isEmpty() ? List.of(Locale.ENGLISH) : languages);
+    }
+
+    private String render(CardContent content, List<Locale> languages) throws WriterException {
+        List<Future<Panel>> others = new ArrayList<>(languages.size() - 1);
+        try {
+            for (Locale locale : languages.subList(1, languages.size())) {
+                others.add(panelExecutor.submit(() -> renderPanel(content.allergies(), locale)));
+            }
+            List<Panel> panels = new ArrayList<>(languages.size());
+            panels.add(renderPanel(content.allergies(), languages.get(0)));
+            for (Future<Panel> panel : others) {
+                panels.add(panel.get());
+            }
+
+            String svg = assemble(content, panels);
+            log.debug("Rendered card for {} in {} languages ({} bytes)", content.publicId(), languages.size(), svg.length());
+            return svg;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while rendering card for " + content.publicId(), e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not render card for " + content.publicId(), e.getCause());
+        } finally {
+            // No-op for finished panels; stops the rest after a failure
+            others.forEach(panel -> panel.cancel(true));
+        }
+    }
+
+    private String assemble(CardContent content, List<Panel> panels) throws WriterException {
+        int height = HEADER_HEIGHT;
+        for (Panel panel : panels) {
+            height += panel.height() + PANEL_GAP;
+        }
+        height += PADDING;
+
+        StringBuilder svg = new StringBuilder(4096);
+        svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(CARD_WIDTH)
+                .append("\" height=\"").append(height)
+                .append("\" viewBox=\"0 0 ").append(CARD_WIDTH).append(' ').append(height)
+                .append("\" font-family=\"sans-serif\">")
+                .append("<rect width=\"100%\" height=\"100%\" rx=\"24\" fill=\"#FAF7F2\"/>");
+
+        // Header: QR code on the left, name and link on the right
+        svg.append("<g transform=\"translate(").append(PADDING).append(',').append(PADDING).append(")\">")
+                .append(qrCodeService.renderQRCodeSvg(content.qrContent(), QR_SIZE))
+                .append("</g>");
+        int textX = PADDING * 2 + QR_SIZE;
+        svg.append("<text x=\"").append(textX).append("\" y=\"").append(PADDING + 40)
+                .append("\" font-size=\"20\" fill=\"#C2410C\">🛡️ Allergy Passport</text>");
+        svg.append("<text x=\"").append(textX).append("\" y=\"").append(PADDING + 90)
+                .append("\" font-size=\"36\" font-weight=\"bold\" fill=\"#1F2937\">")
+                .append(escape(content.displayName())).append("</text>");
+        svg.append("<text x=\"").append(textX).append("\" y=\"").append(PADDING + 130)
+                .append("\" font-size=\"18\" fill=\"#6B7280\">")
+                .append(escape(qrCodeService.buildPublicUrl(content.publicId()))).append("</text>");
+
+        int y = HEADER_HEIGHT;
+        for (Panel panel : panels) {
+            svg.append("<g transform=\"translate(").append(PADDING).append(',').append(y).append(")\">")
+                    .append(panel.svg()).append("</g>");
+            y += panel.height() + PANEL_GAP;
+        }
+        return svg.append("</svg>").toString();
+    }
+
+    /**
+     * Render one language panel (MessageSource lookups and note translations for that language).
+     */
+    private Panel renderPanel(List<CardAllergy> allergies, Locale locale) {
+        int panelWidth = CARD_WIDTH - 2 * PADDING;
+        StringBuilder body = new StringBuilder(1024);
+        int y = PANEL_TITLE_HEIGHT;
+
+        body.append("<text x=\"16\" y=\"32\" font-size=\"20\" font-weight=\"bold\" fill=\"#1F2937\">")
+                .append(escape(locale.getDisplayLanguage(locale))).append(" · ")
+                .append(escape(message("passport.allergies", locale))).append("</text>");
+
+        if (allergies.isEmpty()) {
+            body.append("<text x=\"16\" y=\"").append(y + 26).append("\" font-size=\"18\" fill=\"#6B7280\">")
+                    .append(escape(message("passport.no.allergies", locale))).append("</text>");
+            y += ROW_HEIGHT;
+        }
+
+        for (CardAllergy allergy : allergies) {
+            boolean severe = allergy.severity() == AllergySeverity.SEVERE;
+            String color = severe ? "#991B1B" : "#B45309";
+            String severityLabel = message(severe ? "passport.warning.severe" : "passport.warning.intolerance", locale);
+
+            body.append("<text x=\"16\" y=\"").append(y + 28).append("\" font-size=\"22\" fill=\"").append(color).append("\">")
+                    .append(allergy.type().getEmoji()).append(' ')
+                    .append("<tspan font-weight=\"bold\">").append(escape(message(allergy.type().getMessageKey(), locale)))
+                    .append("</tspan> <tspan font-size=\"16\">").append(escape(severityLabel)).append("</tspan></text>");
+            y += ROW_HEIGHT;
+
+            if (allergy.notes() != null && !allergy.notes().isBlank()) {
+                String note = translationService.translate(allergy.notes(), null, locale);
+                for (String line : wrap(note)) {
+                    body.append("<text x=\"48\" y=\"").append(y + 16).append("\" font-size=\"16\" fill=\"#374151\">")
+                            .append(escape(line)).append("</text>");
+                    y += NOTE_LINE_HEIGHT;
+                }
+            }
+        }
+
+        int height = y + 12;
+        String frame = "<rect width=\"" + panelWidth + "\" height=\"" + height
+                + "\" rx=\"12\" fill=\"#FFFFFF\" stroke=\"#E8DCC8\"/>";
+        return new Panel(frame + body, height);
+    }
+
+    private String message(String key, Locale locale) {
+        return messageSource.getMessage(key, null, key, locale);
+    }
+
+    private static List<String> wrap(String text) {
+        List<String> lines = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        for (String word : text.trim().split("\\s+")) {
+            if (line.length() > 0 && line.length() + word.length() + 1 > NOTE_LINE_LENGTH) {
+                lines.add(line.toString());
+                line.setLength(0);
+                if (lines.size() == MAX_NOTE_LINES) {
+                    lines.set(MAX_NOTE_LINES - 1, lines.get(MAX_NOTE_LINES - 1) + " …");
+                    return lines;
+                }
+            }
+            if (line.length() > 0) {
+                line.append(' ');
+            }
+            line.append(word);
+        }
+        if (line.length() > 0) {
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    private static String escape(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (char c : text.toCharArray()) {
+            switch (c) {
+                case '&' -> escaped.append("&amp;");
+                case '<' -> escaped.append("&lt;");
+                case '>' -> escaped.append("&gt;");
+                case '"' -> escaped.append("&quot;");
+                case '\'' -> escaped.append("&apos;");
+                default -> escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        panelExecutor.shutdownNow();
+    }
+}
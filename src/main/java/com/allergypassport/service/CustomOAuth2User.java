@@ -23,11 +23,19 @@ import java.util.stream.Collectors;
  * and OpenID Connect (OIDC) flows. It stores only primitive/immutable data (not JPA entities)
  * to enable proper serialization in HTTP sessions. Controllers fetch fresh User entities
  * from the database using the stored user ID.
+ *
+ * Sessions only keep the IDs and authorities (see SessionAttributeSerializer), so a principal
+ * restored from the session store has no email, display name, attributes or OIDC tokens.
  */
 public class CustomOAuth2User implements OAuth2User, OidcUser, Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Authority of administrators (see UserService.isAdmin), checked with hasRole("ADMIN").
+     */
+    public static final String ROLE_ADMIN = "ROLE_ADMIN";
+
     // Store primitives and immutable objects, not JPA entities
     private final Long userId;
     private final String publicId;
@@ -44,6 +52,13 @@ public class CustomOAuth2User implements OAuth2User, OidcUser, Serializable {
     private final OidcUserInfo userInfo;
 
     public CustomOAuth2User(OAuth2User oauth2User, User user) {
+        this(oauth2User, user, false);
+    }
+
+    /**
+     * Principal for a login; administrators additionally get ROLE_ADMIN.
+     */
+    public CustomOAuth2User(OAuth2User oauth2User, User user, boolean admin) {
         // Extract primitive values from User entity
         this.userId = user.getId();
         this.publicId = user.getPublicId();
@@ -67,6 +82,9 @@ public class CustomOAuth2User implements OAuth2User, OidcUser, Serializable {
         this.authorities = oauth2User.getAuthorities().stream()
                 .map(auth -> new SimpleGrantedAuthority(auth.getAuthority()))
                 .collect(Collectors.toCollection(ArrayList::new));
+        if (admin) {
+            this.authorities.add(new SimpleGrantedAuthority(ROLE_ADMIN));
+        }
 
         // Handle OIDC-specific data if the user is an OidcUser
         if (oauth2User instanceof OidcUser) {
@@ -81,6 +99,25 @@ public class CustomOAuth2User implements OAuth2User, OidcUser, Serializable {
         }
     }
 
+    /**
+     * Principal restored from its compact session form. The OAuth2 name is the Google ID,
+     * which is what Google's user-name attribute ("sub") holds.
+     */
+    public CustomOAuth2User(Long userId, String publicId, String googleId,
+                            Collection<? extends GrantedAuthority> authorities) {
+        this.userId = userId;
+        this.publicId = publicId;
+        this.email = null;
+        this.displayName = null;
+        this.googleId = googleId;
+        this.oauthName = googleId;
+        this.attributes = new HashMap<>();
+        this.authorities = new ArrayList<>(authorities);
+        this.idToken = null;
+        this.userInfo = null;
+        this.claims = this.attributes;
+    }
+
     @Override
     public Map<String, Object> getAttributes() {
         return attributes;
@@ -131,6 +168,13 @@ public class CustomOAuth2User implements OAuth2User, OidcUser, Serializable {
         return googleId;
     }
 
+    /**
+     * Check whether the user logged in as an administrator.
+     */
+    public boolean isAdmin() {
+        return authorities.stream().anyMatch(authority -> ROLE_ADMIN.equals(authority.getAuthority()));
+    }
+
     // OidcUser interface methods
 
     @Override
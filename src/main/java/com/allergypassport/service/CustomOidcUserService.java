@@ -1,7 +1,6 @@
 package com.allergypassport.service;
 
 import com.allergypassport.entity.User;
-import com.allergypassport.repository.UserRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.oauth2.client.oidc.userinfo.OidcUserRequest;
@@ -9,7 +8,6 @@ import org.springframework.security.oauth2.client.oidc.userinfo.OidcUserService;
 import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
 import org.springframework.security.oauth2.core.oidc.user.OidcUser;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Map;
 
@@ -22,14 +20,13 @@ public class CustomOidcUserService extends OidcUserService {
 
     private static final Logger log = LoggerFactory.getLogger(CustomOidcUserService.class);
 
-    private final UserRepository userRepository;
+    private final UserService userService;
 
-    public CustomOidcUserService(UserRepository userRepository) {
-        this.userRepository = userRepository;
+    public CustomOidcUserService(UserService userService) {
+        this.userService = userService;
     }
 
     @Override
-    @Transactional
     public OidcUser loadUser(OidcUserRequest userRequest) throws OAuth2AuthenticationException {
         log.info("=== OIDC loadUser called ===");
 
@@ -46,55 +43,17 @@ public class CustomOidcUserService extends OidcUserService {
 
         log.info("Processing OIDC login for user: {} (googleId: {})", email, googleId);
 
-        // Find existing user or create new one
-        User user = userRepository.findByGoogleId(googleId)
-                .map(existingUser -> {
-                    log.debug("Updating existing user: {}", existingUser.getId());
-                    return updateExistingUser(existingUser, email, name, pictureUrl);
-                })
-                .orElseGet(() -> {
-                    log.info("Creating new user for: {}", email);
-                    return createNewUser(googleId, email, name, pictureUrl);
-                });
+        // Only writes when the Google profile changed; not transactional itself, so no database
+        // connection is held while the provider is called above
+        User user = userService.syncGoogleAccount(googleId, email, name, pictureUrl);
 
         log.info("User authenticated successfully: {} (ID: {}, PublicID: {})", user.getEmail(), user.getId(), user.getPublicId());
 
-        CustomOAuth2User customUser = new CustomOAuth2User(oidcUser, user);
+        CustomOAuth2User customUser = new CustomOAuth2User(oidcUser, user, userService.isAdmin(user));
         log.debug("Created CustomOAuth2User - userId: {}, email: {}, googleId: {}",
                 customUser.getUserId(), customUser.getEmail(), customUser.getGoogleId());
         log.debug("CustomOAuth2User is OidcUser: {}", customUser instanceof OidcUser);
-        log.debug("CustomOAuth2User is Serializable: {}", customUser instanceof java.io.Serializable);
-
-        // Test serialization
-        try {
-            java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-            java.io.ObjectOutputStream oos = new java.io.ObjectOutputStream(baos);
-            oos.writeObject(customUser);
-            oos.close();
-            log.info("✓ CustomOAuth2User successfully serialized ({} bytes)", baos.size());
-        } catch (Exception e) {
-            log.error("✗ CustomOAuth2User serialization FAILED: {}", e.getMessage(), e);
-        }
 
         return customUser;
     }
-
-    private User updateExistingUser(User user, String email, String name, String pictureUrl) {
-        // Update email and name in case they changed on Google side
-        user.setEmail(email);
-        if (user.getDisplayName() == null || user.getDisplayName().isBlank()) {
-            user.setDisplayName(name);
-        }
-        user.setGooglePictureUrl(pictureUrl);
-        return userRepository.save(user);
-    }
-
-    private User createNewUser(String googleId, String email, String name, String pictureUrl) {
-        log.info("Creating new user for Google ID: {}", googleId);
-
-        User user = new User(googleId, email, name);
-        user.setGooglePictureUrl(pictureUrl);
-
-        return userRepository.save(user);
-    }
 }
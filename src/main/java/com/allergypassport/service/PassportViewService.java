@@ -0,0 +1,136 @@
+package com.allergypassport.service;
+
+import com.allergypassport.config.DataSourceRouting;
+import com.allergypassport.dto.PassportRow;
+import com.allergypassport.dto.PassportView;
+import com.allergypassport.entity.User;
+import com.allergypassport.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cached PassportView read models, keyed by public ID.
+ * <p>
+ * Views are loaded with a single projection query and kept in an LRU cache until a mutation evicts them
+ * (UserService evicts after its transaction commits). A load that overlaps with any eviction is returned
+ * but not cached, so a view read before a commit can never be cached after that commit's eviction.
+ * Evictions are also broadcast to the other instances through CacheInvalidationBus.
+ */
+@Service
+public class PassportViewService {
+
+    private final UserRepository userRepository;
+    private final CacheInvalidationBus invalidationBus;
+    private final PublicIdFilter publicIdFilter;
+    private final Map<String, PassportView> cache;
+
+    // Incremented on every eviction; loads only cache their result if it did not change meanwhile
+    private final AtomicLong evictions = new AtomicLong();
+
+    public PassportViewService(UserRepository userRepository,
+                               CacheInvalidationBus invalidationBus,
+                               PublicIdFilter publicIdFilter,
+                               @Value("${app.passport.cache-size:10000}") int cacheSize) {
+        this.userRepository = userRepository;
+        this.invalidationBus = invalidationBus;
+        this.publicIdFilter = publicIdFilter;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PassportView> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * Find the passport view for a public ID (served from cache when unchanged,
+     * unknown IDs are rejected by PublicIdFilter without a query).
+     */
+    public Optional<PassportView> find(String publicId) {
+        PassportView cached = cache.get(publicId);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        if (!publicIdFilter.mightExist(publicId)) {
+            return Optional.empty();
+        }
+
+        long evictionsBefore = evictions.get();
+        // Cached views are shared and served until the next change, so never build them from a lagging
+        // read replica: a stale view would outlive the lag. Only cache misses reach the database at all.
+        List<PassportRow> rows = DataSourceRouting.onPrimary(() -> userRepository.findPassportRows(publicId));
+        if (rows.isEmpty()) {
+            return Optional.empty();
+        }
+        PassportView view = PassportView.of(rows);
+        if (evictions.get() == evictionsBefore) {
+            cache.put(publicId, view);
+        }
+        return Optional.of(view);
+    }
+
+    /**
+     * Drop the cached view of a passport now.
+     */
+    public void evict(String publicId) {
+        evictions.incrementAndGet();
+        cache.remove(publicId);
+    }
+
+    /**
+     * Drop the cached view of a passport on all instances now, for changes made outside a transaction.
+     */
+    public void evictEverywhere(User user) {
+        evict(user.getPublicId());
+        invalidationBus.publish(user.getId(), user.getPublicId(), null);
+    }
+
+    /**
+     * Drop the cached view of a user's passport on all instances once the current transaction has committed
+     * (right away if there is no transaction).
+     */
+    public void evictAfterCommit(User user) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evictEverywhere(user);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                evict(user.getPublicId());
+                // The revision has been flushed by now
+                invalidationBus.publish(user.getId(), user.getPublicId(), user.getUpdatedAt());
+            }
+        });
+    }
+
+    /**
+     * Apply passport changes made on other instances.
+     */
+    @EventListener
+    public void onInvalidation(CacheInvalidationBus.InvalidationEvent event) {
+        if (event.flushAll()) {
+            evictions.incrementAndGet();
+            cache.clear();
+            return;
+        }
+        for (CacheInvalidationBus.PassportChange change : event.changes()) {
+            PassportView cached = cache.get(change.publicId());
+            // Keep views that were already loaded at the changed revision; otherwise evict, which also
+            // stops loads started before the remote commit from caching their result
+            if (cached == null || change.revision() == null || !change.revision().equals(cached.revision())) {
+                evict(change.publicId());
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.allergypassport.service;
+
+import com.allergypassport.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Background migration of profile pictures from the users table (profile_picture LOB) into the blob store,
+ * followed by a backfill of resized variants for stored pictures that have none yet.
+ * <p>
+ * Starts after the application is ready and works in small batches, one transaction each,
+ * so a large backlog never holds many pictures in memory or locks many rows. It is idempotent:
+ * a picture moved twice (e.g. by two instances) ends up as the same content-addressed blob.
+ */
+@Component
+public class ProfilePictureMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(ProfilePictureMigration.class);
+
+    private final UserRepository userRepository;
+    private final BlobStoreService blobStoreService;
+    private final ProfilePictureVariantService variantService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${app.profile-picture.migration.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.profile-picture.migration.batch-size:20}")
+    private int batchSize;
+
+    @Value("${app.profile-picture.variants.backfill:true}")
+    private boolean backfillVariants;
+
+    public ProfilePictureMigration(UserRepository userRepository,
+                                   BlobStoreService blobStoreService,
+                                   ProfilePictureVariantService variantService,
+                                   PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.blobStoreService = blobStoreService;
+        this.variantService = variantService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled && !backfillVariants) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            if (enabled) {
+                migrate();
+            }
+            if (backfillVariants) {
+                backfillVariants();
+            }
+        }, "profile-picture-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Move all remaining legacy pictures, batch by batch.
+     *
+     * @return Number of migrated pictures
+     */
+    public int migrate() {
+        int migrated = 0;
+        try {
+            while (true) {
+                Integer count = transactionTemplate.execute(status -> migrateBatch());
+                if (count == null || count == 0) {
+                    break;
+                }
+                migrated += count;
+            }
+            if (migrated > 0) {
+                log.info("Moved {} profile pictures to the blob store", migrated);
+            }
+        } catch (RuntimeException e) {
+            log.error("Profile picture migration stopped after {} pictures", migrated, e);
+        }
+        return migrated;
+    }
+
+    /**
+     * Generate variants for every stored picture that is missing some, walking the distinct hashes in order.
+     *
+     * @return Number of pictures processed
+     */
+    public int backfillVariants() {
+        int generated = 0;
+        String after = "";
+        try {
+            List<String> hashes;
+            do {
+                hashes = userRepository.findProfilePictureHashesAfter(after, PageRequest.of(0, batchSize));
+                for (String hash : hashes) {
+                    if (!variantService.hasVariants(hash) && blobStoreService.find(hash).isPresent()
+                            && variantService.generate(hash)) {
+                        generated++;
+                    }
+                }
+                if (!hashes.isEmpty()) {
+                    after = hashes.get(hashes.size() - 1);
+                }
+            } while (hashes.size() == batchSize);
+            if (generated > 0) {
+                log.info("Generated variants for {} profile pictures", generated);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Profile picture variant backfill stopped after {} pictures", generated, e);
+        }
+        return generated;
+    }
+
+    private int migrateBatch() {
+        List<Long> ids = userRepository.findIdsWithLegacyProfilePicture(PageRequest.of(0, batchSize));
+        for (Long id : ids) {
+            migrate(id);
+        }
+        return ids.size();
+    }
+
+    private void migrate(Long userId) {
+        byte[] data = userRepository.findLegacyProfilePicture(userId);
+        try {
+            // A content type without bytes becomes the empty blob, which the endpoint serves as 404
+            String hash = blobStoreService.store(data != null ? data : new byte[0]);
+            userRepository.moveProfilePictureToBlob(userId, hash);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store profile picture of user " + userId, e);
+        }
+    }
+}
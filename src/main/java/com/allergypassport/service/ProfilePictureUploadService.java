@@ -0,0 +1,200 @@
+package com.allergypassport.service;
+
+import com.allergypassport.dto.PictureUploadRow;
+import com.allergypassport.entity.PictureUploadState;
+import com.allergypassport.util.ImageFormat;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Accepts profile picture uploads with bounded memory and processes them in the background.
+ * <p>
+ * The request thread only copies the upload to a temp file (in chunks, through a size-limited channel)
+ * and validates the format from its magic bytes. Storing the picture, generating its resized variants
+ * and updating the user happen on a small bounded processing queue; the dashboard polls
+ * {@link #pollStatus(Long)} until the upload is done.
+ * The state is kept on the user row, so the poll may reach any instance.
+ */
+@Service
+public class ProfilePictureUploadService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProfilePictureUploadService.class);
+
+    private static final long CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * State of a user's latest upload as seen by the polling fragment.
+     */
+    public record UploadStatus(PictureUploadState state, String error) {
+    }
+
+    private final UserService userService;
+    private final BlobStoreService blobStoreService;
+    private final ProfilePictureVariantService variantService;
+    private final long maxBytes;
+    private final Duration statusTtl;
+    private final ThreadPoolExecutor executor;
+
+    public ProfilePictureUploadService(UserService userService,
+                                       BlobStoreService blobStoreService,
+                                       ProfilePictureVariantService variantService,
+                                       @Value("${app.profile-picture.max-size:5MB}") DataSize maxSize,
+                                       @Value("${app.profile-picture.processing.threads:2}") int threads,
+                                       @Value("${app.profile-picture.processing.queue-capacity:32}") int queueCapacity,
+                                       @Value("${app.profile-picture.processing.status-ttl:PT10M}") Duration statusTtl) {
+        this.userService = userService;
+        this.blobStoreService = blobStoreService;
+        this.variantService = variantService;
+        this.maxBytes = maxSize.toBytes();
+        this.statusTtl = statusTtl;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "picture-upload-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Validate an upload, spool it to disk and queue it for processing.
+     *
+     * @throws IllegalArgumentException if the file is empty, too large or not a supported image
+     * @throws IllegalStateException    if the processing queue is full
+     */
+    public void accept(Long userId, MultipartFile file) throws IOException {
+        if (file.isEmpty()) {
+            throw new IllegalArgumentException("File is empty");
+        }
+
+        Path temp = blobStoreService.createTempFile();
+        try {
+            ImageFormat format;
+            try (InputStream in = file.getInputStream()) {
+                format = spool(in, temp);
+            }
+            userService.updatePictureUpload(userId, PictureUploadState.PENDING);
+            executor.execute(() -> process(userId, temp, format));
+        } catch (RejectedExecutionException e) {
+            userService.updatePictureUpload(userId, null);
+            Files.deleteIfExists(temp);
+            throw new IllegalStateException("Too many uploads in progress, please try again shortly");
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Status of the user's latest upload, or null if there is none.
+     * Finished (completed or failed) statuses are reported once and then cleared. Statuses older than
+     * the status TTL are dropped unreported; an expired pending upload (e.g. lost in a restart) is
+     * reported as failed.
+     */
+    public UploadStatus pollStatus(Long userId) {
+        PictureUploadRow upload = userService.findPictureUpload(userId).orElse(null);
+        if (upload == null) {
+            return null;
+        }
+        boolean expired = upload.since().isBefore(LocalDateTime.now().minus(statusTtl));
+        if (upload.state() == PictureUploadState.PENDING && !expired) {
+            return new UploadStatus(PictureUploadState.PENDING, null);
+        }
+
+        userService.clearPictureUpload(userId, upload.since());
+        if (expired) {
+            return upload.state() == PictureUploadState.PENDING
+                    ? new UploadStatus(PictureUploadState.FAILED, "Processing was interrupted")
+                    : null;
+        }
+        return upload.state() == PictureUploadState.FAILED
+                ? new UploadStatus(PictureUploadState.FAILED, "Failed to process picture")
+                : new UploadStatus(PictureUploadState.COMPLETED, null);
+    }
+
+    /**
+     * Copy the upload to the temp file in chunks, failing as soon as it exceeds the size limit.
+     * The format is checked on the first bytes before anything else is copied.
+     */
+    private ImageFormat spool(InputStream in, Path temp) throws IOException {
+        byte[] header = in.readNBytes(ImageFormat.HEADER_LENGTH);
+        ImageFormat format = ImageFormat.sniff(header)
+                .orElseThrow(() -> new IllegalArgumentException("File must be a JPEG, PNG, GIF or WebP image"));
+
+        try (ReadableByteChannel source = Channels.newChannel(in);
+             FileChannel target = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            target.write(ByteBuffer.wrap(header));
+            long position = header.length;
+            long transferred;
+            while ((transferred = target.transferFrom(source, position, CHUNK_SIZE)) > 0) {
+                position += transferred;
+                if (position > maxBytes) {
+                    throw new IllegalArgumentException("File is larger than " + DataSize.ofBytes(maxBytes).toMegabytes() + " MB");
+                }
+            }
+        }
+        return format;
+    }
+
+    private void process(Long userId, Path temp, ImageFormat format) {
+        try {
+            String hash = blobStoreService.store(temp);
+            generateVariants(hash);
+            // Also marks the upload as completed
+            userService.updateProfilePicture(userId, hash, format.getContentType());
+        } catch (Exception e) {
+            log.error("Failed to process profile picture for user {}", userId, e);
+            try {
+                userService.updatePictureUpload(userId, PictureUploadState.FAILED);
+            } catch (RuntimeException stateError) {
+                // Reported as failed once the pending state expires
+                log.warn("Could not record failed upload for user {}: {}", userId, stateError.getMessage());
+            }
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Left for the next cleanup of the temp directory
+            }
+        }
+    }
+
+    private void generateVariants(String hash) {
+        try {
+            variantService.generate(hash);
+        } catch (Exception e) {
+            // The original is still served; the backfill retries on the next start
+            log.warn("Failed to generate variants for picture {}", hash, e);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+}
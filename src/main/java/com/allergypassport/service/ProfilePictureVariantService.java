@@ -0,0 +1,266 @@
+package com.allergypassport.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Optional;
+
+/**
+ * Generates the fixed-size profile picture variants served by /profile-picture/{publicId}?size=N.
+ * <p>
+ * Each variant is a square, center-cropped JPEG re-encoded from the decoded pixels, so metadata
+ * (EXIF including GPS, comments, ICC extras) is dropped; the EXIF orientation is applied first.
+ * Large originals are decoded with subsampling to keep memory bounded.
+ * Formats without an ImageIO reader (WebP) keep being served as the original.
+ */
+@Service
+public class ProfilePictureVariantService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProfilePictureVariantService.class);
+
+    /**
+     * Variant edge lengths in pixels, ascending.
+     */
+    public static final int[] VARIANT_SIZES = {96, 192, 512};
+
+    private static final float JPEG_QUALITY = 0.85f;
+
+    // Refuse to decode images with absurd dimensions (decompression bombs)
+    private static final long MAX_SOURCE_PIXELS = 100_000_000L;
+
+    private final BlobStoreService blobStoreService;
+
+    public ProfilePictureVariantService(BlobStoreService blobStoreService) {
+        this.blobStoreService = blobStoreService;
+        ImageIO.setUseCache(false);
+    }
+
+    /**
+     * Variant size to serve for a requested display size: the smallest variant that is at least
+     * as large, or the largest variant.
+     */
+    public static int nearestVariantSize(int requested) {
+        for (int size : VARIANT_SIZES) {
+            if (size >= requested) {
+                return size;
+            }
+        }
+        return VARIANT_SIZES[VARIANT_SIZES.length - 1];
+    }
+
+    /**
+     * Resolve a generated variant of a picture blob.
+     */
+    public Optional<Path> findVariant(String hash, int size) {
+        return blobStoreService.findDerived(hash, String.valueOf(size));
+    }
+
+    /**
+     * Check whether all variants of a picture blob exist.
+     */
+    public boolean hasVariants(String hash) {
+        for (int size : VARIANT_SIZES) {
+            if (findVariant(hash, size).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generate all variants of a stored picture blob.
+     *
+     * @return false if the picture could not be decoded (variants are then not available)
+     */
+    public boolean generate(String hash) throws IOException {
+        Path source = blobStoreService.find(hash)
+                .orElseThrow(() -> new IllegalArgumentException("Unknown blob: " + hash));
+
+        BufferedImage image = decode(source, VARIANT_SIZES[VARIANT_SIZES.length - 1]);
+        if (image == null) {
+            log.info("No variants for picture {}: unsupported or unreadable image", hash);
+            return false;
+        }
+        BufferedImage square = cropToSquare(image);
+        int orientation = readExifOrientation(source);
+
+        for (int size : VARIANT_SIZES) {
+            BufferedImage variant = orient(scale(square, Math.min(size, square.getWidth())), orientation);
+            Path temp = blobStoreService.createTempFile();
+            try {
+                writeJpeg(variant, temp);
+                blobStoreService.storeDerived(hash, String.valueOf(size), temp);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        log.debug("Generated {} variants for picture {}", VARIANT_SIZES.length, hash);
+        return true;
+    }
+
+    /**
+     * Decode the first frame, subsampled so the shorter edge stays at least twice the largest variant.
+     */
+    private BufferedImage decode(Path source, int largestVariant) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_SOURCE_PIXELS) {
+                    log.warn("Refusing to decode {}x{} picture", width, height);
+                    return null;
+                }
+                int subsampling = Math.max(1, Math.min(width, height) / (largestVariant * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } catch (IOException | RuntimeException e) {
+                // e.g. CMYK JPEGs, truncated files
+                log.debug("Failed to decode picture {}: {}", source.getFileName(), e.getMessage());
+                return null;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage cropToSquare(BufferedImage image) {
+        int edge = Math.min(image.getWidth(), image.getHeight());
+        int x = (image.getWidth() - edge) / 2;
+        int y = (image.getHeight() - edge) / 2;
+        return image.getSubimage(x, y, edge, edge);
+    }
+
+    /**
+     * Downscale a square image, halving in steps first so large reductions stay smooth.
+     * Transparent areas are flattened onto white since variants are JPEG.
+     */
+    private static BufferedImage scale(BufferedImage image, int size) {
+        BufferedImage current = image;
+        int edge = image.getWidth();
+        do {
+            edge = Math.max(edge / 2, size);
+            BufferedImage next = new BufferedImage(edge, edge, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, edge, edge);
+                g.drawImage(current, 0, 0, edge, edge, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (edge > size);
+        return current;
+    }
+
+    /**
+     * Apply an EXIF orientation (1-8) to a square image.
+     */
+    private static BufferedImage orient(BufferedImage image, int orientation) {
+        if (orientation <= 1 || orientation > 8) {
+            return image;
+        }
+        int n = image.getWidth();
+        BufferedImage oriented = new BufferedImage(n, n, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                int rgb = switch (orientation) {
+                    case 2 -> image.getRGB(n - 1 - x, y);          // mirror horizontal
+                    case 3 -> image.getRGB(n - 1 - x, n - 1 - y);  // rotate 180
+                    case 4 -> image.getRGB(x, n - 1 - y);          // mirror vertical
+                    case 5 -> image.getRGB(y, x);                  // transpose
+                    case 6 -> image.getRGB(y, n - 1 - x);          // rotate 90 clockwise
+                    case 7 -> image.getRGB(n - 1 - y, n - 1 - x);  // transverse
+                    default -> image.getRGB(n - 1 - y, x);         // rotate 270 clockwise
+                };
+                oriented.setRGB(x, y, rgb);
+            }
+        }
+        return oriented;
+    }
+
+    private static void writeJpeg(BufferedImage image, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Read the EXIF orientation tag (0x0112) from a JPEG's APP1 segment; 1 (as stored) if absent.
+     */
+    private static int readExifOrientation(Path source) {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(source))) {
+            if (in.readUnsignedShort() != 0xFFD8) {
+                return 1;
+            }
+            while (true) {
+                int marker = in.readUnsignedShort();
+                if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA) {
+                    return 1;  // Not a marker, or start of scan: no EXIF before the image data
+                }
+                int length = in.readUnsignedShort() - 2;
+                if (marker == 0xFFE1) {
+                    byte[] segment = in.readNBytes(length);
+                    return parseOrientation(segment);
+                }
+                in.skipNBytes(length);
+            }
+        } catch (IOException | RuntimeException e) {
+            return 1;
+        }
+    }
+
+    private static int parseOrientation(byte[] segment) {
+        // "Exif\0\0" followed by a TIFF header
+        if (segment.length < 14 || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i' || segment[3] != 'f') {
+            return 1;
+        }
+        ByteBuffer tiff = ByteBuffer.wrap(segment, 6, segment.length - 6).slice();
+        tiff.order(tiff.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        int ifd = tiff.getInt(4);
+        int entries = tiff.getShort(ifd) & 0xFFFF;
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if ((tiff.getShort(entry) & 0xFFFF) == 0x0112) {
+                return tiff.getShort(entry + 8) & 0xFFFF;
+            }
+        }
+        return 1;
+    }
+}
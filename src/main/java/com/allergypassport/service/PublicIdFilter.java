@@ -0,0 +1,288 @@
+package com.allergypassport.service;
+
+import com.allergypassport.config.DataSourceRouting;
+import com.allergypassport.entity.User;
+import com.allergypassport.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+/**
+ * In-memory Bloom filter of all known public IDs, so lookups of unknown IDs (scanners enumerating
+ * /u/{publicId} and friends) are rejected without touching the database.
+ * <p>
+ * - Built after startup from a streaming query on the primary and rebuilt periodically
+ *   (picks up deletions and anything a missed notification did not add).
+ * - New users are added on creation, and on the other instances through CacheInvalidationBus events.
+ * - Announcements are best effort (pg_notify may fail, the listener may be down), so every instance also
+ *   polls the users created since its last poll (creation time watermark, with an overlap for clock skew
+ *   and late commits). A lost announcement delays a new passport by at most one sync interval.
+ * - While creations may have been missed (listener reconnected, failed poll) every ID may exist until
+ *   a poll started afterwards has succeeded.
+ * - Adds during a rebuild go to both filters; additions after commit make sure an ID committed after the
+ *   rebuild's snapshot is never lost.
+ * - Until the first build has finished every ID may exist. False positives simply fall through to the
+ *   normal lookup.
+ */
+@Service
+public class PublicIdFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(PublicIdFilter.class);
+
+    private final UserRepository userRepository;
+    private final CacheInvalidationBus invalidationBus;
+    private final TransactionTemplate readOnlyTransaction;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    @Value("${app.public-id-filter.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.public-id-filter.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+
+    @Value("${app.public-id-filter.min-capacity:10000}")
+    private long minCapacity;
+
+    @Value("${app.public-id-filter.sync-overlap:PT1M}")
+    private Duration syncOverlap;
+
+    private volatile BloomFilter current;
+    private volatile BloomFilter next;
+
+    // Users created before this (minus the overlap) are in the filter; null until the first build
+    private volatile LocalDateTime syncedUntil;
+
+    // Set while creations may have been missed; written under this lock, and counted so that a poll
+    // only clears what happened before it started
+    private volatile boolean stale;
+    private long staleMarks;
+
+    public PublicIdFilter(UserRepository userRepository,
+                          CacheInvalidationBus invalidationBus,
+                          PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.invalidationBus = invalidationBus;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Check whether a public ID may exist (false means it certainly does not).
+     */
+    public boolean mightExist(String publicId) {
+        BloomFilter filter = current;
+        return filter == null || stale || filter.mightContain(publicId);
+    }
+
+    /**
+     * Add a newly created user, here and (after commit) on the other instances.
+     */
+    public void register(User user) {
+        add(user.getPublicId());
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidationBus.publish(user.getId(), user.getPublicId(), user.getUpdatedAt());
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                add(user.getPublicId());
+                invalidationBus.publish(user.getId(), user.getPublicId(), user.getUpdatedAt());
+            }
+        });
+    }
+
+    /**
+     * Add passports announced by other instances; if announcements may have been missed,
+     * let every ID through until the next poll.
+     */
+    @EventListener
+    public void onInvalidation(CacheInvalidationBus.InvalidationEvent event) {
+        if (event.flushAll()) {
+            markStale();
+            return;
+        }
+        for (CacheInvalidationBus.PassportChange change : event.changes()) {
+            add(change.publicId());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startRebuild() {
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(this::rebuild, "public-id-filter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Rebuild the filter from the database (skipped while a rebuild is running).
+     */
+    @Scheduled(fixedDelayString = "${app.public-id-filter.rebuild-interval:PT1H}",
+               initialDelayString = "${app.public-id-filter.rebuild-interval:PT1H}")
+    public void rebuild() {
+        if (!enabled || !rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long started = System.currentTimeMillis();
+            LocalDateTime snapshot = LocalDateTime.now();
+            // Shared across all requests, so never build it from a lagging read replica
+            long count = DataSourceRouting.onPrimary(userRepository::count);
+            // Room to grow until the next rebuild; beyond that only the false positive rate rises
+            BloomFilter filter = new BloomFilter(Math.max(minCapacity, count * 2), falsePositiveRate);
+            // Set before the snapshot is taken: IDs committed after it are added to the new filter too
+            next = filter;
+            DataSourceRouting.onPrimary(() -> readOnlyTransaction.execute(status -> {
+                try (Stream<String> ids = userRepository.streamAllPublicIds()) {
+                    ids.forEach(filter::put);
+                }
+                return null;
+            }));
+            current = filter;
+            if (syncedUntil == null) {
+                syncedUntil = snapshot;
+            }
+            log.info("Built public ID filter for {} users ({} KB) in {} ms",
+                    count, filter.sizeInBytes() / 1024, System.currentTimeMillis() - started);
+        } catch (RuntimeException e) {
+            log.warn("Failed to build public ID filter: {}", e.getMessage());
+        } finally {
+            next = null;
+            rebuilding.set(false);
+        }
+    }
+
+    /**
+     * Add the users created since the last poll, including those whose announcement was lost.
+     */
+    @Scheduled(fixedDelayString = "${app.public-id-filter.sync-interval:PT5S}",
+               initialDelayString = "${app.public-id-filter.sync-interval:PT5S}")
+    public void sync() {
+        LocalDateTime since = syncedUntil;
+        if (!enabled || since == null) {
+            return;
+        }
+        long marks = staleMarks();
+        LocalDateTime started = LocalDateTime.now();
+        try {
+            // On the primary: a lagging replica would let the watermark pass users it does not show yet
+            List<String> publicIds = DataSourceRouting.onPrimary(
+                    () -> userRepository.findPublicIdsCreatedAfter(since.minus(syncOverlap)));
+            publicIds.forEach(this::add);
+            syncedUntil = started;
+            clearStale(marks);
+        } catch (RuntimeException e) {
+            markStale();
+            log.warn("Failed to sync public ID filter: {}", e.getMessage());
+        }
+    }
+
+    private synchronized long staleMarks() {
+        return staleMarks;
+    }
+
+    private synchronized void markStale() {
+        stale = true;
+        staleMarks++;
+    }
+
+    private synchronized void clearStale(long marksBefore) {
+        if (staleMarks == marksBefore) {
+            stale = false;
+        }
+    }
+
+    private void add(String publicId) {
+        BloomFilter filter = current;
+        if (filter != null) {
+            filter.put(publicId);
+        }
+        BloomFilter building = next;
+        if (building != null) {
+            building.put(publicId);
+        }
+    }
+
+    /**
+     * Thread-safe Bloom filter over strings, using double hashing of a 64-bit FNV-1a hash.
+     */
+    static final class BloomFilter {
+
+        private final AtomicLongArray words;
+        private final long bits;
+        private final int hashes;
+
+        BloomFilter(long expectedInsertions, double falsePositiveRate) {
+            long m = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.words = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64));
+            this.bits = words.length() * 64L;
+            this.hashes = Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+        }
+
+        void put(String value) {
+            long hash = hash(value);
+            long h1 = mix(hash);
+            long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bits);
+                int index = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long word = words.get(index);
+                while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask)) {
+                    word = words.get(index);
+                }
+            }
+        }
+
+        boolean mightContain(String value) {
+            long hash = hash(value);
+            long h1 = mix(hash);
+            long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bits);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long sizeInBytes() {
+            return bits / 8;
+        }
+
+        private static long hash(String value) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < value.length(); i++) {
+                h ^= value.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            return h;
+        }
+
+        // SplitMix64 finalizer, spreads the FNV bits over the whole word
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
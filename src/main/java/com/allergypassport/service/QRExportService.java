@@ -0,0 +1,248 @@
+package com.allergypassport.service;
+
+import com.allergypassport.dto.QRExportRow;
+import com.allergypassport.repository.UserRepository;
+import com.allergypassport.util.AllergyMask;
+import com.allergypassport.util.QRCodeService;
+import com.allergypassport.util.QRRenderExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Bulk export of QR codes as a ZIP archive, e.g. for printing passport cards for events and clinics.
+ * <p>
+ * Runs as a pipeline with bounded memory regardless of batch size:
+ * - requested passports are read in chunks of CHUNK_SIZE, each with one streamed, ordered projection query
+ *   (no entities) whose rows are drained into compact per-passport records; the read-only transaction ends
+ *   before anything is rendered, so no database connection is held while rendering or writing to the client
+ * - each passport is rendered on the bounded QR pool, with at most a small window in flight
+ * - finished entries are written to the ZIP stream in order as soon as they are ready
+ * - optionally, a rendered wallet card (see CardRenderService) is added next to each QR code; cards are
+ *   rendered on the exporting thread, since only QR images belong on the QR pool
+ * If the QR pool is saturated by public traffic, rendering falls back to the exporting thread.
+ */
+@Service
+public class QRExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(QRExportService.class);
+
+    /**
+     * Maximum number of public IDs per export (bounded by the query's IN list).
+     */
+    public static final int MAX_BATCH_SIZE = 5000;
+
+    /**
+     * Public IDs read per transaction.
+     */
+    static final int CHUNK_SIZE = 200;
+
+    /**
+     * Output format of the exported QR codes.
+     */
+    public enum Format {
+        PNG("png"),
+        SVG("svg");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private final UserRepository userRepository;
+    private final QRCodeService qrCodeService;
+    private final QRRenderExecutor qrRenderExecutor;
+    private final CardRenderService cardRenderService;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public QRExportService(UserRepository userRepository,
+                           QRCodeService qrCodeService,
+                           QRRenderExecutor qrRenderExecutor,
+                           CardRenderService cardRenderService,
+                           PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.qrCodeService = qrCodeService;
+        this.qrRenderExecutor = qrRenderExecutor;
+        this.cardRenderService = cardRenderService;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Write a ZIP with one QR code per known public ID to the given stream.
+     * Unknown public IDs are listed in a trailing missing.txt entry.
+     *
+     * @param publicIds     Public IDs to export (at most MAX_BATCH_SIZE)
+     * @param format        Image format of the QR entries
+     * @param size          Image size in pixels
+     * @param cardLanguages Languages for rendered wallet cards, or empty to export QR codes only
+     * @param out           Destination stream (not closed)
+     */
+    public void writeZip(Collection<String> publicIds, Format format, int size,
+                         List<Locale> cardLanguages, OutputStream out) throws IOException {
+        Set<String> missing = new LinkedHashSet<>(publicIds);
+        Set<String> exported = new HashSet<>();
+        ZipOutputStream zip = new ZipOutputStream(out);
+        Deque<PendingEntry> inFlight = new ArrayDeque<>();
+        int window = qrRenderExecutor.getPoolSize() * 2;
+
+        List<String> ids = new ArrayList<>(publicIds);
+        for (int start = 0; start < ids.size(); start += CHUNK_SIZE) {
+            for (PassportRows passport : loadPassports(ids.subList(start, Math.min(start + CHUNK_SIZE, ids.size())))) {
+                missing.remove(passport.publicId);
+                if (exported.add(passport.publicId)) {
+                    enqueue(inFlight, window, zip, passport, format, size, cardLanguages);
+                }
+            }
+        }
+
+        while (!inFlight.isEmpty()) {
+            writeEntry(zip, inFlight.removeFirst());
+        }
+        if (!missing.isEmpty()) {
+            zip.putNextEntry(new ZipEntry("missing.txt"));
+            zip.write(String.join("\n", missing).getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        zip.finish();
+        log.info("Exported {} QR codes as {} ({} unknown public IDs)", exported.size(), format, missing.size());
+    }
+
+    /**
+     * Read the passports of up to CHUNK_SIZE public IDs in one read-only transaction, ordered by public ID.
+     */
+    private List<PassportRows> loadPassports(List<String> publicIds) {
+        return readOnlyTransaction.execute(status -> {
+            List<PassportRows> passports = new ArrayList<>();
+            try (Stream<QRExportRow> rows = userRepository.streamQRExportRows(publicIds)) {
+                Iterator<QRExportRow> iterator = rows.iterator();
+                PassportRows current = null;
+
+                // Rows are ordered by public ID; fold each user's allergy rows into one passport
+                while (iterator.hasNext()) {
+                    QRExportRow row = iterator.next();
+                    if (current == null || !row.publicId().equals(current.publicId)) {
+                        current = new PassportRows(row);
+                        passports.add(current);
+                    }
+                    current.add(row);
+                }
+            }
+            return passports;
+        });
+    }
+
+    private void enqueue(Deque<PendingEntry> inFlight, int window, ZipOutputStream zip, PassportRows passport,
+                         Format format, int size, List<Locale> cardLanguages) throws IOException {
+        String content = qrCodeService.buildQRCodeContent(passport.publicId, passport.mask, passport.revision);
+        String baseName = "allergy-passport-" + passport.publicId;
+
+        addEntry(inFlight, window, zip, baseName + "." + format.getExtension(), render(() -> format == Format.SVG
+                ? qrCodeService.renderQRCodeSvg(content, size).getBytes(StandardCharsets.UTF_8)
+                : qrCodeService.renderQRCode(content, size, size).png()));
+
+        if (!cardLanguages.isEmpty()) {
+            CardRenderService.CardContent card = new CardRenderService.CardContent(
+                    passport.publicId, passport.displayName, passport.revision, content, passport.allergies);
+            // Cards are rendered on this thread (their language panels on the card service's own pool),
+            // so they never take QR render threads away from the public /qr/ endpoints
+            addEntry(inFlight, window, zip, baseName + "-card.svg", renderHere(
+                    () -> cardRenderService.renderCardUncached(card, cardLanguages).getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private void addEntry(Deque<PendingEntry> inFlight, int window, ZipOutputStream zip,
+                          String name, CompletableFuture<byte[]> data) throws IOException {
+        // Bound the work in flight: write out the oldest entry before adding more
+        while (inFlight.size() >= window) {
+            writeEntry(zip, inFlight.removeFirst());
+        }
+        inFlight.addLast(new PendingEntry(name, data));
+    }
+
+    private CompletableFuture<byte[]> render(Callable<byte[]> task) {
+        try {
+            return qrRenderExecutor.submit(task);
+        } catch (RejectedExecutionException e) {
+            // Pool saturated: render on this thread, which also throttles the export
+            return renderHere(task);
+        }
+    }
+
+    private static CompletableFuture<byte[]> renderHere(Callable<byte[]> task) {
+        try {
+            return CompletableFuture.completedFuture(task.call());
+        } catch (Exception renderError) {
+            return CompletableFuture.failedFuture(renderError);
+        }
+    }
+
+    private void writeEntry(ZipOutputStream zip, PendingEntry entry) throws IOException {
+        byte[] data;
+        try {
+            data = entry.data().join();
+        } catch (CompletionException e) {
+            throw new IOException("Failed to render " + entry.name(), e.getCause());
+        }
+        zip.putNextEntry(new ZipEntry(entry.name()));
+        zip.write(data);
+        zip.closeEntry();
+    }
+
+    private record PendingEntry(String name, CompletableFuture<byte[]> data) {
+    }
+
+    /**
+     * Accumulates the projection rows of one passport (at most one row per allergy type).
+     */
+    private static final class PassportRows {
+        private final String publicId;
+        private final String displayName;
+        private final LocalDateTime revision;
+        private final List<CardRenderService.CardAllergy> allergies = new ArrayList<>();
+        private long mask;
+
+        PassportRows(QRExportRow first) {
+            this.publicId = first.publicId();
+            this.displayName = first.displayName();
+            this.revision = first.updatedAt();
+        }
+
+        void add(QRExportRow row) {
+            if (row.allergyType() != null) {
+                mask = AllergyMask.with(mask, row.allergyType(), row.severity());
+                allergies.add(new CardRenderService.CardAllergy(row.allergyType(), row.severity(), row.notes()));
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.allergypassport.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Runs scheduled jobs on one instance at a time, guarded by a PostgreSQL session-level advisory lock.
+ * <p>
+ * The lock is held on a dedicated pooled connection for the duration of the job and released with it,
+ * also when the instance dies (the connection closes). Instances that do not get the lock skip the run.
+ * Databases without advisory locks (e.g. H2 in tests) run the job unguarded.
+ */
+@Component
+public class ScheduledJobLock {
+
+    private static final Logger log = LoggerFactory.getLogger(ScheduledJobLock.class);
+
+    // First half of the two-part advisory lock key, so our locks do not collide with other applications
+    private static final int LOCK_NAMESPACE = 0x41504A4C;  // "APJL"
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ScheduledJobLock(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Run the job unless another instance is running the job of the same name.
+     *
+     * @return false if the job was skipped
+     */
+    public boolean runExclusively(String name, Runnable job) {
+        int key = name.hashCode();
+        Boolean ran;
+        try {
+            ran = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+                boolean locked;
+                try {
+                    locked = query(connection, "SELECT pg_try_advisory_lock(?, ?)", key);
+                } catch (SQLException e) {
+                    throw new LockUnavailableException(e);
+                }
+                if (!locked) {
+                    return false;
+                }
+                try {
+                    job.run();
+                    return true;
+                } finally {
+                    try {
+                        query(connection, "SELECT pg_advisory_unlock(?, ?)", key);
+                    } catch (SQLException e) {
+                        // Held until the pool retires the connection (at the latest after its max lifetime)
+                        log.warn("Could not release the lock of job {}: {}", name, e.getMessage());
+                    }
+                }
+            });
+        } catch (LockUnavailableException e) {
+            log.debug("Advisory locks unavailable ({}), running job {} unguarded", e.getMessage(), name);
+            job.run();
+            return true;
+        }
+        if (!Boolean.TRUE.equals(ran)) {
+            log.debug("Skipped job {}: running on another instance", name);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean query(Connection connection, String sql, int key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, LOCK_NAMESPACE);
+            statement.setInt(2, key);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() && result.getBoolean(1);
+            }
+        }
+    }
+
+    private static class LockUnavailableException extends DataAccessException {
+
+        private static final long serialVersionUID = 1L;
+
+        LockUnavailableException(SQLException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+}
@@ -1,20 +1,33 @@
 package com.allergypassport.service;
 
+import com.allergypassport.dto.AllergyChange;
+import com.allergypassport.dto.AllergyMutation;
+import com.allergypassport.dto.PictureUploadRow;
 import com.allergypassport.entity.AllergySeverity;
 import com.allergypassport.entity.AllergyType;
+import com.allergypassport.entity.PictureUploadState;
 import com.allergypassport.entity.User;
 import com.allergypassport.entity.UserAllergy;
 import com.allergypassport.repository.UserAllergyRepository;
 import com.allergypassport.repository.UserRepository;
+import com.allergypassport.util.AllergyMask;
+import jakarta.persistence.EntityManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.multipart.MultipartFile;
 
-import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Service for managing user data and allergies.
@@ -27,26 +40,41 @@ public class UserService {
 
     private final UserRepository userRepository;
     private final UserAllergyRepository userAllergyRepository;
-
-    public UserService(UserRepository userRepository, UserAllergyRepository userAllergyRepository) {
+    private final PassportViewService passportViewService;
+    private final PublicIdFilter publicIdFilter;
+    private final EntityManager entityManager;
+    private final Set<String> adminEmails;
+
+    public UserService(UserRepository userRepository,
+                       UserAllergyRepository userAllergyRepository,
+                       PassportViewService passportViewService,
+                       PublicIdFilter publicIdFilter,
+                       EntityManager entityManager,
+                       @Value("${app.admin.emails:}") List<String> adminEmails) {
         this.userRepository = userRepository;
         this.userAllergyRepository = userAllergyRepository;
+        this.passportViewService = passportViewService;
+        this.publicIdFilter = publicIdFilter;
+        this.entityManager = entityManager;
+        this.adminEmails = adminEmails.stream()
+                .map(email -> email.trim().toLowerCase(Locale.ROOT))
+                .filter(email -> !email.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
     }
 
     /**
-     * Find user by their database ID.
+     * Check whether a user is an administrator (app.admin.emails, matched against the Google account email).
      */
-    @Transactional(readOnly = true)
-    public Optional<User> findById(Long id) {
-        return userRepository.findById(id);
+    public boolean isAdmin(User user) {
+        return user.getEmail() != null && adminEmails.contains(user.getEmail().toLowerCase(Locale.ROOT));
     }
 
     /**
-     * Find user by their public ID (for public passport view).
+     * Find user by their database ID.
      */
     @Transactional(readOnly = true)
-    public Optional<User> findByPublicId(String publicId) {
-        return userRepository.findByPublicIdWithAllergies(publicId);
+    public Optional<User> findById(Long id) {
+        return userRepository.findById(id);
     }
 
     /**
@@ -57,6 +85,48 @@ public class UserService {
         return userRepository.findByGoogleIdWithAllergies(googleId);
     }
 
+    /**
+     * Create or update the user for a Google login.
+     * <p>
+     * Nothing is written when the Google profile is unchanged. A changed email or picture URL is stored
+     * with a single bulk update that leaves the passport revision alone; only filling in a missing display
+     * name (shown on the passport) goes through the entity and bumps the revision.
+     */
+    public User syncGoogleAccount(String googleId, String email, String name, String pictureUrl) {
+        User user = userRepository.findByGoogleId(googleId).orElse(null);
+        if (user == null) {
+            log.info("Creating new user for Google ID: {}", googleId);
+            User created = new User(googleId, email, name);
+            created.setGooglePictureUrl(pictureUrl);
+            User saved = userRepository.save(created);
+            publicIdFilter.register(saved);
+            return saved;
+        }
+
+        boolean nameMissing = (user.getDisplayName() == null || user.getDisplayName().isBlank())
+                && name != null && !name.isBlank();
+        if (nameMissing) {
+            user.setEmail(email);
+            user.setDisplayName(name);
+            user.setGooglePictureUrl(pictureUrl);
+            passportViewService.evictAfterCommit(user);
+            log.debug("Filled in display name of user {} from Google", user.getId());
+            return user;
+        }
+
+        if (Objects.equals(email, user.getEmail()) && Objects.equals(pictureUrl, user.getGooglePictureUrl())) {
+            return user;
+        }
+        userRepository.updateGoogleAccount(user.getId(), email, pictureUrl);
+        // Detached by the bulk update, so these only keep the returned copy current
+        user.setEmail(email);
+        user.setGooglePictureUrl(pictureUrl);
+        // Same revision: other instances only drop their second-level cache entries
+        passportViewService.evictAfterCommit(user);
+        log.debug("Updated Google account data of user {}", user.getId());
+        return user;
+    }
+
     /**
      * Update user profile information.
      */
@@ -68,36 +138,58 @@ public class UserService {
             user.setDisplayName(displayName.trim());
         }
         user.setBio(bio != null ? bio.trim() : null);
+        passportViewService.evictAfterCommit(user);
 
         log.info("Updated profile for user {}", userId);
         return userRepository.save(user);
     }
 
     /**
-     * Upload a profile picture for the user.
+     * Point the user's profile picture at a stored blob (see ProfilePictureUploadService).
      */
-    public User uploadProfilePicture(Long userId, MultipartFile file) throws IOException {
+    public User updateProfilePicture(Long userId, String hash, String contentType) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new IllegalArgumentException("User not found: " + userId));
 
-        // Validate file
-        if (file.isEmpty()) {
-            throw new IllegalArgumentException("File is empty");
-        }
-
-        String contentType = file.getContentType();
-        if (contentType == null || !contentType.startsWith("image/")) {
-            throw new IllegalArgumentException("File must be an image");
-        }
-
-        // Store as byte array (for simplicity - consider cloud storage for production)
-        user.setProfilePicture(file.getBytes());
+        // The previous blob is left to BlobGarbageCollector (another user may share it)
+        user.setProfilePictureHash(hash);
         user.setProfilePictureContentType(contentType);
+        user.setProfilePicture(null);
+        user.setPictureUploadState(PictureUploadState.COMPLETED);
+        user.setPictureUploadAt(uploadTimestamp());
+        passportViewService.evictAfterCommit(user);
 
         log.info("Updated profile picture for user {}", userId);
         return userRepository.save(user);
     }
 
+    /**
+     * State of the user's latest profile picture upload, if any. Read from the primary (not read-only),
+     * so a state just written is always seen.
+     */
+    public Optional<PictureUploadRow> findPictureUpload(Long userId) {
+        return userRepository.findPictureUpload(userId).filter(upload -> upload.state() != null);
+    }
+
+    /**
+     * Record the state of the user's latest profile picture upload.
+     */
+    public void updatePictureUpload(Long userId, PictureUploadState state) {
+        userRepository.updatePictureUpload(userId, state, uploadTimestamp());
+    }
+
+    /**
+     * Clear an upload state once it has been reported (see {@link #findPictureUpload(Long)}).
+     */
+    public void clearPictureUpload(Long userId, LocalDateTime since) {
+        userRepository.clearPictureUpload(userId, since);
+    }
+
+    // Milliseconds survive the round trip through every supported database, so clearPictureUpload matches
+    private static LocalDateTime uploadTimestamp() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+    }
+
     /**
      * Delete user's custom profile picture (reverts to Google picture).
      */
@@ -106,7 +198,9 @@ public class UserService {
                 .orElseThrow(() -> new IllegalArgumentException("User not found: " + userId));
 
         user.setProfilePicture(null);
+        user.setProfilePictureHash(null);
         user.setProfilePictureContentType(null);
+        passportViewService.evictAfterCommit(user);
 
         log.info("Deleted profile picture for user {}", userId);
         return userRepository.save(user);
@@ -120,66 +214,174 @@ public class UserService {
         return userAllergyRepository.findByUserId(userId);
     }
 
+    /**
+     * Find one of the user's allergies by ID (empty if it does not exist or belongs to someone else).
+     */
+    @Transactional(readOnly = true)
+    public Optional<UserAllergy> findAllergy(Long userId, Long allergyId) {
+        return userAllergyRepository.findByIdAndUserId(allergyId, userId);
+    }
+
+    /**
+     * Get a user's allergies packed with AllergyMask, read from the users row when backfilled.
+     */
+    @Transactional(readOnly = true)
+    public long getAllergyMask(Long userId) {
+        Long mask = userRepository.findAllergyMask(userId);
+        return mask != null ? mask : AllergyMask.pack(userAllergyRepository.findByUserId(userId));
+    }
+
+    /*
+     * Allergy mutations lock the users row, load the user together with its allergies in one query,
+     * change the loaded collection and return it with the new revision, so callers get the resulting
+     * list (and can rebuild the QR code) without querying again. The lock makes a concurrent mutation wait and then read this one's result, so no change
+     * to the allergy mask is lost.
+     */
+
     /**
      * Add or update an allergy for a user.
+     *
+     * @return The user's allergies and passport revision after the change
      */
-    public UserAllergy saveAllergy(Long userId, AllergyType allergyType, AllergySeverity severity, String notes) {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new IllegalArgumentException("User not found: " + userId));
+    public AllergyMutation saveAllergy(Long userId, AllergyType allergyType, AllergySeverity severity, String notes) {
+        User user = findWithAllergies(userId);
+        applyAllergy(user, allergyType, severity, notes);
+        markPassportChanged(user);
+        return mutationResult(user);
+    }
 
-        // Check if allergy already exists
-        Optional<UserAllergy> existing = userAllergyRepository.findByUserIdAndAllergyType(userId, allergyType);
+    /**
+     * Apply several allergy changes in one transaction (inserts and updates are sent as JDBC batches).
+     * When a type appears more than once, its last change wins.
+     *
+     * @return The user's allergies and passport revision after the changes
+     */
+    public AllergyMutation applyAllergyChanges(Long userId, List<AllergyChange> changes) {
+        User user = findWithAllergies(userId);
 
-        UserAllergy allergy;
-        if (existing.isPresent()) {
-            allergy = existing.get();
-            allergy.setSeverity(severity);
-            allergy.setNotes(notes != null ? notes.trim() : null);
-            log.info("Updated allergy {} for user {}", allergyType, userId);
-        } else {
-            allergy = new UserAllergy(user, allergyType, severity, notes != null ? notes.trim() : null);
-            log.info("Added allergy {} for user {}", allergyType, userId);
+        // One change per type, so a type is never deleted and re-inserted within the same flush
+        Map<AllergyType, AllergyChange> byType = new EnumMap<>(AllergyType.class);
+        for (AllergyChange change : changes) {
+            byType.put(change.allergyType(), change);
+        }
+        for (AllergyChange change : byType.values()) {
+            applyAllergy(user, change.allergyType(), change.severity(), change.notes());
+        }
+        if (!byType.isEmpty()) {
+            markPassportChanged(user);
         }
+        log.info("Applied {} allergy changes for user {}", byType.size(), userId);
+        return mutationResult(user);
+    }
 
-        return userAllergyRepository.save(allergy);
+    /**
+     * Update severity and notes of an existing allergy, identified by its ID.
+     *
+     * @return The user's allergies and passport revision after the change
+     * @throws IllegalArgumentException if the allergy does not exist or belongs to another user
+     */
+    public AllergyMutation updateAllergy(Long userId, Long allergyId, AllergySeverity severity, String notes) {
+        User user = findWithAllergies(userId);
+        UserAllergy allergy = findLoadedAllergy(user, allergyId);
+
+        applyAllergy(user, allergy.getAllergyType(), severity, notes);
+        markPassportChanged(user);
+        return mutationResult(user);
     }
 
     /**
      * Remove an allergy from a user.
+     *
+     * @return The user's allergies and passport revision after the change
      */
-    public void removeAllergy(Long userId, AllergyType allergyType) {
-        userAllergyRepository.deleteByUserIdAndAllergyType(userId, allergyType);
-        log.info("Removed allergy {} for user {}", allergyType, userId);
+    public AllergyMutation removeAllergy(Long userId, AllergyType allergyType) {
+        User user = findWithAllergies(userId);
+        applyAllergy(user, allergyType, null, null);
+        markPassportChanged(user);
+        return mutationResult(user);
     }
 
     /**
      * Remove an allergy by its ID.
+     *
+     * @return The user's allergies and passport revision after the change
+     * @throws IllegalArgumentException if the allergy does not exist or belongs to another user
      */
-    public void removeAllergyById(Long userId, Long allergyId) {
-        UserAllergy allergy = userAllergyRepository.findById(allergyId)
-                .orElseThrow(() -> new IllegalArgumentException("Allergy not found: " + allergyId));
+    public AllergyMutation removeAllergyById(Long userId, Long allergyId) {
+        User user = findWithAllergies(userId);
+        UserAllergy allergy = findLoadedAllergy(user, allergyId);
 
-        if (!allergy.getUser().getId().equals(userId)) {
-            throw new IllegalArgumentException("Allergy does not belong to user");
-        }
-
-        userAllergyRepository.delete(allergy);
-        log.info("Removed allergy {} for user {}", allergyId, userId);
+        applyAllergy(user, allergy.getAllergyType(), null, null);
+        markPassportChanged(user);
+        return mutationResult(user);
     }
 
     /**
      * Update notes for an existing allergy.
+     *
+     * @return The user's allergies and passport revision after the change
+     * @throws IllegalArgumentException if the allergy does not exist or belongs to another user
      */
-    public UserAllergy updateAllergyNotes(Long userId, Long allergyId, String notes) {
-        UserAllergy allergy = userAllergyRepository.findById(allergyId)
+    public AllergyMutation updateAllergyNotes(Long userId, Long allergyId, String notes) {
+        User user = findWithAllergies(userId);
+        UserAllergy allergy = findLoadedAllergy(user, allergyId);
+
+        applyAllergy(user, allergy.getAllergyType(), allergy.getSeverity(), notes);
+        markPassportChanged(user);
+        return mutationResult(user);
+    }
+
+    private User findWithAllergies(Long userId) {
+        userRepository.lockById(userId)
+                .orElseThrow(() -> new IllegalArgumentException("User not found: " + userId));
+        return userRepository.findByIdWithAllergies(userId)
+                .orElseThrow(() -> new IllegalArgumentException("User not found: " + userId));
+    }
+
+    private static UserAllergy findLoadedAllergy(User user, Long allergyId) {
+        return user.getAllergies().stream()
+                .filter(allergy -> allergy.getId().equals(allergyId))
+                .findFirst()
                 .orElseThrow(() -> new IllegalArgumentException("Allergy not found: " + allergyId));
+    }
 
-        if (!allergy.getUser().getId().equals(userId)) {
-            throw new IllegalArgumentException("Allergy does not belong to user");
+    /**
+     * Add, update or (severity null) remove an allergy in the loaded collection and record it in the mask.
+     */
+    private void applyAllergy(User user, AllergyType allergyType, AllergySeverity severity, String notes) {
+        long mask = user.getAllergyMask() != null ? user.getAllergyMask() : AllergyMask.pack(user.getAllergies());
+        String trimmedNotes = notes != null ? notes.trim() : null;
+
+        Optional<UserAllergy> existing = user.getAllergies().stream()
+                .filter(allergy -> allergy.getAllergyType() == allergyType)
+                .findFirst();
+        if (severity == null) {
+            existing.ifPresent(user::removeAllergy);
+            log.info("Removed allergy {} for user {}", allergyType, user.getId());
+        } else if (existing.isPresent()) {
+            existing.get().setSeverity(severity);
+            existing.get().setNotes(trimmedNotes);
+            log.info("Updated allergy {} for user {}", allergyType, user.getId());
+        } else {
+            user.addAllergy(new UserAllergy(user, allergyType, severity, trimmedNotes));
+            log.info("Added allergy {} for user {}", allergyType, user.getId());
         }
+        user.setAllergyMask(AllergyMask.with(mask, allergyType, severity));
+    }
+
+    /**
+     * Flush the change first: the update callback sets the revision that is actually stored.
+     */
+    private AllergyMutation mutationResult(User user) {
+        entityManager.flush();
+        return new AllergyMutation(user.getAllergies(), user.getPublicId(), user.getAllergyMask(), user.getUpdatedAt());
+    }
 
-        allergy.setNotes(notes != null ? notes.trim() : null);
-        log.info("Updated notes for allergy {} of user {}", allergyId, userId);
-        return userAllergyRepository.save(allergy);
+    /**
+     * Bump the passport revision and evict the cached passport view after commit.
+     */
+    private void markPassportChanged(User user) {
+        user.markUpdated();
+        passportViewService.evictAfterCommit(user);
     }
 }
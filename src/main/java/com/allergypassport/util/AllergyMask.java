@@ -0,0 +1,140 @@
+package com.allergypassport.util;
+
+import com.allergypassport.entity.AllergySeverity;
+import com.allergypassport.entity.AllergyType;
+import com.allergypassport.entity.UserAllergy;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Packs a set of allergies into a single long: 2 bits per AllergyType ordinal.
+ * <p>
+ * Per type: 0 = not present, otherwise AllergySeverity ordinal + 1
+ * (1 = INTOLERANCE, 2 = SEVERE). Type n occupies bits 2n and 2n+1.
+ */
+public final class AllergyMask {
+
+    public static final int BITS_PER_TYPE = 2;
+
+    private static final long TYPE_BITS = (1L << BITS_PER_TYPE) - 1;
+
+    static {
+        if (AllergySeverity.values().length > TYPE_BITS) {
+            throw new IllegalStateException("AllergySeverity does not fit into " + BITS_PER_TYPE + " bits per type");
+        }
+        if (AllergyType.values().length * BITS_PER_TYPE > Long.SIZE) {
+            throw new IllegalStateException("AllergyType does not fit into a 64-bit mask");
+        }
+    }
+
+    private AllergyMask() {
+    }
+
+    /**
+     * Pack the given allergies into a mask.
+     */
+    public static long pack(Map<AllergyType, AllergySeverity> allergies) {
+        long mask = 0;
+        for (Map.Entry<AllergyType, AllergySeverity> entry : allergies.entrySet()) {
+            mask = with(mask, entry.getKey(), entry.getValue());
+        }
+        return mask;
+    }
+
+    /**
+     * Pack the given allergy entries into a mask.
+     */
+    public static long pack(Collection<UserAllergy> allergies) {
+        long mask = 0;
+        for (UserAllergy allergy : allergies) {
+            mask = with(mask, allergy.getAllergyType(), allergy.getSeverity());
+        }
+        return mask;
+    }
+
+    /**
+     * Unpack a mask into an ordered type-to-severity map.
+     *
+     * @throws IllegalArgumentException if the mask contains unknown severities or types
+     */
+    public static Map<AllergyType, AllergySeverity> unpack(long mask) {
+        AllergyType[] types = AllergyType.values();
+        if (types.length * BITS_PER_TYPE < Long.SIZE && (mask >>> (types.length * BITS_PER_TYPE)) != 0) {
+            throw new IllegalArgumentException("Mask contains unknown allergy types");
+        }
+        Map<AllergyType, AllergySeverity> allergies = new EnumMap<>(AllergyType.class);
+        for (AllergyType type : types) {
+            AllergySeverity severity = severityOf(mask, type);
+            if (severity != null) {
+                allergies.put(type, severity);
+            }
+        }
+        return allergies;
+    }
+
+    /**
+     * Get the allergy types present in a mask.
+     */
+    public static EnumSet<AllergyType> types(long mask) {
+        EnumSet<AllergyType> types = EnumSet.noneOf(AllergyType.class);
+        for (AllergyType type : AllergyType.values()) {
+            if (((mask >>> shift(type)) & TYPE_BITS) != 0) {
+                types.add(type);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Get the allergy types recorded with the given severity.
+     */
+    public static EnumSet<AllergyType> typesWith(long mask, AllergySeverity severity) {
+        EnumSet<AllergyType> types = EnumSet.noneOf(AllergyType.class);
+        long code = severity.ordinal() + 1;
+        for (AllergyType type : AllergyType.values()) {
+            if (((mask >>> shift(type)) & TYPE_BITS) == code) {
+                types.add(type);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Check whether a type is present in a mask.
+     */
+    public static boolean contains(long mask, AllergyType type) {
+        return ((mask >>> shift(type)) & TYPE_BITS) != 0;
+    }
+
+    /**
+     * Get the severity recorded for a type, or null if the type is not in the mask.
+     *
+     * @throws IllegalArgumentException if the stored severity code is unknown
+     */
+    public static AllergySeverity severityOf(long mask, AllergyType type) {
+        int code = (int) ((mask >>> shift(type)) & TYPE_BITS);
+        if (code == 0) {
+            return null;
+        }
+        AllergySeverity[] severities = AllergySeverity.values();
+        if (code > severities.length) {
+            throw new IllegalArgumentException("Unknown severity code " + code + " for " + type);
+        }
+        return severities[code - 1];
+    }
+
+    /**
+     * Return the mask with the given type set to the given severity (null removes the type).
+     */
+    public static long with(long mask, AllergyType type, AllergySeverity severity) {
+        long cleared = mask & ~(TYPE_BITS << shift(type));
+        return severity == null ? cleared : cleared | ((long) (severity.ordinal() + 1) << shift(type));
+    }
+
+    private static int shift(AllergyType type) {
+        return type.ordinal() * BITS_PER_TYPE;
+    }
+}
@@ -0,0 +1,150 @@
+package com.allergypassport.util;
+
+import com.allergypassport.entity.AllergySeverity;
+import com.allergypassport.entity.AllergyType;
+import com.allergypassport.entity.UserAllergy;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a passport's allergy list, embedded in the QR code URL fragment
+ * so the public page can render the list client-side without a server round trip.
+ * <p>
+ * Layout (10 bytes, Base64url without padding = 14 characters):
+ * - bytes 0-3: big-endian word, top 2 bits = format version (2), low 30 bits = AllergyMask
+ * - bytes 4-8: big-endian revision (milliseconds since 2024-01-01, 40 bits, wraps after ~34 years)
+ * - byte 9:    CRC-8 (polynomial 0x07) over bytes 0-8
+ * <p>
+ * Version 1 codes (8 bytes, 3-byte revision in minutes) are still decoded; their revision is converted
+ * to milliseconds. Minutes were too coarse: two edits within the same minute got the same revision.
+ * <p>
+ * The client-side decoder in static/js/passport-payload.js must be kept in sync with this layout.
+ */
+public final class PassportPayloadCodec {
+
+    public static final int FORMAT_VERSION = 2;
+
+    private static final int PAYLOAD_LENGTH = 10;
+    private static final int REVISION_BYTES = 5;
+    private static final int V1_PAYLOAD_LENGTH = 8;
+    private static final int MASK_BITS = 30;
+    private static final long MASK_LIMIT = 1L << MASK_BITS;
+    private static final long REVISION_MODULUS = 1L << (8 * REVISION_BYTES);
+    private static final LocalDateTime REVISION_EPOCH = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    static {
+        if (AllergyType.values().length * AllergyMask.BITS_PER_TYPE > MASK_BITS) {
+            throw new IllegalStateException("AllergyType no longer fits into the " + MASK_BITS + "-bit payload mask");
+        }
+    }
+
+    /**
+     * Decoded payload.
+     *
+     * @param allergies Allergy types with their severity, in enum order
+     * @param revision  Revision in milliseconds since 2024-01-01 (modulo 2^40)
+     */
+    public record Payload(Map<AllergyType, AllergySeverity> allergies, long revision) {
+    }
+
+    private PassportPayloadCodec() {
+    }
+
+    /**
+     * Encode the allergy entries of a passport with the given revision timestamp.
+     */
+    public static String encode(Collection<UserAllergy> allergies, LocalDateTime revision) {
+        return encode(AllergyMask.pack(allergies), revision);
+    }
+
+    /**
+     * Encode a type-to-severity map with the given revision timestamp.
+     */
+    public static String encode(Map<AllergyType, AllergySeverity> allergies, LocalDateTime revision) {
+        return encode(AllergyMask.pack(allergies), revision);
+    }
+
+    /**
+     * Encode an AllergyMask with the given revision timestamp.
+     */
+    public static String encode(long mask, LocalDateTime revision) {
+        return encode(mask, revisionOf(revision));
+    }
+
+    static String encode(long mask, long revision) {
+        if (mask < 0 || mask >= MASK_LIMIT) {
+            throw new IllegalArgumentException("Mask does not fit into " + MASK_BITS + " bits");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(PAYLOAD_LENGTH);
+        buffer.putInt((int) (((long) FORMAT_VERSION << MASK_BITS) | mask));
+        for (int shift = 8 * (REVISION_BYTES - 1); shift >= 0; shift -= 8) {
+            buffer.put((byte) (revision >>> shift));
+        }
+        buffer.put(crc8(buffer.array(), PAYLOAD_LENGTH - 1));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * Decode and verify a payload (current or version 1).
+     *
+     * @throws IllegalArgumentException if the payload is malformed, has a bad checksum or an unknown version
+     */
+    public static Payload decode(String encoded) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(encoded);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Payload is not valid Base64url", e);
+        }
+        if (bytes.length != PAYLOAD_LENGTH && bytes.length != V1_PAYLOAD_LENGTH) {
+            throw new IllegalArgumentException("Payload must be " + PAYLOAD_LENGTH + " bytes");
+        }
+        if (crc8(bytes, bytes.length - 1) != bytes[bytes.length - 1]) {
+            throw new IllegalArgumentException("Payload checksum mismatch");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long word = Integer.toUnsignedLong(buffer.getInt());
+        int version = (int) (word >>> MASK_BITS);
+        int expectedVersion = bytes.length == PAYLOAD_LENGTH ? FORMAT_VERSION : 1;
+        if (version != expectedVersion) {
+            throw new IllegalArgumentException("Unsupported payload version " + version);
+        }
+        long revision = 0;
+        for (int i = 4; i < bytes.length - 1; i++) {
+            revision = (revision << 8) | (bytes[i] & 0xFF);
+        }
+        if (version == 1) {
+            // Minutes since the epoch
+            revision *= 60_000;
+        }
+        return new Payload(AllergyMask.unpack(word & (MASK_LIMIT - 1)), revision);
+    }
+
+    /**
+     * Convert a timestamp to a payload revision (milliseconds since 2024-01-01, modulo 2^40).
+     */
+    public static long revisionOf(LocalDateTime timestamp) {
+        if (timestamp == null) {
+            return 0;
+        }
+        long millis = Math.max(0, Duration.between(REVISION_EPOCH, timestamp).toMillis());
+        return millis % REVISION_MODULUS;
+    }
+
+    private static byte crc8(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc ^= data[i] & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x07) & 0xFF : (crc << 1) & 0xFF;
+            }
+        }
+        return (byte) crc;
+    }
+}
@@ -0,0 +1,13 @@
+package com.allergypassport.util;
+
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * A rendered QR code together with the symbol parameters that were chosen for it.
+ *
+ * @param png             PNG image bytes
+ * @param version         QR version (1-40) the content was encoded at
+ * @param errorCorrection Error correction level the content was encoded at
+ */
+public record QRCodeImage(byte[] png, int version, ErrorCorrectionLevel errorCorrection) {
+}
@@ -1,5 +1,7 @@
 package com.allergypassport.util;
 
+import com.allergypassport.dto.PassportView;
+import com.allergypassport.entity.User;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.EncodeHintType;
 import com.google.zxing.WriterException;
@@ -8,6 +10,8 @@ import com.google.zxing.client.j2se.MatrixToImageWriter;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.Encoder;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -15,12 +19,26 @@ import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.Base64;
 import java.util.EnumMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * Service for generating QR codes using ZXing library.
+ * <p>
+ * Two encoding modes are supported (app.qr.mode):
+ * - standard: encodes the full passport URL (/u/{publicId}) as-is
+ * - compact:  encodes an uppercase short URL (/Q/{PUBLICID}) that fits QR alphanumeric mode,
+ *             which needs roughly 30% fewer bits than byte mode and therefore a lower QR version
+ * <p>
+ * In both modes the lowest QR version that satisfies app.qr.error-correction-floor is chosen,
+ * and the error correction is then raised as far as that version allows.
+ * <p>
+ * With app.qr.embed-passport=true the allergy list is also embedded in the URL fragment
+ * (see PassportPayloadCodec), so such codes must be regenerated whenever the allergies change.
  */
 @Service
 public class QRCodeService {
@@ -36,10 +54,48 @@ public class QRCodeService {
     @Value("${app.qr.height:300}")
     private int defaultHeight;
 
+    @Value("${app.qr.mode:standard}")
+    private String mode;
+
+    @Value("${app.qr.error-correction-floor:H}")
+    private ErrorCorrectionLevel errorCorrectionFloor;
+
+    @Value("${app.qr.embed-passport:false}")
+    private boolean embedPassport;
+
+    // Base URL rewritten for alphanumeric mode, or the original base URL if that is not possible
+    private String shortBaseUrl;
+
+    // Characters allowed in QR alphanumeric mode (0-9, A-Z, space, $ % * + - . / :)
+    private static final Pattern ALPHANUMERIC_MODE = Pattern.compile("[0-9A-Z $%*+\\-./:]*");
+
+    // Scheme and authority only, no path (paths are case-sensitive and must not be uppercased)
+    private static final Pattern ORIGIN_ONLY = Pattern.compile("[A-Za-z][A-Za-z0-9+.-]*://[^/?#]+/?");
+
+    // Error correction levels from strongest to weakest (enum ordinals run L, M, Q, H)
+    private static final ErrorCorrectionLevel[] LEVELS_BY_STRENGTH = {
+            ErrorCorrectionLevel.H, ErrorCorrectionLevel.Q, ErrorCorrectionLevel.M, ErrorCorrectionLevel.L
+    };
+
     // QR code colors
     private static final int QR_ON_COLOR = 0xFF1F2937;  // Dark gray (Tailwind gray-800)
     private static final int QR_OFF_COLOR = 0xFFFFFFFF;  // White
 
+    @PostConstruct
+    void init() {
+        String trimmed = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        String upper = trimmed.toUpperCase(Locale.ROOT);
+        if (ORIGIN_ONLY.matcher(baseUrl).matches() && ALPHANUMERIC_MODE.matcher(upper).matches()) {
+            // Scheme and host are case-insensitive, so the whole origin can be uppercased
+            shortBaseUrl = upper;
+        } else {
+            log.warn("app.base-url '{}' cannot be expressed in QR alphanumeric mode; compact QR codes will use byte mode",
+                    baseUrl);
+            shortBaseUrl = trimmed;
+        }
+        log.info("QR codes use {} mode with error correction floor {}", mode, errorCorrectionFloor);
+    }
+
     /**
      * Generate a QR code image as PNG bytes for the given user's public URL.
      *
@@ -59,8 +115,44 @@ public class QRCodeService {
      * @return PNG image as byte array
      */
     public byte[] generateQRCode(String publicId, int width, int height) throws WriterException, IOException {
-        String url = buildPublicUrl(publicId);
-        return generateQRCodeForUrl(url, width, height);
+        return generateQRCodeImage(publicId, width, height).png();
+    }
+
+    /**
+     * Generate a QR code for the given user's passport, embedding the allergy list if enabled.
+     * Uses the stored allergy mask; the allergies are only loaded if it has not been backfilled yet.
+     *
+     * @param user   The user whose passport is encoded
+     * @param width  QR code width in pixels
+     * @param height QR code height in pixels
+     * @return The rendered image with its QR version and error correction level
+     */
+    public QRCodeImage generateQRCodeImage(User user, int width, int height) throws WriterException, IOException {
+        return renderQRCode(buildQRCodeContent(user), width, height);
+    }
+
+    /**
+     * Generate a QR code for a passport read model, embedding the allergy list if enabled.
+     *
+     * @param passport The passport to encode
+     * @param width    QR code width in pixels
+     * @param height   QR code height in pixels
+     * @return The rendered image with its QR version and error correction level
+     */
+    public QRCodeImage generateQRCodeImage(PassportView passport, int width, int height) throws WriterException, IOException {
+        return renderQRCode(buildQRCodeContent(passport), width, height);
+    }
+
+    /**
+     * Generate a QR code for the given user's passport, reporting the chosen version and error correction.
+     *
+     * @param publicId The user's public ID
+     * @param width    QR code width in pixels
+     * @param height   QR code height in pixels
+     * @return The rendered image with its QR version and error correction level
+     */
+    public QRCodeImage generateQRCodeImage(String publicId, int width, int height) throws WriterException, IOException {
+        return renderQRCode(buildQRCodeContent(publicId), width, height);
     }
 
     /**
@@ -72,15 +164,26 @@ public class QRCodeService {
      * @return PNG image as byte array
      */
     public byte[] generateQRCodeForUrl(String url, int width, int height) throws WriterException, IOException {
-        log.debug("Generating QR code for URL: {} ({}x{})", url, width, height);
+        return renderQRCode(url, width, height).png();
+    }
 
-        Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
-        hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.H);  // High error correction
-        hints.put(EncodeHintType.MARGIN, 2);  // Small margin
-        hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
+    /**
+     * Render arbitrary QR content as PNG, reporting the chosen version and error correction.
+     *
+     * @param content The text to encode
+     * @param width   QR code width in pixels
+     * @param height  QR code height in pixels
+     * @return The rendered image with its QR version and error correction level
+     */
+    public QRCodeImage renderQRCode(String content, int width, int height) throws WriterException, IOException {
+        Map<EncodeHintType, Object> hints = buildHints(content);
+        int version = (Integer) hints.get(EncodeHintType.QR_VERSION);
+        ErrorCorrectionLevel errorCorrection = (ErrorCorrectionLevel) hints.get(EncodeHintType.ERROR_CORRECTION);
+        log.debug("Generating QR code for: {} ({}x{}, version {}, ECC {})",
+                content, width, height, version, errorCorrection);
 
         QRCodeWriter qrCodeWriter = new QRCodeWriter();
-        BitMatrix bitMatrix = qrCodeWriter.encode(url, BarcodeFormat.QR_CODE, width, height, hints);
+        BitMatrix bitMatrix = qrCodeWriter.encode(content, BarcodeFormat.QR_CODE, width, height, hints);
 
         // Create image with custom colors
         MatrixToImageConfig config = new MatrixToImageConfig(QR_ON_COLOR, QR_OFF_COLOR);
@@ -88,7 +191,92 @@ public class QRCodeService {
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         MatrixToImageWriter.writeToStream(bitMatrix, "PNG", outputStream, config);
 
-        return outputStream.toByteArray();
+        return new QRCodeImage(outputStream.toByteArray(), version, errorCorrection);
+    }
+
+    /**
+     * Render arbitrary QR content as a standalone SVG document.
+     * Dark modules are emitted as one path with a run per row, so the output stays small and scales losslessly.
+     *
+     * @param content The text to encode
+     * @param size    Rendered width and height in pixels
+     * @return SVG markup
+     */
+    public String renderQRCodeSvg(String content, int size) throws WriterException {
+        // Width/height 0 yields one matrix cell per module (including the margin)
+        BitMatrix matrix = new QRCodeWriter().encode(content, BarcodeFormat.QR_CODE, 0, 0, buildHints(content));
+        int modules = matrix.getWidth();
+
+        StringBuilder svg = new StringBuilder(modules * modules / 2 + 256);
+        svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(size)
+                .append("\" height=\"").append(size)
+                .append("\" viewBox=\"0 0 ").append(modules).append(' ').append(modules)
+                .append("\" shape-rendering=\"crispEdges\">")
+                .append("<rect width=\"100%\" height=\"100%\" fill=\"").append(toHexColor(QR_OFF_COLOR)).append("\"/>")
+                .append("<path fill=\"").append(toHexColor(QR_ON_COLOR)).append("\" d=\"");
+        appendModulePath(svg, matrix, 0, 0);
+        svg.append("\"/></svg>");
+        return svg.toString();
+    }
+
+    /**
+     * Append the dark modules of a matrix as SVG path commands, offset by (x, y) module units.
+     */
+    static void appendModulePath(StringBuilder path, BitMatrix matrix, int x, int y) {
+        for (int row = 0; row < matrix.getHeight(); row++) {
+            int col = 0;
+            while (col < matrix.getWidth()) {
+                if (!matrix.get(col, row)) {
+                    col++;
+                    continue;
+                }
+                int start = col;
+                while (col < matrix.getWidth() && matrix.get(col, row)) {
+                    col++;
+                }
+                path.append('M').append(x + start).append(' ').append(y + row)
+                        .append('h').append(col - start).append("v1h-").append(col - start).append('z');
+            }
+        }
+    }
+
+    private Map<EncodeHintType, Object> buildHints(String content) throws WriterException {
+        Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+        hints.put(EncodeHintType.MARGIN, 2);  // Small margin
+        if (!ALPHANUMERIC_MODE.matcher(content).matches()) {
+            // Only needed for byte mode; alphanumeric content must not be forced into it
+            hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
+        }
+        selectVersionAndErrorCorrection(content, hints);
+        return hints;
+    }
+
+    private static String toHexColor(int argb) {
+        return String.format("#%06X", argb & 0xFFFFFF);
+    }
+
+    /**
+     * Pick the lowest QR version that holds the content at the configured error correction floor,
+     * then use the strongest error correction that still fits into that same version.
+     * The result is stored in the QR_VERSION and ERROR_CORRECTION hints.
+     */
+    private void selectVersionAndErrorCorrection(String content, Map<EncodeHintType, Object> hints) throws WriterException {
+        int version = Encoder.encode(content, errorCorrectionFloor, hints).getVersion().getVersionNumber();
+        hints.put(EncodeHintType.QR_VERSION, version);
+
+        for (ErrorCorrectionLevel level : LEVELS_BY_STRENGTH) {
+            if (level.ordinal() <= errorCorrectionFloor.ordinal()) {
+                break;
+            }
+            try {
+                Encoder.encode(content, level, hints);
+                hints.put(EncodeHintType.ERROR_CORRECTION, level);
+                return;
+            } catch (WriterException e) {
+                // Does not fit into this version at this level, try the next weaker one
+            }
+        }
+        hints.put(EncodeHintType.ERROR_CORRECTION, errorCorrectionFloor);
     }
 
     /**
@@ -101,6 +289,33 @@ public class QRCodeService {
         return generateQRCodeAsDataUrl(publicId, defaultWidth, defaultHeight);
     }
 
+    /**
+     * Generate a QR code for the given user's passport as a Base64-encoded data URL.
+     * Uses the stored allergy mask; the allergies are only loaded if it has not been backfilled yet.
+     *
+     * @param user The user whose passport is encoded
+     * @return Data URL string (data:image/png;base64,...)
+     */
+    public String generateQRCodeAsDataUrl(User user) throws WriterException, IOException {
+        byte[] imageBytes = generateQRCodeImage(user, defaultWidth, defaultHeight).png();
+        return "data:image/png;base64," + Base64.getEncoder().encodeToString(imageBytes);
+    }
+
+    /**
+     * Generate a QR code from already packed passport data as a Base64-encoded data URL
+     * (e.g. the result of an allergy change, without loading the user again).
+     *
+     * @param publicId    The user's public ID
+     * @param allergyMask The user's allergies packed with AllergyMask
+     * @param revision    The passport revision (user update timestamp)
+     * @return Data URL string (data:image/png;base64,...)
+     */
+    public String generateQRCodeAsDataUrl(String publicId, long allergyMask, LocalDateTime revision)
+            throws WriterException, IOException {
+        byte[] imageBytes = renderQRCode(buildQRCodeContent(publicId, allergyMask, revision), defaultWidth, defaultHeight).png();
+        return "data:image/png;base64," + Base64.getEncoder().encodeToString(imageBytes);
+    }
+
     /**
      * Generate a QR code as a Base64-encoded data URL with custom dimensions.
      *
@@ -125,6 +340,75 @@ public class QRCodeService {
         return baseUrl + "/u/" + publicId;
     }
 
+    /**
+     * Build the short URL used in compact QR codes, e.g. HTTP://EXAMPLE.COM/Q/1A2B3C4D.
+     * Resolved by the /Q/{publicId} redirect route.
+     *
+     * @param publicId The user's public ID
+     * @return The short URL
+     */
+    public String buildShortUrl(String publicId) {
+        return shortBaseUrl + "/Q/" + publicId.toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Build the content that is encoded into the QR code, depending on the configured mode.
+     *
+     * @param publicId The user's public ID
+     * @return The URL to encode
+     */
+    public String buildQRCodeContent(String publicId) {
+        return "compact".equalsIgnoreCase(mode) ? buildShortUrl(publicId) : buildPublicUrl(publicId);
+    }
+
+    /**
+     * Build the QR content for a user, including the offline passport payload if enabled.
+     * Uses the stored allergy mask; the allergies are only loaded if it has not been backfilled yet.
+     *
+     * @param user The user whose passport is encoded
+     * @return The URL to encode
+     */
+    public String buildQRCodeContent(User user) {
+        if (!embedPassport) {
+            return buildQRCodeContent(user.getPublicId());
+        }
+        long mask = user.getAllergyMask() != null ? user.getAllergyMask() : AllergyMask.pack(user.getAllergies());
+        return buildQRCodeContent(user.getPublicId(), mask, user.getUpdatedAt());
+    }
+
+    /**
+     * Build the QR content for a passport read model, including the offline passport payload if enabled.
+     *
+     * @param passport The passport to encode
+     * @return The URL to encode
+     */
+    public String buildQRCodeContent(PassportView passport) {
+        return buildQRCodeContent(passport.publicId(), passport.allergyMask(), passport.revision());
+    }
+
+    /**
+     * Build the QR content from already packed passport data (for bulk rendering without entities).
+     *
+     * @param publicId    The user's public ID
+     * @param allergyMask The user's allergies packed with AllergyMask
+     * @param revision    The passport revision (user update timestamp)
+     * @return The URL to encode
+     */
+    public String buildQRCodeContent(String publicId, long allergyMask, LocalDateTime revision) {
+        String url = buildQRCodeContent(publicId);
+        if (!embedPassport) {
+            return url;
+        }
+        return url + "#p=" + PassportPayloadCodec.encode(allergyMask, revision);
+    }
+
+    /**
+     * Whether QR codes embed the allergy list, i.e. depend on more than the public ID.
+     */
+    public boolean isPassportEmbedded() {
+        return embedPassport;
+    }
+
     /**
      * Get the configured base URL.
      */
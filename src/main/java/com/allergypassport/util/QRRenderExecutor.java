@@ -0,0 +1,126 @@
+package com.allergypassport.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded worker pool for CPU-heavy QR code rendering.
+ * <p>
+ * Keeps QR encoding off the Tomcat request threads so bursts of QR requests
+ * cannot starve page rendering. The pool is sized to the CPU cores and has a
+ * fixed queue; when the queue is full, submissions are rejected immediately
+ * so callers can answer with 503 instead of piling up work.
+ * <p>
+ * Exported metrics:
+ * - qr.render.queue.depth  (gauge)   - tasks waiting for a worker
+ * - qr.render.wait         (timer)   - time a task spent in the queue
+ * - qr.render.rejected     (counter) - submissions rejected because the pool was saturated
+ */
+@Component
+public class QRRenderExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(QRRenderExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+    private final Timer waitTimer;
+    private final Counter rejectedCounter;
+    private final int retryAfterSeconds;
+
+    public QRRenderExecutor(MeterRegistry meterRegistry,
+                            @Value("${app.qr.render.threads:0}") int threads,
+                            @Value("${app.qr.render.queue-capacity:64}") int queueCapacity,
+                            @Value("${app.qr.render.retry-after-seconds:2}") int retryAfterSeconds) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.executor = new ThreadPoolExecutor(
+                poolSize, poolSize,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new RenderThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        Gauge.builder("qr.render.queue.depth", executor, e -> e.getQueue().size())
+                .description("QR render tasks waiting for a worker")
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder("qr.render.wait")
+                .description("Time QR render tasks spent queued")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("qr.render.rejected")
+                .description("QR render tasks rejected because the pool was saturated")
+                .register(meterRegistry);
+
+        log.info("QR render pool started with {} threads and queue capacity {}", poolSize, queueCapacity);
+    }
+
+    /**
+     * Submit a render task to the pool.
+     *
+     * @param task The rendering work
+     * @return Future completed with the task result, or exceptionally with the task's exception
+     * @throws RejectedExecutionException if the pool and its queue are full
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long enqueuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                waitTimer.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+                try {
+                    future.complete(task.call());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Number of worker threads.
+     */
+    public int getPoolSize() {
+        return executor.getCorePoolSize();
+    }
+
+    /**
+     * Seconds clients should wait before retrying after a rejection.
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private static class RenderThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "qr-render-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.allergypassport.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The 20 languages supported for public passports and printed cards (restaurants/travel).
+ */
+public final class SupportedLocales {
+
+    // Supported languages for the public view - 20 languages for restaurants/travel
+    public static final List<Locale> ALL = List.of(
+            Locale.ENGLISH,         // en - English
+            new Locale("es"),       // es - Spanish
+            Locale.FRENCH,          // fr - French
+            Locale.GERMAN,          // de - German
+            Locale.ITALIAN,         // it - Italian
+            new Locale("pt"),       // pt - Portuguese
+            new Locale("ru"),       // ru - Russian
+            Locale.SIMPLIFIED_CHINESE,  // zh - Chinese (Simplified)
+            Locale.JAPANESE,        // ja - Japanese
+            Locale.KOREAN,          // ko - Korean
+            new Locale("ar"),       // ar - Arabic
+            new Locale("tr"),       // tr - Turkish
+            new Locale("nl"),       // nl - Dutch
+            new Locale("pl"),       // pl - Polish
+            new Locale("sv"),       // sv - Swedish
+            new Locale("da"),       // da - Danish
+            new Locale("no"),       // no - Norwegian
+            new Locale("fi"),       // fi - Finnish
+            new Locale("el"),       // el - Greek
+            new Locale("hi")        // hi - Hindi
+    );
+
+    // Language code (e.g. "zh") -> supported locale, including aliases browsers send (Norwegian as nb/nn)
+    private static final Map<String, Locale> BY_LANGUAGE = new HashMap<>();
+
+    static {
+        for (Locale locale : ALL) {
+            BY_LANGUAGE.put(locale.getLanguage(), locale);
+        }
+        BY_LANGUAGE.put("nb", BY_LANGUAGE.get("no"));
+        BY_LANGUAGE.put("nn", BY_LANGUAGE.get("no"));
+    }
+
+    private SupportedLocales() {
+    }
+
+    /**
+     * Find the supported locale for a language code or tag ("de", "de-AT", "zh_CN").
+     */
+    public static Optional<Locale> find(String languageTag) {
+        if (languageTag == null || languageTag.isBlank()) {
+            return Optional.empty();
+        }
+        String language = Locale.forLanguageTag(languageTag.trim().replace('_', '-')).getLanguage();
+        return Optional.ofNullable(BY_LANGUAGE.get(language));
+    }
+
+    /**
+     * Pick the supported locale for an Accept-Language header: the highest-weighted supported language,
+     * English if none is supported or the header is missing or invalid.
+     */
+    public static Locale negotiate(String acceptLanguage) {
+        if (acceptLanguage == null || acceptLanguage.isBlank()) {
+            return Locale.ENGLISH;
+        }
+        try {
+            // Ranges are sorted by weight; q=0 means "not acceptable"
+            for (Locale.LanguageRange range : Locale.LanguageRange.parse(acceptLanguage)) {
+                if (range.getWeight() > 0) {
+                    int dash = range.getRange().indexOf('-');
+                    Locale locale = BY_LANGUAGE.get(dash < 0 ? range.getRange() : range.getRange().substring(0, dash));
+                    if (locale != null) {
+                        return locale;
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Malformed header
+        }
+        return Locale.ENGLISH;
+    }
+
+    /**
+     * Parse a comma-separated language list, keeping only supported languages in the given order.
+     */
+    public static List<Locale> parseList(String languageTags) {
+        Set<Locale> locales = new LinkedHashSet<>();
+        if (languageTags != null) {
+            for (String tag : languageTags.split(",")) {
+                find(tag).ifPresent(locales::add);
+            }
+        }
+        return new ArrayList<>(locales);
+    }
+}
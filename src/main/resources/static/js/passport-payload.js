@@ -0,0 +1,93 @@
+/*
+ * Offline passport payload (QR codes generated with app.qr.embed-passport=true carry #p=...).
+ * Used by the public passport page and the offline page served by the service worker (/sw.js).
+ *
+ * Layout must match PassportPayloadCodec:
+ * - version 2: 4-byte word [version:2][mask:30], 5-byte revision (ms since 2024-01-01), CRC-8
+ * - version 1: 4-byte word [version:2][mask:30], 3-byte revision (minutes since 2024-01-01), CRC-8
+ * Revisions are returned in milliseconds for both versions.
+ */
+var PassportPayload = (function () {
+    function decode(encoded, typeCount) {
+        if (!encoded) return null;
+        var binary;
+        try {
+            binary = atob(encoded.replace(/-/g, '+').replace(/_/g, '/'));
+        } catch (e) {
+            return null;
+        }
+        var length = binary.length;
+        if (length !== 10 && length !== 8) return null;
+        var bytes = [], crc = 0, i, bit;
+        for (i = 0; i < length; i++) bytes.push(binary.charCodeAt(i));
+        for (i = 0; i < length - 1; i++) {
+            crc ^= bytes[i];
+            for (bit = 0; bit < 8; bit++) crc = (crc & 0x80) ? ((crc << 1) ^ 0x07) & 0xFF : (crc << 1) & 0xFF;
+        }
+        var version = bytes[0] >>> 6;
+        if (crc !== bytes[length - 1] || version !== (length === 10 ? 2 : 1)) return null;
+        var mask = (((bytes[0] & 0x3F) << 24) | (bytes[1] << 16) | (bytes[2] << 8) | bytes[3]) >>> 0;
+        // Up to 40 bits: plain arithmetic, bit operators are limited to 32 bits
+        var revision = 0;
+        for (i = 4; i < length - 1; i++) revision = revision * 256 + bytes[i];
+        if (version === 1) revision *= 60000;
+        var allergies = [];
+        for (i = 0; i < typeCount; i++) {
+            var code = Math.floor(mask / Math.pow(4, i)) % 4;
+            if (code === 1 || code === 2) allergies.push({ ordinal: i, severe: code === 2 });
+        }
+        return { allergies: allergies, revision: revision };
+    }
+
+    /**
+     * The payload in the current URL fragment, or null.
+     */
+    function fromLocation(typeCount) {
+        var match = /[#&]p=([A-Za-z0-9_-]+)/.exec(window.location.hash);
+        return match ? decode(match[1], typeCount) : null;
+    }
+
+    /**
+     * Replace the contents of a container with the allergy list.
+     * labels: { types: [{emoji, label}] by ordinal, severe, intolerance, none }
+     */
+    function render(container, allergies, labels) {
+        container.textContent = '';
+        if (allergies.length === 0) {
+            var empty = document.createElement('p');
+            empty.className = 'p-8 text-center text-gray-500';
+            empty.textContent = labels.none;
+            container.appendChild(empty);
+            return;
+        }
+        var list = document.createElement('div');
+        list.className = 'divide-y divide-gray-100';
+        allergies.forEach(function (allergy) {
+            var type = labels.types[allergy.ordinal];
+            var card = document.createElement('div');
+            card.className = 'allergy-card p-5 ' + (allergy.severe ? 'severity-severe' : 'severity-intolerance');
+            var row = document.createElement('div');
+            row.className = 'flex items-start space-x-4';
+            var icon = document.createElement('span');
+            icon.className = 'allergy-icon text-3xl';
+            icon.textContent = type.emoji;
+            var body = document.createElement('div');
+            var name = document.createElement('h3');
+            name.className = 'text-lg font-bold ' + (allergy.severe ? 'text-danger-800' : 'text-warning-700');
+            name.textContent = type.label;
+            var badge = document.createElement('div');
+            badge.className = 'badge mt-1 inline-flex items-center px-3 py-1 rounded-full text-sm font-bold text-white '
+                    + (allergy.severe ? 'bg-danger-600' : 'bg-warning-500');
+            badge.textContent = allergy.severe ? labels.severe : '⚠️ ' + labels.intolerance;
+            body.appendChild(name);
+            body.appendChild(badge);
+            row.appendChild(icon);
+            row.appendChild(body);
+            card.appendChild(row);
+            list.appendChild(card);
+        });
+        container.appendChild(list);
+    }
+
+    return { decode: decode, fromLocation: fromLocation, render: render };
+})();
@@ -0,0 +1,40 @@
+/*
+ * Offline shell for public passports.
+ * Passport navigations (/u/..., /Q/...) go to the network; when that fails, the cached offline page
+ * is shown instead. It renders the allergy list from the QR code fragment (#p=..., see
+ * PassportPayloadCodec), which stays in the page URL. Registered by public/passport.html with the
+ * page language (?lang=), so the offline page is cached in that language.
+ */
+var LANG = new URL(self.location).searchParams.get('lang') || 'en';
+var CACHE = 'passport-offline-v1-' + LANG;
+var OFFLINE_PAGE = '/offline/passport/' + LANG;
+var PASSPORT_PATH = /^\/(u|Q|q)\//;
+
+self.addEventListener('install', function (event) {
+    event.waitUntil(caches.open(CACHE)
+        .then(function (cache) { return cache.addAll([OFFLINE_PAGE, '/js/passport-payload.js']); })
+        .then(function () { return self.skipWaiting(); }));
+});
+
+self.addEventListener('activate', function (event) {
+    event.waitUntil(caches.keys()
+        .then(function (keys) {
+            return Promise.all(keys
+                .filter(function (key) { return key.indexOf('passport-offline-') === 0 && key !== CACHE; })
+                .map(function (key) { return caches.delete(key); }));
+        })
+        .then(function () { return self.clients.claim(); }));
+});
+
+self.addEventListener('fetch', function (event) {
+    var request = event.request;
+    if (request.mode === 'navigate' && PASSPORT_PATH.test(new URL(request.url).pathname)) {
+        event.respondWith(fetch(request).catch(function () {
+            return caches.match(OFFLINE_PAGE, { cacheName: CACHE });
+        }));
+    } else if (request.url === new URL('/js/passport-payload.js', self.location).href) {
+        event.respondWith(fetch(request).catch(function () {
+            return caches.match(request, { cacheName: CACHE });
+        }));
+    }
+});
@@ -0,0 +1,44 @@
+package com.allergypassport;
+
+import com.allergypassport.entity.User;
+import com.allergypassport.service.CustomOAuth2User;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.authentication;
+
+/**
+ * Logins of stored users as the app keeps them in the session: a compact CustomOAuth2User in an
+ * OAuth2AuthenticationToken from Google (see SessionAttributeSerializer).
+ */
+public final class TestLogins {
+
+    private TestLogins() {
+    }
+
+    /**
+     * @param user  A stored user
+     * @param roles Authorities in addition to OIDC_USER (e.g. CustomOAuth2User.ROLE_ADMIN)
+     */
+    public static OAuth2AuthenticationToken oauth2Token(User user, String... roles) {
+        List<GrantedAuthority> authorities = new ArrayList<>();
+        authorities.add(new SimpleGrantedAuthority("OIDC_USER"));
+        for (String role : roles) {
+            authorities.add(new SimpleGrantedAuthority(role));
+        }
+        CustomOAuth2User principal = new CustomOAuth2User(user.getId(), user.getPublicId(), user.getGoogleId(), authorities);
+        return new OAuth2AuthenticationToken(principal, authorities, "google");
+    }
+
+    /**
+     * MockMvc request logged in as the user.
+     */
+    public static RequestPostProcessor oauth2Login(User user, String... roles) {
+        return authentication(oauth2Token(user, roles));
+    }
+}
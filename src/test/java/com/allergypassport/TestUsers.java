@@ -0,0 +1,61 @@
+package com.allergypassport;
+
+import com.allergypassport.entity.User;
+import com.allergypassport.repository.UserRepository;
+import com.allergypassport.service.UserService;
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Users of a Spring Boot test that are deleted (with their allergies) after each test.
+ * Register as an instance field:
+ * <pre>
+ * &#64;RegisterExtension
+ * final TestUsers users = new TestUsers();
+ * </pre>
+ */
+public class TestUsers implements BeforeEachCallback, AfterEachCallback {
+
+    private final List<User> created = new ArrayList<>();
+    private ApplicationContext applicationContext;
+
+    @Override
+    public void beforeEach(ExtensionContext context) {
+        applicationContext = SpringExtension.getApplicationContext(context);
+    }
+
+    /**
+     * Sign a user up the way a first Google login does.
+     */
+    public User signUp(String googleId, String displayName) {
+        return track(applicationContext.getBean(UserService.class)
+                .syncGoogleAccount(googleId, googleId + "@example.com", displayName, null));
+    }
+
+    /**
+     * Store a user built by the test (e.g. with allergies).
+     */
+    public User save(User user) {
+        return track(applicationContext.getBean(UserRepository.class).save(user));
+    }
+
+    private User track(User user) {
+        created.add(user);
+        return user;
+    }
+
+    @Override
+    public void afterEach(ExtensionContext context) {
+        UserRepository userRepository = applicationContext.getBean(UserRepository.class);
+        for (User user : created) {
+            userRepository.deleteById(user.getId());
+        }
+        created.clear();
+    }
+}
@@ -0,0 +1,63 @@
+package com.allergypassport.config;
+
+import com.allergypassport.entity.User;
+import com.allergypassport.service.CustomOAuth2User;
+import com.allergypassport.service.UserService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oauth2Login;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class ActuatorSecurityTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Test
+    void metricsRequireLogin() throws Exception {
+        mockMvc.perform(get("/actuator/metrics"))
+                .andExpect(status().is3xxRedirection());
+    }
+
+    @Test
+    void metricsAreForbiddenForRegularUsers() throws Exception {
+        mockMvc.perform(get("/actuator/metrics").with(oauth2Login()))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/actuator/metrics/jvm.memory.used").with(oauth2Login()))
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void metricsAreAvailableToAdministrators() throws Exception {
+        mockMvc.perform(get("/actuator/metrics")
+                        .with(oauth2Login().authorities(new SimpleGrantedAuthority(CustomOAuth2User.ROLE_ADMIN))))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void healthStaysAvailableToLoggedInUsers() throws Exception {
+        mockMvc.perform(get("/actuator/health").with(oauth2Login()))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void adminRoleIsGrantedByConfiguredEmailIgnoringCase() {
+        // app.admin.emails=Admin@Example.com in application-test.properties
+        assertThat(userService.isAdmin(new User("google-1", "admin@example.com", "Admin"))).isTrue();
+        assertThat(userService.isAdmin(new User("google-2", "someone@example.com", "Someone"))).isFalse();
+    }
+}
@@ -0,0 +1,170 @@
+package com.allergypassport.config;
+
+import com.allergypassport.config.RateLimitFilter.RouteClass;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitFilterTest {
+
+    private static final Logger log = LoggerFactory.getLogger(RateLimitFilterTest.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private RateLimitFilter filter(MockEnvironment environment) {
+        return new RateLimitFilter(environment, meterRegistry);
+    }
+
+    private double trackedClients() {
+        return meterRegistry.get("rate.limit.clients").gauge().value();
+    }
+
+    @Test
+    void ipv6ClientsAreLimitedByTheirSlash64() {
+        assertThat(RateLimitFilter.clientKey("2001:db8:1:2:aaaa::1"))
+                .isEqualTo(RateLimitFilter.clientKey("2001:0db8:0001:0002:ffff:ffff:ffff:ffff"))
+                .isEqualTo("20010db800010002/64");
+        assertThat(RateLimitFilter.clientKey("2001:db8:1:3::1")).isNotEqualTo(RateLimitFilter.clientKey("2001:db8:1:2::1"));
+        assertThat(RateLimitFilter.clientKey("203.0.113.7")).isEqualTo("203.0.113.7");
+        assertThat(RateLimitFilter.clientKey("::ffff:203.0.113.7")).isEqualTo("203.0.113.7");
+
+        RateLimitFilter filter = filter(new MockEnvironment()
+                .withProperty("app.rate-limit.passport.capacity", "2"));
+        long now = System.nanoTime();
+        // Rotating through the addresses of one /64 does not get a fresh bucket each time
+        assertThat(filter.tryAcquire(RouteClass.PASSPORT, RateLimitFilter.clientKey("2001:db8::1"), now)).isZero();
+        assertThat(filter.tryAcquire(RouteClass.PASSPORT, RateLimitFilter.clientKey("2001:db8::2"), now)).isZero();
+        assertThat(filter.tryAcquire(RouteClass.PASSPORT, RateLimitFilter.clientKey("2001:db8::3"), now)).isPositive();
+    }
+
+    @Test
+    void bucketCountIsCappedAndActiveClientsKeepTheirBuckets() {
+        RateLimitFilter filter = filter(new MockEnvironment()
+                .withProperty("app.rate-limit.max-buckets", "19200")
+                .withProperty("app.rate-limit.passport.capacity", "2"));
+        long now = System.nanoTime();
+        // An active client whose bucket is empty
+        filter.tryAcquire(RouteClass.PASSPORT, "198.51.100.1", now);
+        filter.tryAcquire(RouteClass.PASSPORT, "198.51.100.1", now);
+
+        for (int i = 0; i < 200_000; i++) {
+            filter.tryAcquire(RouteClass.PASSPORT, "10." + (i >> 16) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff), now);
+        }
+
+        // 64 stripes of 100 buckets per route class
+        assertThat(trackedClients()).isLessThanOrEqualTo(6400);
+        // Fresh single-request buckets were evicted first; the empty one still throttles
+        assertThat(filter.tryAcquire(RouteClass.PASSPORT, "198.51.100.1", now)).isPositive();
+    }
+
+    @Test
+    void evictedBucketsDoNotDependOnHashOrder() {
+        // The same clients in the same order on two filters: with a fixed sample position, the same buckets
+        // would be evicted each time (all are equally full here)
+        List<Boolean> first = survivorsAfterChurn();
+        List<Boolean> second = survivorsAfterChurn();
+
+        assertThat(first).contains(true, false);
+        assertThat(second).isNotEqualTo(first);
+    }
+
+    /**
+     * @return For each of 1,000 clients of a full filter, whether its bucket survived as many new clients
+     */
+    private List<Boolean> survivorsAfterChurn() {
+        RateLimitFilter filter = new RateLimitFilter(new MockEnvironment()
+                .withProperty("app.rate-limit.max-buckets", "19200")
+                .withProperty("app.rate-limit.passport.capacity", "1"), new SimpleMeterRegistry());
+        long now = System.nanoTime();
+        for (int i = 0; i < 6400; i++) {
+            filter.tryAcquire(RouteClass.PASSPORT, "10.0." + (i >> 8) + "." + (i & 0xff), now);
+        }
+        for (int i = 0; i < 6400; i++) {
+            filter.tryAcquire(RouteClass.PASSPORT, "10.1." + (i >> 8) + "." + (i & 0xff), now);
+        }
+        List<Boolean> survivors = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            // A surviving bucket is empty and throttles; an evicted one is recreated full
+            survivors.add(filter.tryAcquire(RouteClass.PASSPORT, "10.0." + (i >> 8) + "." + (i & 0xff), now) > 0);
+        }
+        return survivors;
+    }
+
+    /**
+     * Microbenchmark of the request path (client key plus bucket update): hot clients on several threads plus
+     * a stream of new IPv6 clients pushing the maps to their cap. Measured as CPU time per request of the
+     * slowest thread, which does not depend on the number of cores. The target is under a microsecond;
+     * the best of a few runs is compared, so a busy machine does not fail the build.
+     */
+    @Test
+    void requestPathTakesUnderAMicrosecondUnderContentionAndClientChurn() throws Exception {
+        RateLimitFilter filter = filter(new MockEnvironment().withProperty("app.rate-limit.max-buckets", "20000"));
+        int threads = 4;
+        int perThread = 500_000;
+        String[][] addresses = new String[threads][perThread];
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < perThread; i++) {
+                // Mostly 256 recurring clients, every 8th request from a new IPv6 /64
+                addresses[t][i] = (i & 7) == 0
+                        ? "2001:db8:" + Integer.toHexString(t) + ":" + Integer.toHexString(i) + "::1"
+                        : "192.0.2." + (i & 0xff);
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            run(filter, executor, addresses);  // warm-up
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < 3; round++) {
+                best = Math.min(best, run(filter, executor, addresses));
+            }
+
+            log.info("Rate limit check: {} ns CPU time per request ({} threads, {} CPUs)", Math.round(best), threads,
+                    Runtime.getRuntime().availableProcessors());
+            assertThat(best).isLessThan(1_000);
+            // Concurrent inserts may briefly exceed a stripe's limit by one bucket per thread
+            assertThat(trackedClients()).isLessThanOrEqualTo(20_000 + threads * 64 * 3);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return CPU nanoseconds per request of the slowest thread
+     */
+    private static double run(RateLimitFilter filter, ExecutorService executor, String[][] addresses)
+            throws Exception {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Double>> futures = new ArrayList<>();
+        for (String[] thread : addresses) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                long cpuBefore = threadBean.getCurrentThreadCpuTime();
+                for (int i = 0; i < thread.length; i++) {
+                    filter.tryAcquire(RouteClass.values()[i % 3], RateLimitFilter.clientKey(thread[i]), System.nanoTime());
+                }
+                return (double) (threadBean.getCurrentThreadCpuTime() - cpuBefore) / thread.length;
+            }));
+        }
+        start.countDown();
+        double slowest = 0;
+        for (Future<Double> future : futures) {
+            slowest = Math.max(slowest, future.get(2, TimeUnit.MINUTES));
+        }
+        return slowest;
+    }
+}
@@ -0,0 +1,113 @@
+package com.allergypassport.config;
+
+import com.allergypassport.entity.User;
+import com.allergypassport.repository.UserRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Replica routing against two H2 databases. The replica links the primary's users table, which
+ * stands in for replication without lag.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=" + ReplicaRoutingTest.PRIMARY_URL,
+        "app.datasource.replica.url=" + ReplicaRoutingTest.REPLICA_URL,
+        "app.datasource.replica.username=sa",
+        "app.datasource.replica.password="
+})
+@ActiveProfiles("test")
+class ReplicaRoutingTest {
+
+    static final String PRIMARY_URL =
+            "jdbc:h2:mem:routing-primary;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1";
+    static final String REPLICA_URL =
+            "jdbc:h2:mem:routing-replica;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1";
+    private static final String CURRENT_DATABASE = "SELECT DATABASE()";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ReplicaRoutingDataSource routingDataSource;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate readOnly;
+    private TransactionTemplate readWrite;
+
+    @BeforeEach
+    void linkUsersTable() throws SQLException {
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readWrite = new TransactionTemplate(transactionManager);
+        // The replica pool is read-only, so set up the link over a connection of its own
+        try (Connection connection = DriverManager.getConnection(REPLICA_URL, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS users");
+            statement.execute("CREATE LINKED TABLE users('org.h2.Driver', '" + PRIMARY_URL + "', 'sa', '', 'public', 'users') READONLY");
+        }
+    }
+
+    private String currentDatabase(TransactionTemplate transaction) {
+        return transaction.execute(status -> jdbcTemplate.queryForObject(CURRENT_DATABASE, String.class));
+    }
+
+    @Test
+    void readOnlyTransactionsUseTheReplicaAndWritesThePrimary() {
+        assertThat(currentDatabase(readOnly)).isEqualToIgnoringCase("routing-replica");
+        assertThat(currentDatabase(readWrite)).isEqualToIgnoringCase("routing-primary");
+        assertThat(jdbcTemplate.queryForObject(CURRENT_DATABASE, String.class)).isEqualToIgnoringCase("routing-primary");
+    }
+
+    @Test
+    void onPrimaryForcesReadOnlyTransactionsToThePrimary() {
+        String database = DataSourceRouting.onPrimary(() -> currentDatabase(readOnly));
+
+        assertThat(database).isEqualToIgnoringCase("routing-primary");
+    }
+
+    @Test
+    void sessionStoreUsesThePrimary() {
+        assertThat(new JdbcTemplate(routingDataSource.getPrimary()).queryForObject(CURRENT_DATABASE, String.class))
+                .isEqualToIgnoringCase("routing-primary");
+    }
+
+    @Test
+    void replicaReadsDoNotPopulateTheSecondLevelCache() {
+        User user = userRepository.save(new User("replica-user", "replica@example.com", "Replica"));
+        Cache cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+        cache.evictAllRegions();
+
+        User replicaRead = readOnly.execute(status -> userRepository.findById(user.getId()).orElseThrow());
+        assertThat(replicaRead.getDisplayName()).isEqualTo("Replica");
+        assertThat(cache.containsEntity(User.class, user.getId())).isFalse();
+
+        DataSourceRouting.onPrimary(() -> readOnly.execute(status -> userRepository.findById(user.getId())));
+        assertThat(cache.containsEntity(User.class, user.getId())).isTrue();
+
+        userRepository.deleteById(user.getId());
+    }
+}
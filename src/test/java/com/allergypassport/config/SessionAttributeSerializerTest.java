@@ -0,0 +1,316 @@
+package com.allergypassport.config;
+
+import com.allergypassport.TestLogins;
+import com.allergypassport.TestUsers;
+import com.allergypassport.entity.User;
+import com.allergypassport.service.CustomOAuth2User;
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.serializer.support.SerializingConverter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.user.DefaultOidcUser;
+import org.springframework.security.oauth2.core.oidc.user.OidcUserAuthority;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.session.Session;
+import org.springframework.session.SessionRepository;
+import org.springframework.session.jdbc.JdbcIndexedSessionRepository;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.cookie;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class SessionAttributeSerializerTest {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionAttributeSerializerTest.class);
+
+    private static final String SECURITY_CONTEXT = HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY;
+
+    private final SessionAttributeSerializer serializer = new SessionAttributeSerializer(getClass().getClassLoader());
+
+    @Autowired
+    private SessionRepository<? extends Session> sessionRepository;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @RegisterExtension
+    final TestUsers users = new TestUsers();
+
+    private static SecurityContext loggedIn(long userId, String... authorities) {
+        List<GrantedAuthority> granted = AuthorityUtils.createAuthorityList(authorities);
+        CustomOAuth2User user = new CustomOAuth2User(userId, "4fR9tLq2XbZ", "google-" + userId, granted);
+        return new SecurityContextImpl(new OAuth2AuthenticationToken(user, granted, "google"));
+    }
+
+    private static void assertSameLogin(Object restored, SecurityContext original) {
+        OAuth2AuthenticationToken expected = (OAuth2AuthenticationToken) original.getAuthentication();
+        CustomOAuth2User expectedUser = (CustomOAuth2User) expected.getPrincipal();
+
+        assertThat(restored).isInstanceOf(SecurityContext.class);
+        OAuth2AuthenticationToken token = (OAuth2AuthenticationToken) ((SecurityContext) restored).getAuthentication();
+        assertThat(token.isAuthenticated()).isTrue();
+        assertThat(token.getAuthorizedClientRegistrationId()).isEqualTo("google");
+        assertThat(AuthorityUtils.authorityListToSet(token.getAuthorities()))
+                .isEqualTo(AuthorityUtils.authorityListToSet(expected.getAuthorities()));
+        CustomOAuth2User user = (CustomOAuth2User) token.getPrincipal();
+        assertThat(user.getUserId()).isEqualTo(expectedUser.getUserId());
+        assertThat(user.getPublicId()).isEqualTo(expectedUser.getPublicId());
+        assertThat(user.getGoogleId()).isEqualTo(expectedUser.getGoogleId());
+        assertThat(user.isAdmin()).isEqualTo(expectedUser.isAdmin());
+    }
+
+    @Test
+    void loggedInUsersAreStoredCompactlyAndRestored() {
+        SecurityContext context = loggedIn(42, "OIDC_USER", "SCOPE_email", CustomOAuth2User.ROLE_ADMIN);
+
+        byte[] bytes = serializer.serialize(context);
+
+        assertThat(bytes[0]).isEqualTo((byte) 1);
+        assertThat(bytes.length).isLessThan(128);
+        assertSameLogin(serializer.deserialize(bytes), context);
+    }
+
+    @Test
+    void otherAttributesUseJavaSerialization() {
+        SecurityContext passwordLogin = new SecurityContextImpl(UsernamePasswordAuthenticationToken.authenticated(
+                "someone", null, AuthorityUtils.createAuthorityList("ROLE_USER")));
+
+        for (Object value : List.of(Locale.GERMAN, "/dashboard", passwordLogin)) {
+            byte[] bytes = serializer.serialize(value);
+            assertThat(bytes[0]).isEqualTo((byte) 0xAC);
+            assertThat(serializer.deserialize(bytes)).isEqualTo(value);
+        }
+    }
+
+    @Test
+    void securityContextSurvivesTheJdbcSessionStore() {
+        assertThat(sessionRepository).isInstanceOf(JdbcIndexedSessionRepository.class);
+        storeAndRestore(sessionRepository);
+    }
+
+    private <S extends Session> void storeAndRestore(SessionRepository<S> repository) {
+        SecurityContext context = loggedIn(7, "OIDC_USER");
+        S session = repository.createSession();
+        session.setAttribute(SECURITY_CONTEXT, context);
+        session.setAttribute("locale", Locale.FRENCH);
+        repository.save(session);
+
+        try {
+            S restored = repository.findById(session.getId());
+
+            assertSameLogin(restored.getAttribute(SECURITY_CONTEXT), context);
+            assertThat((Object) restored.getAttribute("locale")).isEqualTo(Locale.FRENCH);
+        } finally {
+            repository.deleteById(session.getId());
+        }
+    }
+
+    /**
+     * A login as produced by CustomOidcUserService: Google's ID token and claims, OIDC and scope authorities.
+     */
+    private static SecurityContext googleLogin(long userId) {
+        User user = new User("109876543210987654321", "jane.doe@gmail.com", "Jane Doe");
+        user.setId(userId);
+        user.setPublicId("7fffffff");
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("iss", "https://accounts.google.com");
+        claims.put("azp", "1234567890-abcdefghijklmnopqrstuvwxyz012345.apps.googleusercontent.com");
+        claims.put("aud", List.of("1234567890-abcdefghijklmnopqrstuvwxyz012345.apps.googleusercontent.com"));
+        claims.put("sub", user.getGoogleId());
+        claims.put("email", user.getEmail());
+        claims.put("email_verified", true);
+        claims.put("at_hash", "HK6E_P6Dh8Y93mRNtsDB1Q");
+        claims.put("name", user.getDisplayName());
+        claims.put("picture", "https://lh3.googleusercontent.com/a/ACg8ocJ1x2y3z4AbCdEfGhIjKlMnOpQrStUvWxYz=s96-c");
+        claims.put("given_name", "Jane");
+        claims.put("family_name", "Doe");
+        claims.put("locale", "de");
+        Instant issuedAt = Instant.parse("2026-10-19T08:00:00Z");
+        claims.put("iat", issuedAt);
+        claims.put("exp", issuedAt.plusSeconds(3600));
+        // Header, claims and RS256 signature of a Google ID token are about 1.2 KB
+        String tokenValue = "eyJhbGciOiJSUzI1NiIsImtpZCI6IjEifQ." + "x".repeat(800) + "." + "s".repeat(342);
+        OidcIdToken idToken = new OidcIdToken(tokenValue, issuedAt, issuedAt.plusSeconds(3600), claims);
+        List<GrantedAuthority> authorities = new ArrayList<>(List.of(new OidcUserAuthority(idToken),
+                new SimpleGrantedAuthority("SCOPE_openid"), new SimpleGrantedAuthority("SCOPE_email"),
+                new SimpleGrantedAuthority("SCOPE_profile")));
+        CustomOAuth2User principal = new CustomOAuth2User(new DefaultOidcUser(authorities, idToken), user);
+        return new SecurityContextImpl(
+                new OAuth2AuthenticationToken(principal, principal.getAuthorities(), "google"));
+    }
+
+    @Test
+    void compactSecurityContextIsAFractionOfTheJavaSerializedOne() {
+        SecurityContext context = googleLogin(42);
+
+        byte[] compact = serializer.serialize(context);
+        byte[] javaSerialized = new SerializingConverter().convert(context);
+
+        log.info("Security context of a Google login: {} bytes compact, {} bytes Java-serialized",
+                compact.length, javaSerialized.length);
+        assertThat(compact.length * 20).isLessThan(javaSerialized.length);
+        assertSameLogin(serializer.deserialize(compact), context);
+    }
+
+    @Test
+    void requestsThatLeaveTheSessionUnchangedOnlyReadIt() throws Exception {
+        User user = users.signUp("session-overhead", "Overhead");
+        Session session = storeLoggedIn(user);
+        Cookie cookie = new Cookie("SESSION",
+                Base64.getEncoder().encodeToString(session.getId().getBytes(StandardCharsets.UTF_8)));
+        jdbcTemplate.execute("SET QUERY_STATISTICS_MAX_ENTRIES 10000");
+        jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+        try {
+            // Warm-up: the first page view may still add attributes (e.g. the CSRF token)
+            mockMvc.perform(get("/dashboard").cookie(cookie)).andExpect(status().isOk());
+            long lastAccess = lastAccessTime(session.getId());
+            Map<String, Long> before = sessionStatementCounts();
+
+            int requests = 20;
+            for (int i = 0; i < requests; i++) {
+                mockMvc.perform(get("/dashboard").cookie(cookie)).andExpect(status().isOk());
+            }
+
+            Map<String, Long> executed = new HashMap<>(sessionStatementCounts());
+            before.forEach((sql, count) -> executed.merge(sql, -count, Long::sum));
+            long reads = countStatements(executed, "SELECT");
+            long attributeWrites = countStatements(executed, "INSERT", "UPDATE SPRING_SESSION_ATTRIBUTES", "DELETE");
+            long touches = countStatements(executed, "UPDATE SPRING_SESSION SET");
+            byte[] storedContext = jdbcTemplate.queryForObject(
+                    "SELECT ATTRIBUTE_BYTES FROM SPRING_SESSION_ATTRIBUTES A JOIN SPRING_SESSION S "
+                            + "ON A.SESSION_PRIMARY_ID = S.PRIMARY_ID WHERE S.SESSION_ID = ? AND A.ATTRIBUTE_NAME = ?",
+                    byte[].class, session.getId(), SECURITY_CONTEXT);
+            log.info("Per request: {} session reads, {} attribute writes, {} touch statements, "
+                            + "{} bytes of security context read (Java-serialized: {})",
+                    (double) reads / requests, (double) attributeWrites / requests, (double) touches / requests,
+                    storedContext.length, new SerializingConverter().convert(googleLogin(user.getId())).length);
+
+            assertThat(attributeWrites).isZero();
+            // Within the touch interval the session row is not even sent
+            assertThat(touches).isZero();
+            assertThat(lastAccessTime(session.getId())).isEqualTo(lastAccess);
+            // Loading the session, plus the expiry check and refresh of ConcurrentSessionFilter (session registry)
+            assertThat(reads).isLessThanOrEqualTo(3L * requests);
+            assertThat(storedContext.length).isLessThan(128);
+        } finally {
+            jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+            sessionRepository.deleteById(session.getId());
+        }
+    }
+
+    @Test
+    void lastAccessIsWrittenOnceTheTouchIntervalHasPassed() throws Exception {
+        User user = users.signUp("session-touch", "Touch");
+        Session session = storeLoggedIn(user);
+        Cookie cookie = new Cookie("SESSION",
+                Base64.getEncoder().encodeToString(session.getId().getBytes(StandardCharsets.UTF_8)));
+        try {
+            // Last accessed two minutes ago (touch interval: one minute)
+            jdbcTemplate.update("UPDATE SPRING_SESSION SET LAST_ACCESS_TIME = LAST_ACCESS_TIME - 120000 "
+                    + "WHERE SESSION_ID = ?", session.getId());
+            long lastAccess = lastAccessTime(session.getId());
+
+            mockMvc.perform(get("/dashboard").cookie(cookie)).andExpect(status().isOk());
+
+            assertThat(lastAccessTime(session.getId())).isGreaterThanOrEqualTo(lastAccess + 120_000);
+        } finally {
+            sessionRepository.deleteById(session.getId());
+        }
+    }
+
+    @Test
+    void logoutExpiresTheSessionCookie() throws Exception {
+        User user = users.signUp("session-logout", "Logout");
+        Session session = storeLoggedIn(user);
+        try {
+            mockMvc.perform(post("/logout").with(csrf()).cookie(new Cookie("SESSION",
+                            Base64.getEncoder().encodeToString(session.getId().getBytes(StandardCharsets.UTF_8)))))
+                    .andExpect(status().is3xxRedirection())
+                    .andExpect(cookie().maxAge("SESSION", 0));
+
+            assertThat(sessionRepository.findById(session.getId())).isNull();
+        } finally {
+            sessionRepository.deleteById(session.getId());
+        }
+    }
+
+    private Session storeLoggedIn(User user) {
+        return storeLoggedIn(sessionRepository, user);
+    }
+
+    private static <S extends Session> S storeLoggedIn(SessionRepository<S> repository, User user) {
+        S session = repository.createSession();
+        session.setAttribute(SECURITY_CONTEXT, new SecurityContextImpl(TestLogins.oauth2Token(user)));
+        repository.save(session);
+        return session;
+    }
+
+    private long lastAccessTime(String sessionId) {
+        return jdbcTemplate.queryForObject(
+                "SELECT LAST_ACCESS_TIME FROM SPRING_SESSION WHERE SESSION_ID = ?", Long.class, sessionId);
+    }
+
+    // Execution counts of the statements on the session tables (H2 query statistics), without the expiry cleanup.
+    // RAND() keeps H2 from returning the previous result when no table changed in between.
+    private Map<String, Long> sessionStatementCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        jdbcTemplate.query("SELECT SQL_STATEMENT, EXECUTION_COUNT FROM INFORMATION_SCHEMA.QUERY_STATISTICS WHERE RAND() >= 0",
+                row -> {
+                    String sql = row.getString(1);
+                    if (sql.toUpperCase(Locale.ROOT).contains("SPRING_SESSION") && !sql.contains("EXPIRY_TIME <")
+                            && !sql.contains("QUERY_STATISTICS")) {
+                        counts.put(sql, row.getLong(2));
+                    }
+                });
+        return counts;
+    }
+
+    private static long countStatements(Map<String, Long> executed, String... keywords) {
+        return executed.entrySet().stream()
+                .filter(entry -> {
+                    String sql = entry.getKey().strip().replaceAll("\\s+", " ").toUpperCase(Locale.ROOT);
+                    for (String keyword : keywords) {
+                        if (sql.startsWith(keyword)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                })
+                .mapToLong(Map.Entry::getValue)
+                .sum();
+    }
+}
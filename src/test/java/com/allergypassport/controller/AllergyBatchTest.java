@@ -0,0 +1,161 @@
+package com.allergypassport.controller;
+
+import com.allergypassport.TestUsers;
+import com.allergypassport.entity.AllergySeverity;
+import com.allergypassport.entity.AllergyType;
+import com.allergypassport.entity.User;
+import com.allergypassport.entity.UserAllergy;
+import com.allergypassport.service.UserService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.allergypassport.TestLogins.oauth2Login;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class AllergyBatchTest {
+
+    private static final Logger log = LoggerFactory.getLogger(AllergyBatchTest.class);
+
+    private static final int ROUNDS = 5;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @RegisterExtension
+    final TestUsers users = new TestUsers();
+
+    private User user;
+
+    @BeforeEach
+    void createUser() {
+        User created = new User("batch-user", "batch@example.com", "Batch");
+        created.addAllergy(new UserAllergy(created, AllergyType.PEANUTS, AllergySeverity.INTOLERANCE));
+        created.addAllergy(new UserAllergy(created, AllergyType.DAIRY, AllergySeverity.SEVERE));
+        user = users.save(created);
+    }
+
+    @Test
+    void appliesAllChangesWithBatchedInserts() throws Exception {
+        // Every type at SEVERE, except DAIRY which is removed by its last change
+        String changes = Arrays.stream(AllergyType.values())
+                .map(type -> "{\"allergyType\":\"" + type + "\",\"severity\":\"SEVERE\"}")
+                .collect(Collectors.joining(",", "", ",{\"allergyType\":\"DAIRY\"}"));
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        mockMvc.perform(put("/api/allergies")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"changes\":[" + changes + "]}")
+                        .with(oauth2Login(user)))
+                .andExpect(status().isOk())
+                .andExpect(view().name("fragments/allergies :: allergyList"));
+
+        int inserted = AllergyType.values().length - 2;
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(inserted);
+        // One prepared insert for the whole batch, so far fewer statements than inserted rows
+        assertThat(statistics.getPrepareStatementCount()).isLessThan(inserted);
+
+        List<UserAllergy> allergies = userService.getUserAllergies(user.getId());
+        assertThat(allergies).hasSize(AllergyType.values().length - 1);
+        assertThat(allergies).extracting(UserAllergy::getAllergyType).doesNotContain(AllergyType.DAIRY);
+        assertThat(allergies).extracting(UserAllergy::getSeverity).containsOnly(AllergySeverity.SEVERE);
+    }
+
+    /** Statements, transactions and time of setting up a passport with all 15 allergy types. */
+    private record Setup(long statements, long transactions, double millis) {
+    }
+
+    // Before the batch endpoint: one HTMX request (and transaction) per allergy
+    private Setup setUpOneByOne(User target) throws Exception {
+        return measure(() -> {
+            for (AllergyType type : AllergyType.values()) {
+                mockMvc.perform(post("/api/allergies")
+                                .param("allergyType", type.name())
+                                .param("severity", "SEVERE")
+                                .with(oauth2Login(target)))
+                        .andExpect(status().isOk());
+            }
+        });
+    }
+
+    private Setup setUpInOneBatch(User target) throws Exception {
+        String changes = Arrays.stream(AllergyType.values())
+                .map(type -> "{\"allergyType\":\"" + type + "\",\"severity\":\"SEVERE\"}")
+                .collect(Collectors.joining(","));
+        return measure(() -> mockMvc.perform(put("/api/allergies")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"changes\":[" + changes + "]}")
+                        .with(oauth2Login(target)))
+                .andExpect(status().isOk()));
+    }
+
+    private interface Requests {
+        void run() throws Exception;
+    }
+
+    private Setup measure(Requests requests) throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        long started = System.nanoTime();
+        requests.run();
+        double millis = (System.nanoTime() - started) / 1_000_000.0;
+        return new Setup(statistics.getPrepareStatementCount(), statistics.getTransactionCount(), millis);
+    }
+
+    @Test
+    void fifteenAllergySetupBeforeAndAfterTheBatchEndpoint() throws Exception {
+        Setup oneByOne = null;
+        Setup batch = null;
+        double oneByOneMillis = 0;
+        double batchMillis = 0;
+        // The first round warms up both paths and is not timed
+        for (int round = 0; round <= ROUNDS; round++) {
+            User first = users.save(new User("setup-single-" + round, "single@example.com", "Single"));
+            User second = users.save(new User("setup-batch-" + round, "batch@example.com", "Batch"));
+            oneByOne = setUpOneByOne(first);
+            batch = setUpInOneBatch(second);
+            assertThat(userService.getUserAllergies(first.getId())).hasSize(AllergyType.values().length);
+            assertThat(userService.getUserAllergies(second.getId())).hasSize(AllergyType.values().length);
+            if (round > 0) {
+                oneByOneMillis += oneByOne.millis() / ROUNDS;
+                batchMillis += batch.millis() / ROUNDS;
+            }
+        }
+        log.info("15-allergy setup one by one: {} statements, {} transactions, {} ms",
+                oneByOne.statements(), oneByOne.transactions(), String.format("%.1f", oneByOneMillis));
+        log.info("15-allergy setup in one batch: {} statements, {} transactions, {} ms",
+                batch.statements(), batch.transactions(), String.format("%.1f", batchMillis));
+
+        assertThat(batch.transactions()).isLessThan(oneByOne.transactions());
+        assertThat(batch.statements() * 4).isLessThan(oneByOne.statements());
+    }
+}
@@ -0,0 +1,51 @@
+package com.allergypassport.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class OfflinePassportTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void offlinePageIsPublicLocalizedAndCacheable() throws Exception {
+        mockMvc.perform(get("/offline/passport/de"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", containsString("public")))
+                .andExpect(content().string(containsString("Sie sind offline")))
+                .andExpect(content().string(containsString("/js/passport-payload.js")))
+                .andExpect(request().sessionAttributeDoesNotExist("SPRING_SECURITY_CONTEXT"));
+    }
+
+    @Test
+    void unsupportedLanguageIsNotFound() throws Exception {
+        mockMvc.perform(get("/offline/passport/xx"))
+                .andExpect(view().name("error/404"));
+    }
+
+    @Test
+    void serviceWorkerAndDecoderAreServedAnonymously() throws Exception {
+        mockMvc.perform(get("/sw.js"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("/offline/passport/")));
+        mockMvc.perform(get("/js/passport-payload.js"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("PassportPayload")));
+    }
+}
@@ -0,0 +1,75 @@
+package com.allergypassport.controller;
+
+import com.allergypassport.TestUsers;
+import com.allergypassport.entity.User;
+import com.allergypassport.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class PageVersionTest {
+
+    private static final String[] TEMPLATES = {"classpath*:templates/**/*.html"};
+    private static final String[] TEMPLATES_AND_MESSAGES = {"classpath*:templates/**/*.html", "classpath*:i18n/*.properties"};
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private PageVersion pageVersion;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @RegisterExtension
+    final TestUsers users = new TestUsers();
+
+    @Test
+    void versionOnlyDependsOnTheBuild() {
+        // Two instances of the same build
+        assertThat(PageVersion.compute("1.2.0", TEMPLATES_AND_MESSAGES))
+                .isEqualTo(PageVersion.compute("1.2.0", TEMPLATES_AND_MESSAGES))
+                .matches("[0-9a-f]{12}");
+        assertThat(PageVersion.compute("1.3.0", TEMPLATES_AND_MESSAGES))
+                .isNotEqualTo(PageVersion.compute("1.2.0", TEMPLATES_AND_MESSAGES));
+        assertThat(PageVersion.compute("1.2.0", TEMPLATES))
+                .isNotEqualTo(PageVersion.compute("1.2.0", TEMPLATES_AND_MESSAGES));
+    }
+
+    @Test
+    void passportPageETagUsesThePageVersionAndRevalidates() throws Exception {
+        User user = users.signUp("etag-test", "ETag Test");
+        String eTag = mockMvc.perform(get("/u/{publicId}/en", user.getPublicId()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        User stored = userRepository.findById(user.getId()).orElseThrow();
+        long revisionMicros = ChronoUnit.MICROS.between(LocalDateTime.of(1970, 1, 1, 0, 0), stored.getUpdatedAt());
+        assertThat(eTag).isEqualTo("\"" + pageVersion.get() + "-" + revisionMicros + "-" + stored.getAvatarVersion() + "-en\"");
+
+        mockMvc.perform(get("/u/{publicId}/en", user.getPublicId()).header("If-None-Match", eTag))
+                .andExpect(status().isNotModified());
+
+        // QR codes: a content hash prefix and the size
+        MvcResult qr = mockMvc.perform(get("/qr/{publicId}", user.getPublicId())).andReturn();
+        String qrETag = mockMvc.perform(asyncDispatch(qr))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertThat(qrETag).matches("\"[0-9a-f]{24}-300\"");
+    }
+}
@@ -0,0 +1,109 @@
+package com.allergypassport.controller;
+
+import com.allergypassport.TestUsers;
+import com.allergypassport.entity.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Load test of anonymous scans in a real servlet container: 10k scans of a passport through the stateless
+ * public chain, compared with as many anonymous requests through the session-based login chain (how every
+ * scan with ?lang= was handled before). Each request comes from a new client without cookies, like a phone
+ * scanning a printed code. Reports session rows and retained heap per request.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "app.rate-limit.enabled=false")
+@ActiveProfiles("test")
+class PublicRoutesLoadTest {
+
+    private static final Logger log = LoggerFactory.getLogger(PublicRoutesLoadTest.class);
+
+    private static final int SCANS = 10_000;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @RegisterExtension
+    final TestUsers users = new TestUsers();
+
+    private final HttpClient client = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NEVER).build();
+
+    private User user;
+
+    @BeforeEach
+    void createUser() {
+        user = users.signUp("load-test", "Load Test");
+    }
+
+    @AfterEach
+    void deleteSessions() {
+        jdbcTemplate.update("DELETE FROM SPRING_SESSION");
+    }
+
+    /** Session rows and retained heap added by a number of requests to one path. */
+    private record Load(int sessions, long heapBytes) {
+    }
+
+    private Load scan(String path, int expectedStatus) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build();
+        // Warm-up (template and page caches), not counted
+        for (int i = 0; i < 200; i++) {
+            client.send(request, HttpResponse.BodyHandlers.discarding());
+        }
+        int sessionsBefore = sessionCount();
+        long heapBefore = usedHeapAfterGc();
+        for (int i = 0; i < SCANS; i++) {
+            assertThat(client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode())
+                    .isEqualTo(expectedStatus);
+        }
+        return new Load(sessionCount() - sessionsBefore, usedHeapAfterGc() - heapBefore);
+    }
+
+    private int sessionCount() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM SPRING_SESSION", Integer.class);
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    @Test
+    void tenThousandAnonymousScansCreateNoSessionsAndRetainNoHeap() throws Exception {
+        Load stateless = scan("/u/" + user.getPublicId() + "/de", 200);
+        Load sessionBased = scan("/dashboard?lang=de", 302);
+
+        log.info("{} anonymous scans, stateless chain: {} sessions, {} bytes heap per scan",
+                SCANS, stateless.sessions(), stateless.heapBytes() / SCANS);
+        log.info("{} anonymous requests, login chain: {} sessions, {} bytes heap per request",
+                SCANS, sessionBased.sessions(), sessionBased.heapBytes() / SCANS);
+
+        assertThat(stateless.sessions()).isZero();
+        assertThat(sessionBased.sessions()).isEqualTo(SCANS);
+        // Allows for measurement noise of a few megabytes; a session per scan would be far above this
+        assertThat(stateless.heapBytes() / SCANS).isLessThan(512);
+    }
+}
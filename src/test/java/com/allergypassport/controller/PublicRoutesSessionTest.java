@@ -0,0 +1,103 @@
+package com.allergypassport.controller;
+
+import com.allergypassport.TestUsers;
+import com.allergypassport.entity.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.cookie;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrl;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Anonymous scans of public passports must not create HTTP sessions (stored in the SPRING_SESSION table).
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class PublicRoutesSessionTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @RegisterExtension
+    final TestUsers users = new TestUsers();
+
+    private User user;
+
+    @BeforeEach
+    void createUser() {
+        user = users.signUp("session-test", "Session Test");
+    }
+
+    private int sessionCount() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM SPRING_SESSION", Integer.class);
+    }
+
+    @Test
+    void anonymousScansCreateNoSessions() throws Exception {
+        String publicId = user.getPublicId();
+        int before = sessionCount();
+
+        for (int i = 0; i < 200; i++) {
+            // Many scanning phones, so the rate limit does not apply
+            String remoteAddr = "198.51.100." + i;
+            MvcResult result = mockMvc.perform(get("/u/{publicId}/de", publicId)
+                            .with(request -> {
+                                request.setRemoteAddr(remoteAddr);
+                                return request;
+                            }))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            assertThat(result.getResponse().getCookie("SESSION")).isNull();
+        }
+        // Legacy ?lang= links switch the language through the cookie, not the session
+        mockMvc.perform(get("/u/{publicId}", publicId).param("lang", "de"))
+                .andExpect(redirectedUrl("/u/" + publicId + "/de"))
+                .andExpect(cookie().value("locale", "de"))
+                .andExpect(header().string("Cache-Control", "max-age=3600, private"))
+                .andExpect(cookie().doesNotExist("SESSION"));
+        mockMvc.perform(get("/u/{publicId}", publicId))
+                .andExpect(redirectedUrl("/u/" + publicId + "/en"))
+                .andExpect(header().string("Cache-Control", "max-age=3600, public"))
+                .andExpect(cookie().doesNotExist("locale"));
+        mockMvc.perform(get("/Q/{shortId}", publicId.toUpperCase(Locale.ROOT)))
+                .andExpect(status().is3xxRedirection())
+                .andExpect(cookie().doesNotExist("SESSION"));
+        mockMvc.perform(get("/qr/{publicId}", publicId))
+                .andExpect(status().isOk())
+                .andExpect(cookie().doesNotExist("SESSION"));
+        mockMvc.perform(get("/u/{publicId}/de", "00000000"))
+                .andExpect(cookie().doesNotExist("SESSION"));
+
+        assertThat(sessionCount()).isEqualTo(before);
+    }
+
+    @Test
+    void loginChainStillUsesSessions() throws Exception {
+        int before = sessionCount();
+
+        // The original request is saved in the session so the login can return to it
+        mockMvc.perform(get("/dashboard"))
+                .andExpect(status().is3xxRedirection())
+                .andExpect(cookie().exists("SESSION"));
+
+        assertThat(sessionCount()).isEqualTo(before + 1);
+    }
+}
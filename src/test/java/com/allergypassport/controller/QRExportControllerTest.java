@@ -0,0 +1,69 @@
+package com.allergypassport.controller;
+
+import com.allergypassport.TestUsers;
+import com.allergypassport.entity.User;
+import com.allergypassport.service.CustomOAuth2User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static com.allergypassport.TestLogins.oauth2Login;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class QRExportControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @RegisterExtension
+    final TestUsers users = new TestUsers();
+
+    private User owner;
+    private User other;
+
+    @BeforeEach
+    void createUsers() {
+        owner = users.save(new User("qr-owner", "owner@example.com", "Owner"));
+        other = users.save(new User("qr-other", "other@example.com", "Other"));
+    }
+
+    @Test
+    void usersMayExportTheirOwnPassport() throws Exception {
+        var result = mockMvc.perform(post("/api/qr/export").param("publicIds", owner.getPublicId()).with(oauth2Login(owner)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "application/zip"));
+    }
+
+    @Test
+    void usersMayNotExportOtherPassports() throws Exception {
+        mockMvc.perform(post("/api/qr/export").param("publicIds", other.getPublicId()).with(oauth2Login(owner)))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(post("/api/qr/export")
+                        .param("publicIds", owner.getPublicId() + "," + other.getPublicId())
+                        .with(oauth2Login(owner)))
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void administratorsMayExportAnyPassports() throws Exception {
+        mockMvc.perform(post("/api/qr/export")
+                        .param("publicIds", owner.getPublicId() + "," + other.getPublicId())
+                        .with(oauth2Login(owner, CustomOAuth2User.ROLE_ADMIN)))
+                .andExpect(request().asyncStarted());
+    }
+}
@@ -0,0 +1,116 @@
+package com.allergypassport.repository;
+
+import com.allergypassport.entity.AllergySeverity;
+import com.allergypassport.entity.AllergyType;
+import com.allergypassport.entity.User;
+import com.allergypassport.entity.UserAllergy;
+import com.allergypassport.service.UserService;
+import com.allergypassport.util.AllergyMask;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class SecondLevelCacheTest {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private SessionFactory sessionFactory;
+    private Statistics statistics;
+    private User user;
+
+    @BeforeEach
+    void createUser() {
+        sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        statistics = sessionFactory.getStatistics();
+        user = userRepository.save(new User("cache-user", "cache@example.com", "Before"));
+        sessionFactory.getCache().evictAllRegions();
+    }
+
+    @AfterEach
+    void deleteUser() {
+        userRepository.deleteById(user.getId());
+    }
+
+    private User load() {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            User loaded = userRepository.findById(user.getId()).orElseThrow();
+            loaded.getAllergies().size();
+            return loaded;
+        });
+    }
+
+    private static List<AllergyType> typesOf(User user) {
+        return user.getAllergies().stream().map(UserAllergy::getAllergyType).toList();
+    }
+
+    @Test
+    void secondLoadIsServedFromTheCache() {
+        load();
+        statistics.clear();
+
+        load();
+
+        assertThat(statistics.getPrepareStatementCount()).isZero();
+        assertThat(statistics.getSecondLevelCacheHitCount()).isGreaterThanOrEqualTo(2);  // user and its allergies
+    }
+
+    @Test
+    void profileChangeReplacesTheCachedUser() {
+        load();
+
+        userService.updateProfile(user.getId(), "After", null);
+
+        assertThat(load().getDisplayName()).isEqualTo("After");
+    }
+
+    @Test
+    void allergyChangeEvictsTheCachedCollection() {
+        assertThat(typesOf(load())).isEmpty();
+
+        userService.saveAllergy(user.getId(), AllergyType.EGGS, AllergySeverity.SEVERE, null);
+        assertThat(typesOf(load())).containsExactly(AllergyType.EGGS);
+
+        userService.removeAllergy(user.getId(), AllergyType.EGGS);
+        assertThat(typesOf(load())).isEmpty();
+    }
+
+    @Test
+    void profileChangeFromAStaleCachedUserKeepsTheStoredMask() {
+        load();
+        // Another instance changed the allergies; its invalidation has not arrived yet
+        long mask = AllergyMask.with(0L, AllergyType.PEANUTS, AllergySeverity.SEVERE);
+        jdbcTemplate.update("UPDATE users SET allergy_mask = ? WHERE id = ?", mask, user.getId());
+
+        userService.updateProfile(user.getId(), "After", null);
+
+        assertThat(userRepository.findAllergyMask(user.getId())).isEqualTo(mask);
+    }
+}
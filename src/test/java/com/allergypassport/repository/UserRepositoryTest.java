@@ -0,0 +1,52 @@
+package com.allergypassport.repository;
+
+import com.allergypassport.entity.User;
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@ActiveProfiles("test")
+class UserRepositoryTest {
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void resetStatistics() {
+        statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+    }
+
+    @Test
+    void legacyProfilePictureIsNotLoadedWithTheUser() {
+        User user = new User("lazy-lob", "lazy@example.com", "Lazy Lob");
+        user.setProfilePicture(new byte[256 * 1024]);
+        Long id = entityManager.persistAndFlush(user).getId();
+        entityManager.clear();
+        statistics.clear();
+
+        User loaded = userRepository.findById(id).orElseThrow();
+
+        assertThat(Hibernate.isPropertyInitialized(loaded, "profilePicture")).isFalse();
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+        // Only reading the attribute fetches the LOB, with a separate statement
+        assertThat(loaded.getProfilePicture()).hasSize(256 * 1024);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,74 @@
+package com.allergypassport.service;
+
+import com.allergypassport.entity.User;
+import com.allergypassport.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AvatarServiceTest {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final BlobStoreService blobStoreService = mock(BlobStoreService.class);
+
+    private AvatarService service() {
+        AvatarService service = new AvatarService(userRepository, blobStoreService,
+                mock(ProfilePictureVariantService.class), mock(PassportViewService.class),
+                mock(ScheduledJobLock.class), mock(PlatformTransactionManager.class), 16);
+        ReflectionTestUtils.setField(service, "refreshInterval", Duration.ofDays(7));
+        return service;
+    }
+
+    @AfterEach
+    void clearInterrupt() {
+        Thread.interrupted();
+    }
+
+    @Test
+    void onlyHttpsGooglePictureHostsAreFetched() {
+        assertThat(AvatarService.isGooglePictureUrl(URI.create("https://lh3.googleusercontent.com/a/abc=s96-c"))).isTrue();
+        assertThat(AvatarService.isGooglePictureUrl(URI.create("http://lh3.googleusercontent.com/a/abc"))).isFalse();
+        assertThat(AvatarService.isGooglePictureUrl(URI.create("https://googleusercontent.com.evil.example/a"))).isFalse();
+        assertThat(AvatarService.isGooglePictureUrl(URI.create("https://lh3.googleusercontent.com@169.254.169.254/"))).isFalse();
+        // Relative redirect targets resolve against the (already checked) current URL
+        assertThat(AvatarService.isGooglePictureUrl(
+                URI.create("https://lh3.googleusercontent.com/a/abc").resolve("/a/def"))).isTrue();
+        assertThat(AvatarService.isGooglePictureUrl(
+                URI.create("https://lh3.googleusercontent.com/a/abc").resolve("//metadata.internal/"))).isFalse();
+    }
+
+    @Test
+    void interruptStopsTheRefreshInsteadOfLoopingOverTheSameBatch() {
+        List<User> batch = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            User user = new User("google-" + i, "user" + i + "@example.com", "User " + i);
+            ReflectionTestUtils.setField(user, "id", (long) i + 1);
+            user.setGooglePictureUrl("https://lh3.googleusercontent.com/a/picture-" + i);
+            batch.add(user);
+        }
+        when(userRepository.findGooglePicturesToRefresh(any(LocalDateTime.class), any(Pageable.class))).thenReturn(batch);
+
+        Thread.currentThread().interrupt();
+        service().refreshDueGooglePictures();
+
+        assertThat(Thread.currentThread().isInterrupted()).isTrue();
+        verify(userRepository, times(1)).findGooglePicturesToRefresh(any(LocalDateTime.class), any(Pageable.class));
+        verify(userRepository, never()).updateGooglePicture(any(), any(), any());
+    }
+}
@@ -0,0 +1,85 @@
+package com.allergypassport.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BlobStoreServiceTest {
+
+    private static final Duration GRACE = Duration.ofHours(1);
+
+    @TempDir
+    Path uploadDir;
+
+    private BlobStoreService store;
+
+    @BeforeEach
+    void createStore() throws IOException {
+        store = new BlobStoreService();
+        ReflectionTestUtils.setField(store, "uploadDir", uploadDir.toString());
+        store.init();
+    }
+
+    private String storeAged(String content) throws IOException {
+        String key = store.store(content.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(store.find(key).orElseThrow(), FileTime.from(Instant.now().minus(Duration.ofDays(1))));
+        return key;
+    }
+
+    @Test
+    void deletesOnlyUnreferencedBlobsOlderThanTheGracePeriod() throws IOException {
+        String orphan = storeAged("orphan");
+        Path variant = store.createTempFile();
+        store.storeDerived(orphan, "96", variant);
+        String referenced = storeAged("referenced");
+        String fresh = store.store("fresh".getBytes(StandardCharsets.UTF_8));
+
+        int deleted = store.collectGarbage(GRACE, referenced::equals);
+
+        assertThat(deleted).isEqualTo(1);
+        assertThat(store.find(orphan)).isEmpty();
+        assertThat(store.findDerived(orphan, "96")).isEmpty();
+        assertThat(store.find(referenced)).isPresent();
+        assertThat(store.find(fresh)).isPresent();
+    }
+
+    @Test
+    void storingExistingContentAgainRestartsTheGracePeriod() throws IOException {
+        String key = storeAged("shared");
+
+        store.store("shared".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(store.collectGarbage(GRACE, hash -> false)).isZero();
+        assertThat(store.find(key)).isPresent();
+    }
+
+    @Test
+    void blobStoredWhileReferencesAreCheckedSurvives() throws IOException {
+        String key = storeAged("shared");
+
+        // Another user uploads the same picture between the age check and the reference check
+        int deleted = store.collectGarbage(GRACE, hash -> {
+            try {
+                store.store("shared".getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return false;
+        });
+
+        assertThat(deleted).isZero();
+        assertThat(store.find(key)).isPresent();
+        assertThat(Files.readString(store.find(key).orElseThrow())).isEqualTo("shared");
+    }
+}
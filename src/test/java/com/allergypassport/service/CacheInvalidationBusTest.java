@@ -0,0 +1,178 @@
+package com.allergypassport.service;
+
+import com.allergypassport.entity.User;
+import com.allergypassport.service.CacheInvalidationBus.InvalidationEvent;
+import com.allergypassport.service.CacheInvalidationBus.PassportChange;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Two bus instances ("nodes") on one real PostgreSQL. Skipped when no Docker daemon is available.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class CacheInvalidationBusTest {
+
+    private static final Duration COALESCE_WINDOW = Duration.ofMillis(500);
+
+    @Container
+    private static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private JdbcTemplate jdbcTemplate;
+    private Node nodeA;
+    private Node nodeB;
+
+    /** One instance: its bus, the events it published locally and its (mocked) second-level cache. */
+    private record Node(CacheInvalidationBus bus, BlockingQueue<Object> events, Cache cache) {
+    }
+
+    @BeforeEach
+    void startNodes() throws InterruptedException {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        nodeA = startNode(dataSource, "listener-a");
+        nodeB = startNode(dataSource, "listener-b");
+        awaitListening("listener-a");
+        awaitListening("listener-b");
+    }
+
+    @AfterEach
+    void stopNodes() throws InterruptedException {
+        nodeA.bus().stop();
+        nodeB.bus().stop();
+        // The listeners notice within a poll interval; the next test must not see them
+        for (int i = 0; i < 50 && listeners("listener-a") + listeners("listener-b") > 0; i++) {
+            Thread.sleep(100);
+        }
+    }
+
+    private Node startNode(DriverManagerDataSource dataSource, String listenerName) {
+        // The listener connection is tagged so the test can find and kill it
+        DataSourceProperties properties = new DataSourceProperties();
+        properties.setUrl(postgres.getJdbcUrl() + "&ApplicationName=" + listenerName);
+        properties.setUsername(postgres.getUsername());
+        properties.setPassword(postgres.getPassword());
+
+        Cache cache = mock(Cache.class);
+        SessionFactory sessionFactory = mock(SessionFactory.class);
+        when(sessionFactory.getCache()).thenReturn(cache);
+        EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
+        when(entityManagerFactory.unwrap(SessionFactory.class)).thenReturn(sessionFactory);
+
+        BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        CacheInvalidationBus bus = new CacheInvalidationBus(new JdbcTemplate(dataSource),
+                new DataSourceTransactionManager(dataSource), properties, events::add, entityManagerFactory);
+        ReflectionTestUtils.setField(bus, "enabled", true);
+        ReflectionTestUtils.setField(bus, "coalesceWindow", COALESCE_WINDOW);
+        ReflectionTestUtils.setField(bus, "reconnectDelay", Duration.ofMillis(100));
+        bus.start();
+        return new Node(bus, events, cache);
+    }
+
+    private void awaitListening(String listenerName) throws InterruptedException {
+        for (int i = 0; i < 100 && listeners(listenerName) == 0; i++) {
+            Thread.sleep(100);
+        }
+        assertThat(listeners(listenerName)).isEqualTo(1);
+    }
+
+    private int listeners(String listenerName) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM pg_stat_activity "
+                + "WHERE application_name = ? AND query LIKE 'LISTEN %'", Integer.class, listenerName);
+    }
+
+    private static InvalidationEvent next(Node node) throws InterruptedException {
+        Object event = node.events().poll(10, TimeUnit.SECONDS);
+        assertThat(event).as("invalidation event").isInstanceOf(InvalidationEvent.class);
+        return (InvalidationEvent) event;
+    }
+
+    private static LocalDateTime revision(int seconds) {
+        return LocalDateTime.of(2026, 1, 1, 12, 0).plusSeconds(seconds).plus(123_456, ChronoUnit.MICROS);
+    }
+
+    @Test
+    void otherNodesReceiveAChangeAndEvictIt() throws InterruptedException {
+        nodeA.bus().publish(42, "4fR9tLq2XbZ", revision(1));
+
+        InvalidationEvent event = next(nodeB);
+        assertThat(event.flushAll()).isFalse();
+        assertThat(event.changes()).containsExactly(new PassportChange(42, "4fR9tLq2XbZ", revision(1)));
+        verify(nodeB.cache()).evictEntityData(User.class, 42L);
+        verify(nodeB.cache()).evictCollectionData(User.class.getName() + ".allergies", 42L);
+    }
+
+    @Test
+    void ownEventsAreIgnored() throws InterruptedException {
+        nodeA.bus().publish(42, "4fR9tLq2XbZ", revision(1));
+
+        next(nodeB);
+        // B has dispatched, so A has had the notification for at least as long
+        assertThat(nodeA.events().poll(COALESCE_WINDOW.toMillis() * 2, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    void burstsAreCoalescedToTheNewestRevisionPerPassport() throws InterruptedException {
+        for (int i = 1; i <= 20; i++) {
+            nodeA.bus().publish(42, "4fR9tLq2XbZ", revision(i));
+        }
+        nodeA.bus().publish(43, "0Zx81LmQ2pW", revision(5));
+        nodeA.bus().publish(42, "4fR9tLq2XbZ", revision(3));
+
+        InvalidationEvent event = next(nodeB);
+        assertThat(event.changes()).containsExactly(
+                new PassportChange(42, "4fR9tLq2XbZ", revision(20)),
+                new PassportChange(43, "0Zx81LmQ2pW", revision(5)));
+        assertThat(nodeB.events().poll(COALESCE_WINDOW.toMillis() * 2, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    void unknownRevisionsWinWhenCoalescing() throws InterruptedException {
+        nodeA.bus().publish(42, "4fR9tLq2XbZ", revision(2));
+        nodeA.bus().publish(42, "4fR9tLq2XbZ", null);
+        nodeA.bus().publish(42, "4fR9tLq2XbZ", revision(3));
+
+        assertThat(next(nodeB).changes()).containsExactly(new PassportChange(42, "4fR9tLq2XbZ", null));
+    }
+
+    @Test
+    void aDroppedListenerConnectionFlushesAllCachesAndReconnects() throws InterruptedException {
+        jdbcTemplate.queryForList("SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE application_name = ?",
+                "listener-b");
+
+        // Once when the connection fails and once after reconnecting
+        assertThat(next(nodeB).flushAll()).isTrue();
+        assertThat(next(nodeB).flushAll()).isTrue();
+        verify(nodeB.cache(), atLeastOnce()).evictAllRegions();
+        awaitListening("listener-b");
+
+        nodeA.bus().publish(42, "4fR9tLq2XbZ", revision(1));
+        assertThat(next(nodeB).changes()).containsExactly(new PassportChange(42, "4fR9tLq2XbZ", revision(1)));
+        assertThat(nodeA.events()).isEmpty();
+    }
+}
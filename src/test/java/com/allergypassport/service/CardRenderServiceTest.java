@@ -0,0 +1,98 @@
+package com.allergypassport.service;
+
+import com.allergypassport.entity.AllergySeverity;
+import com.allergypassport.entity.AllergyType;
+import com.allergypassport.util.QRCodeService;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.ResourceBundleMessageSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CardRenderServiceTest {
+
+    private static final String PUBLIC_ID = "9e3779b9";
+
+    private final TranslationService translationService = mock(TranslationService.class);
+    private CardRenderService service;
+
+    @BeforeEach
+    void createService() {
+        ResourceBundleMessageSource messageSource = new ResourceBundleMessageSource();
+        messageSource.setBasename("i18n/messages");
+        messageSource.setDefaultEncoding("UTF-8");
+        messageSource.setFallbackToSystemLocale(false);
+
+        QRCodeService qrCodeService = new QRCodeService();
+        ReflectionTestUtils.setField(qrCodeService, "baseUrl", "https://allergy.example.com");
+        ReflectionTestUtils.setField(qrCodeService, "defaultWidth", 300);
+        ReflectionTestUtils.setField(qrCodeService, "defaultHeight", 300);
+        ReflectionTestUtils.setField(qrCodeService, "mode", "standard");
+        ReflectionTestUtils.setField(qrCodeService, "errorCorrectionFloor", ErrorCorrectionLevel.H);
+        ReflectionTestUtils.invokeMethod(qrCodeService, "init");
+
+        service = new CardRenderService(messageSource, translationService, qrCodeService, 16, 2, 4);
+    }
+
+    @AfterEach
+    void shutdown() {
+        service.shutdown();
+    }
+
+    private static CardRenderService.CardContent content(String notes) {
+        return new CardRenderService.CardContent(PUBLIC_ID, "Jane Doe", LocalDateTime.of(2026, 1, 1, 12, 0),
+                "https://allergy.example.com/u/" + PUBLIC_ID,
+                List.of(new CardRenderService.CardAllergy(AllergyType.PEANUTS, AllergySeverity.SEVERE, notes)));
+    }
+
+    @Test
+    void panelsAreStackedInTheRequestedOrder() throws Exception {
+        when(translationService.translate(eq("Carries an EpiPen"), isNull(), any(Locale.class)))
+                .thenAnswer(call -> "[" + call.getArgument(2, Locale.class).getLanguage() + "] Carries an EpiPen");
+
+        String svg = service.renderCard(content("Carries an EpiPen"),
+                List.of(Locale.FRENCH, Locale.ENGLISH, Locale.GERMAN));
+
+        int french = svg.indexOf("Allergies alimentaires");
+        int english = svg.indexOf("Food Allergies");
+        int german = svg.indexOf("Lebensmittelallergien");
+        assertThat(french).isPositive().isLessThan(english);
+        assertThat(english).isLessThan(german);
+        assertThat(svg).contains("[fr] Carries an EpiPen", "[en] Carries an EpiPen", "[de] Carries an EpiPen");
+    }
+
+    @Test
+    void cachedCardsAreReusedButUncachedRendersDoNotFillTheCache() throws Exception {
+        List<Locale> languages = List.of(Locale.ENGLISH, Locale.GERMAN);
+
+        String uncached = service.renderCardUncached(content(null), languages);
+        String first = service.renderCard(content(null), languages);
+
+        assertThat(first).isEqualTo(uncached).isNotSameAs(uncached);
+        assertThat(service.renderCard(content(null), languages)).isSameAs(first);
+    }
+
+    @Test
+    void failingTranslationFailsTheCard() {
+        when(translationService.translate(any(), any(), eq(Locale.ENGLISH))).thenReturn("Carries an EpiPen");
+        when(translationService.translate(any(), any(), eq(Locale.GERMAN)))
+                .thenThrow(new IllegalStateException("Translation API unavailable"));
+
+        assertThatThrownBy(() -> service.renderCard(content("Carries an EpiPen"), List.of(Locale.ENGLISH, Locale.GERMAN)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasRootCauseMessage("Translation API unavailable");
+    }
+}
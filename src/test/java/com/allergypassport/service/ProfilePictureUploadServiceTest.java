@@ -0,0 +1,91 @@
+package com.allergypassport.service;
+
+import com.allergypassport.entity.PictureUploadState;
+import com.allergypassport.entity.User;
+import com.allergypassport.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class ProfilePictureUploadServiceTest {
+
+    @Autowired
+    private ProfilePictureUploadService uploadService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private User user;
+
+    @BeforeEach
+    void createUser() {
+        user = userRepository.save(new User("upload-user", "upload@example.com", "Upload User"));
+    }
+
+    @AfterEach
+    void deleteUser() {
+        userRepository.deleteById(user.getId());
+    }
+
+    private static byte[] png() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB), "png", out);
+        return out.toByteArray();
+    }
+
+    private void setState(PictureUploadState state, LocalDateTime at) {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                userRepository.updatePictureUpload(user.getId(), state, at));
+    }
+
+    @Test
+    void completedUploadIsReportedOnceFromTheUserRow() throws Exception {
+        uploadService.accept(user.getId(), new MockMultipartFile("picture", "p.png", "image/png", png()));
+
+        ProfilePictureUploadService.UploadStatus status = uploadService.pollStatus(user.getId());
+        for (int i = 0; i < 100 && status.state() == PictureUploadState.PENDING; i++) {
+            Thread.sleep(100);
+            status = uploadService.pollStatus(user.getId());
+        }
+
+        assertThat(status.state()).isEqualTo(PictureUploadState.COMPLETED);
+        assertThat(uploadService.pollStatus(user.getId())).isNull();
+        User stored = userRepository.findById(user.getId()).orElseThrow();
+        assertThat(stored.getProfilePictureHash()).isNotNull();
+        assertThat(stored.getPictureUploadState()).isNull();
+    }
+
+    @Test
+    void expiredPendingUploadIsReportedAsFailedOnce() {
+        setState(PictureUploadState.PENDING, LocalDateTime.now().minusHours(1));
+
+        assertThat(uploadService.pollStatus(user.getId()).state()).isEqualTo(PictureUploadState.FAILED);
+        assertThat(uploadService.pollStatus(user.getId())).isNull();
+    }
+
+    @Test
+    void expiredUnreadResultIsDropped() {
+        setState(PictureUploadState.COMPLETED, LocalDateTime.now().minusHours(1));
+
+        assertThat(uploadService.pollStatus(user.getId())).isNull();
+        assertThat(userRepository.findPictureUpload(user.getId()).orElseThrow().state()).isNull();
+    }
+}
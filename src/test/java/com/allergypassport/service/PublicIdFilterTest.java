@@ -0,0 +1,120 @@
+package com.allergypassport.service;
+
+import com.allergypassport.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PublicIdFilterTest {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final List<String> existingIds = new ArrayList<>();
+
+    private PublicIdFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < 1000; i++) {
+            existingIds.add(randomPublicId());
+        }
+        when(userRepository.count()).thenReturn((long) existingIds.size());
+        when(userRepository.streamAllPublicIds()).thenAnswer(invocation -> existingIds.stream());
+
+        filter = new PublicIdFilter(userRepository, mock(CacheInvalidationBus.class),
+                mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(filter, "enabled", true);
+        ReflectionTestUtils.setField(filter, "falsePositiveRate", 0.01);
+        ReflectionTestUtils.setField(filter, "minCapacity", 10_000L);
+        ReflectionTestUtils.setField(filter, "syncOverlap", Duration.ofMinutes(1));
+        filter.rebuild();
+    }
+
+    @Test
+    void bloomFilterHasNoFalseNegatives() {
+        PublicIdFilter.BloomFilter bloom = new PublicIdFilter.BloomFilter(100_000, 0.01);
+        List<String> added = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            String publicId = randomPublicId();
+            bloom.put(publicId);
+            added.add(publicId);
+        }
+        assertThat(added).allMatch(bloom::mightContain);
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (bloom.mightContain(randomPublicId())) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives).isLessThan(2_000);
+    }
+
+    @Test
+    void builtFilterKnowsEveryExistingIdAndRejectsUnknownOnes() {
+        assertThat(existingIds).allMatch(filter::mightExist);
+        assertThat(unknownIdsLetThrough()).isLessThan(50);
+    }
+
+    @Test
+    void usersWhoseAnnouncementWasLostAreAddedByTheNextSync() {
+        String publicId = randomPublicId();
+        // Created on another instance whose pg_notify failed: only the database knows about it
+        when(userRepository.findPublicIdsCreatedAfter(any(LocalDateTime.class))).thenReturn(List.of(publicId));
+
+        filter.sync();
+
+        assertThat(filter.mightExist(publicId)).isTrue();
+    }
+
+    @Test
+    void listenerTroubleLetsEveryIdThroughUntilTheNextSync() {
+        when(userRepository.findPublicIdsCreatedAfter(any(LocalDateTime.class))).thenReturn(List.of());
+
+        filter.onInvalidation(new CacheInvalidationBus.InvalidationEvent(List.of(), true));
+        assertThat(unknownIdsLetThrough()).isEqualTo(1000);
+
+        filter.sync();
+        assertThat(unknownIdsLetThrough()).isLessThan(50);
+    }
+
+    @Test
+    void failedSyncLetsEveryIdThroughUntilASyncSucceeds() {
+        when(userRepository.findPublicIdsCreatedAfter(any(LocalDateTime.class)))
+                .thenThrow(new DataAccessResourceFailureException("connection refused"))
+                .thenReturn(List.of());
+
+        filter.sync();
+        assertThat(unknownIdsLetThrough()).isEqualTo(1000);
+
+        filter.sync();
+        assertThat(unknownIdsLetThrough()).isLessThan(50);
+    }
+
+    private int unknownIdsLetThrough() {
+        int count = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (filter.mightExist(randomPublicId())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Same format as User.publicId
+    private static String randomPublicId() {
+        return UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,134 @@
+package com.allergypassport.service;
+
+import com.allergypassport.entity.AllergySeverity;
+import com.allergypassport.entity.AllergyType;
+import com.allergypassport.entity.User;
+import com.allergypassport.entity.UserAllergy;
+import com.allergypassport.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class QRExportServiceTest {
+
+    @Autowired
+    private QRExportService qrExportService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final List<User> created = new ArrayList<>();
+
+    @AfterEach
+    void deleteUsers() {
+        userRepository.deleteAll(created);
+    }
+
+    private User createUser(int index, boolean withAllergy) {
+        User user = new User("qr-export-" + index, "qr-export-" + index + "@example.com", "User " + index);
+        if (withAllergy) {
+            user.addAllergy(new UserAllergy(user, AllergyType.values()[index % AllergyType.values().length],
+                    AllergySeverity.SEVERE));
+        }
+        User saved = userRepository.save(user);
+        created.add(saved);
+        return saved;
+    }
+
+    private static Map<String, byte[]> unzip(byte[] zip) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                entries.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        return entries;
+    }
+
+    @Test
+    void exportsEveryPassportAcrossChunksOutsideTheReadTransaction() throws IOException {
+        List<String> publicIds = new ArrayList<>();
+        for (int i = 0; i < QRExportService.CHUNK_SIZE + 50; i++) {
+            publicIds.add(createUser(i, i % 3 == 0).getPublicId());
+        }
+        String unknown = "0000000000000000";
+        publicIds.add(unknown);
+
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        AtomicInteger writesInTransaction = new AtomicInteger();
+        qrExportService.writeZip(publicIds, QRExportService.Format.SVG, 200, List.of(),
+                new FilterOutputStream(zip) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                            writesInTransaction.incrementAndGet();
+                        }
+                        out.write(b, off, len);
+                    }
+                });
+
+        Map<String, byte[]> entries = unzip(zip.toByteArray());
+        assertThat(entries).hasSize(QRExportService.CHUNK_SIZE + 50 + 1);
+        assertThat(entries).containsKey("allergy-passport-" + publicIds.get(0) + ".svg");
+        assertThat(entries).containsKey("allergy-passport-" + publicIds.get(QRExportService.CHUNK_SIZE + 49) + ".svg");
+        assertThat(new String(entries.get("missing.txt"), StandardCharsets.UTF_8)).isEqualTo(unknown);
+        assertThat(writesInTransaction).hasValue(0);
+    }
+
+    @Test
+    void passportRequestedTwiceIsExportedOnce() throws IOException {
+        String publicId = createUser(1000, true).getPublicId();
+
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        qrExportService.writeZip(List.of(publicId, publicId), QRExportService.Format.PNG, 200,
+                List.of(), zip);
+
+        assertThat(unzip(zip.toByteArray())).containsOnlyKeys("allergy-passport-" + publicId + ".png");
+    }
+
+    @Test
+    void cardsAreNotRenderedOnTheQrPool() throws IOException {
+        List<String> publicIds = List.of(createUser(2000, true).getPublicId(), createUser(2001, false).getPublicId());
+        double submittedBefore = qrPoolSubmissions();
+
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        qrExportService.writeZip(publicIds, QRExportService.Format.PNG, 200,
+                List.of(Locale.ENGLISH, Locale.GERMAN), zip);
+
+        assertThat(unzip(zip.toByteArray())).hasSize(4).containsKey("allergy-passport-" + publicIds.get(0) + "-card.svg");
+        // One QR image per passport; the cards are rendered elsewhere
+        assertThat(qrPoolSubmissions() - submittedBefore).isEqualTo(2);
+    }
+
+    /**
+     * @return Tasks the QR pool ran or rejected so far
+     */
+    private double qrPoolSubmissions() {
+        return meterRegistry.get("qr.render.wait").timer().count() + meterRegistry.get("qr.render.rejected").counter().count();
+    }
+}
@@ -0,0 +1,146 @@
+package com.allergypassport.service;
+
+import com.allergypassport.dto.AllergyMutation;
+import com.allergypassport.entity.AllergySeverity;
+import com.allergypassport.entity.AllergyType;
+import com.allergypassport.entity.User;
+import com.allergypassport.entity.UserAllergy;
+import com.allergypassport.repository.UserRepository;
+import com.allergypassport.util.AllergyMask;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class UserServiceTest {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private User user;
+
+    @AfterEach
+    void deleteUser() {
+        if (user != null) {
+            userRepository.deleteById(user.getId());
+        }
+    }
+
+    @Test
+    void newUserGetsTheMaskOfTheAllergiesItIsCreatedWith() {
+        User created = new User("mask-on-insert", "mask@example.com", "Mask");
+        created.addAllergy(new UserAllergy(created, AllergyType.PEANUTS, AllergySeverity.SEVERE));
+        user = userRepository.save(created);
+
+        assertThat(userRepository.findAllergyMask(user.getId()))
+                .isEqualTo(AllergyMask.with(0L, AllergyType.PEANUTS, AllergySeverity.SEVERE));
+    }
+
+    @Test
+    void allergyMutationReadsTheUserOnceAndReturnsTheStoredState() {
+        User created = new User("mutation-queries", "queries@example.com", "Queries");
+        created.addAllergy(new UserAllergy(created, AllergyType.PEANUTS, AllergySeverity.SEVERE));
+        user = userRepository.save(created);
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        AllergyMutation result = new TransactionTemplate(transactionManager).execute(status -> {
+            AllergyMutation mutation = userService.saveAllergy(user.getId(), AllergyType.DAIRY, AllergySeverity.INTOLERANCE, "Lactose");
+            // Touch the returned list inside the transaction, where a lazy fetch would still be possible
+            mutation.allergies().forEach(UserAllergy::getAllergyType);
+            return mutation;
+        });
+
+        assertThat(result.allergies()).extracting(UserAllergy::getAllergyType)
+                .containsExactly(AllergyType.PEANUTS, AllergyType.DAIRY);
+        // Two reads (the row lock and the user with its allergies) plus the two writes (the new allergy
+        // row and the users row with mask and revision); nothing is read again for the returned state
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(4);
+        assertThat(statistics.getQueryExecutionCount()).isEqualTo(2);
+        assertThat(statistics.getCollectionFetchCount()).isZero();
+        assertThat(statistics.getEntityInsertCount()).isEqualTo(1);
+        assertThat(statistics.getEntityUpdateCount()).isEqualTo(1);
+
+        User stored = userRepository.findById(user.getId()).orElseThrow();
+        assertThat(result.publicId()).isEqualTo(stored.getPublicId());
+        assertThat(result.allergyMask()).isEqualTo(stored.getAllergyMask());
+        assertThat(result.revision()).isEqualTo(stored.getUpdatedAt());
+    }
+
+    @Test
+    void concurrentAllergyChangesDoNotLoseMaskUpdates() throws Exception {
+        user = userRepository.save(new User("mask-concurrent", "concurrent@example.com", "Concurrent"));
+        CountDownLatch firstApplied = new CountDownLatch(1);
+
+        // The first change keeps its transaction open for a while after applying the change
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() ->
+                new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                    userService.saveAllergy(user.getId(), AllergyType.PEANUTS, AllergySeverity.SEVERE, null);
+                    firstApplied.countDown();
+                    sleep(500);
+                }));
+        assertThat(firstApplied.await(10, TimeUnit.SECONDS)).isTrue();
+        // Waits for the first transaction, then builds on its mask
+        userService.saveAllergy(user.getId(), AllergyType.DAIRY, AllergySeverity.INTOLERANCE, null);
+        first.get(10, TimeUnit.SECONDS);
+
+        long expected = AllergyMask.with(AllergyMask.with(0L, AllergyType.PEANUTS, AllergySeverity.SEVERE),
+                AllergyType.DAIRY, AllergySeverity.INTOLERANCE);
+        assertThat(userRepository.findAllergyMask(user.getId())).isEqualTo(expected);
+        assertThat(userService.getUserAllergies(user.getId())).hasSize(2);
+    }
+
+    @Test
+    void pictureUpdateOverlappingAnAllergyChangeKeepsTheMask() throws Exception {
+        user = userRepository.save(new User("mask-picture", "picture@example.com", "Picture"));
+        CountDownLatch allergyApplied = new CountDownLatch(1);
+
+        CompletableFuture<Void> allergyChange = CompletableFuture.runAsync(() ->
+                new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                    userService.saveAllergy(user.getId(), AllergyType.PEANUTS, AllergySeverity.SEVERE, null);
+                    allergyApplied.countDown();
+                    sleep(500);
+                }));
+        assertThat(allergyApplied.await(10, TimeUnit.SECONDS)).isTrue();
+        // Reads the user before the allergy change commits (as the upload queue may), then waits for its row lock
+        userService.updateProfilePicture(user.getId(), "a".repeat(64), "image/png");
+        allergyChange.get(10, TimeUnit.SECONDS);
+
+        assertThat(userRepository.findAllergyMask(user.getId()))
+                .isEqualTo(AllergyMask.with(0L, AllergyType.PEANUTS, AllergySeverity.SEVERE));
+        assertThat(userRepository.findById(user.getId()).orElseThrow().getProfilePictureHash())
+                .isEqualTo("a".repeat(64));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
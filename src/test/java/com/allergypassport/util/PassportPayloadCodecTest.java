@@ -0,0 +1,147 @@
+package com.allergypassport.util;
+
+import com.allergypassport.entity.AllergySeverity;
+import com.allergypassport.entity.AllergyType;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.fail;
+
+class PassportPayloadCodecTest {
+
+    private static final LocalDateTime REVISION = LocalDateTime.of(2026, 3, 14, 15, 9, 26, 535_000_000);
+
+    @Test
+    void emptyPassportRoundTrips() {
+        PassportPayloadCodec.Payload payload = PassportPayloadCodec.decode(
+                PassportPayloadCodec.encode(Map.of(), REVISION));
+
+        assertThat(payload.allergies()).isEmpty();
+        assertThat(payload.revision()).isEqualTo(PassportPayloadCodec.revisionOf(REVISION));
+    }
+
+    @Test
+    void everyTypeAndSeverityRoundTrips() {
+        for (AllergyType type : AllergyType.values()) {
+            for (AllergySeverity severity : AllergySeverity.values()) {
+                Map<AllergyType, AllergySeverity> allergies = Map.of(type, severity);
+
+                assertThat(PassportPayloadCodec.decode(PassportPayloadCodec.encode(allergies, REVISION)).allergies())
+                        .isEqualTo(allergies);
+            }
+        }
+    }
+
+    @Test
+    void everyCombinationRoundTrips() {
+        AllergyType[] types = AllergyType.values();
+        AllergySeverity[] severities = AllergySeverity.values();
+        long revision = PassportPayloadCodec.revisionOf(REVISION);
+        // Each type is absent or has one of the severities: 3^15 (about 14.3M) combinations
+        long combinations = Math.round(Math.pow(severities.length + 1, types.length));
+        for (long combination = 0; combination < combinations; combination++) {
+            long mask = 0;
+            int present = 0;
+            long digits = combination;
+            for (AllergyType type : types) {
+                int pick = (int) (digits % (severities.length + 1));
+                digits /= severities.length + 1;
+                if (pick > 0) {
+                    mask = AllergyMask.with(mask, type, severities[pick - 1]);
+                    present++;
+                }
+            }
+
+            Map<AllergyType, AllergySeverity> decoded =
+                    PassportPayloadCodec.decode(PassportPayloadCodec.encode(mask, revision)).allergies();
+            if (decoded.size() != present || AllergyMask.pack(decoded) != mask) {
+                fail("Mask %d decoded as %s", mask, decoded);
+            }
+        }
+    }
+
+    @Test
+    void encodedPayloadIsFourteenUrlSafeCharacters() {
+        String encoded = PassportPayloadCodec.encode(Map.of(AllergyType.values()[0], AllergySeverity.SEVERE), REVISION);
+
+        assertThat(encoded).hasSize(14).matches("[A-Za-z0-9_-]+");
+    }
+
+    @Test
+    void editsWithinTheSameMinuteGetDifferentRevisions() {
+        LocalDateTime first = LocalDateTime.of(2026, 3, 14, 15, 9, 0);
+        LocalDateTime second = first.plusSeconds(1);
+        LocalDateTime third = second.plusNanos(2_000_000);
+
+        assertThat(PassportPayloadCodec.revisionOf(second)).isGreaterThan(PassportPayloadCodec.revisionOf(first));
+        assertThat(PassportPayloadCodec.revisionOf(third)).isGreaterThan(PassportPayloadCodec.revisionOf(second));
+        assertThat(PassportPayloadCodec.decode(PassportPayloadCodec.encode(0L, PassportPayloadCodec.revisionOf(second))).revision())
+                .isEqualTo(PassportPayloadCodec.revisionOf(second));
+    }
+
+    @Test
+    void revisionsBeforeTheEpochOrMissingAreZero() {
+        assertThat(PassportPayloadCodec.revisionOf(null)).isZero();
+        assertThat(PassportPayloadCodec.revisionOf(LocalDateTime.of(2023, 12, 31, 23, 59))).isZero();
+    }
+
+    @Test
+    void versionOnePayloadsStillDecodeWithRevisionInMilliseconds() {
+        // Version 1: [01][mask:30], 3-byte revision in minutes, CRC-8
+        long mask = AllergyMask.pack(Map.of(AllergyType.values()[1], AllergySeverity.INTOLERANCE));
+        int minutes = 1_234_567;
+        byte[] bytes = {
+                (byte) (0x40 | (mask >>> 24)), (byte) (mask >>> 16), (byte) (mask >>> 8), (byte) mask,
+                (byte) (minutes >>> 16), (byte) (minutes >>> 8), (byte) minutes, 0
+        };
+        bytes[7] = crc8(bytes, 7);
+
+        PassportPayloadCodec.Payload payload =
+                PassportPayloadCodec.decode(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes));
+
+        assertThat(payload.allergies()).isEqualTo(Map.of(AllergyType.values()[1], AllergySeverity.INTOLERANCE));
+        assertThat(payload.revision()).isEqualTo(minutes * 60_000L);
+    }
+
+    @Test
+    void corruptedPayloadIsRejected() {
+        char[] chars = PassportPayloadCodec.encode(Map.of(AllergyType.values()[2], AllergySeverity.SEVERE), REVISION)
+                .toCharArray();
+        chars[3] = chars[3] == 'A' ? 'B' : 'A';
+
+        assertThatThrownBy(() -> PassportPayloadCodec.decode(new String(chars)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("checksum");
+    }
+
+    @Test
+    void malformedPayloadsAreRejected() {
+        assertThatThrownBy(() -> PassportPayloadCodec.decode("not base64!"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> PassportPayloadCodec.decode("AAAA"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("bytes");
+    }
+
+    @Test
+    void maskBeyondThirtyBitsIsRejected() {
+        assertThatThrownBy(() -> PassportPayloadCodec.encode(1L << 30, PassportPayloadCodec.revisionOf(REVISION)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static byte crc8(byte[] data, int length) {
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            crc ^= data[i] & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x07) & 0xFF : (crc << 1) & 0xFF;
+            }
+        }
+        return (byte) crc;
+    }
+}
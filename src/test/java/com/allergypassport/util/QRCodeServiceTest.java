@@ -0,0 +1,84 @@
+package com.allergypassport.util;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeReader;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayInputStream;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QRCodeServiceTest {
+
+    private static final String PUBLIC_ID = "9e3779b9";
+
+    private static QRCodeService service(String mode) {
+        return service(mode, "https://allergy.example.com");
+    }
+
+    private static QRCodeService service(String mode, String baseUrl) {
+        QRCodeService service = new QRCodeService();
+        ReflectionTestUtils.setField(service, "baseUrl", baseUrl);
+        ReflectionTestUtils.setField(service, "defaultWidth", 300);
+        ReflectionTestUtils.setField(service, "defaultHeight", 300);
+        ReflectionTestUtils.setField(service, "mode", mode);
+        ReflectionTestUtils.setField(service, "errorCorrectionFloor", ErrorCorrectionLevel.H);
+        service.init();
+        return service;
+    }
+
+    private static String decode(byte[] png) throws Exception {
+        BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(
+                new BufferedImageLuminanceSource(ImageIO.read(new ByteArrayInputStream(png)))));
+        return new QRCodeReader().decode(bitmap, Map.of(DecodeHintType.PURE_BARCODE, Boolean.TRUE)).getText();
+    }
+
+    @Test
+    void standardCodeDecodesToPassportUrl() throws Exception {
+        QRCodeService service = service("standard");
+
+        QRCodeImage image = service.generateQRCodeImage(PUBLIC_ID, 300, 300);
+
+        assertThat(decode(image.png())).isEqualTo("https://allergy.example.com/u/" + PUBLIC_ID);
+        assertThat(image.errorCorrection()).isEqualTo(ErrorCorrectionLevel.H);
+    }
+
+    @Test
+    void compactCodeDecodesToUppercaseShortUrlThatResolvesToThePublicId() throws Exception {
+        QRCodeService service = service("compact");
+
+        String content = decode(service.generateQRCodeImage(PUBLIC_ID, 300, 300).png());
+
+        assertThat(content).isEqualTo("HTTPS://ALLERGY.EXAMPLE.COM/Q/9E3779B9");
+        assertThat(content.substring(content.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT)).isEqualTo(PUBLIC_ID);
+    }
+
+    @Test
+    void compactCodeNeedsNoHigherVersionThanStandard() throws Exception {
+        QRCodeImage standard = service("standard").generateQRCodeImage(PUBLIC_ID, 300, 300);
+        QRCodeImage compact = service("compact").generateQRCodeImage(PUBLIC_ID, 300, 300);
+
+        assertThat(compact.version()).isLessThanOrEqualTo(standard.version());
+    }
+
+    @Test
+    void errorCorrectionIsRaisedAboveTheFloorWhenTheVersionHasRoom() throws Exception {
+        QRCodeService service = service("compact", "https://a");
+        ReflectionTestUtils.setField(service, "errorCorrectionFloor", ErrorCorrectionLevel.L);
+
+        // 20 alphanumeric characters: version 1 holds 25 at L, 20 at M, 16 at Q and 10 at H
+        QRCodeImage image = service.generateQRCodeImage(PUBLIC_ID, 300, 300);
+
+        assertThat(image.version()).isEqualTo(1);
+        assertThat(image.errorCorrection()).isEqualTo(ErrorCorrectionLevel.M);
+        assertThat(decode(image.png())).isEqualTo("HTTPS://A/Q/9E3779B9");
+    }
+}